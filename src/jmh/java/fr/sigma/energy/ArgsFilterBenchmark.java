@@ -0,0 +1,48 @@
+package fr.sigma.energy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Counting of arguments seen, once per call of the box.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArgsFilterBenchmark {
+
+    private ArgsFilter filter;
+    private Double[][] args;
+    private int next = 0;
+
+    @Setup
+    public void setup () {
+        filter = new ArgsFilter(1000, 14);
+        args = new Double[1000][];
+        for (int i = 0; i < args.length; ++i)
+            args[i] = new Double[]{(double) i, 2. * i};
+    }
+
+    @Benchmark
+    public boolean tryAndCheck () {
+        next = (next + 1) % args.length;
+        filter.tryArgs(args[next]);
+        return filter.isTriedEnough(args[next]);
+    }
+
+}
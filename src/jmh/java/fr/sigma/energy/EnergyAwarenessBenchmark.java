@@ -0,0 +1,99 @@
+package fr.sigma.energy;
+
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import fr.sigma.structures.IntervalSet;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.TreeRangeSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Distribution of an objective among this box and its remote
+ * services, and the combination of their intervals, i.e., the sum
+ * and coalescing of interval sets on the hot path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnergyAwarenessBenchmark {
+
+    @Param({"0", "0.5"})
+    public double fairnessFactor;
+
+    @Param({"1", "4", "16"})
+    public int nbRemotes;
+
+    @Param({"8"})
+    public int rangesPerRemote;
+
+    private EnergyAwareness energyAwareness;
+    private IntervalSet i1;
+    private IntervalSet i2;
+    private IntervalSet summed;
+    private double objective;
+
+    private TreeRangeSet<Double> randomRangeSet (Random random) {
+        TreeRangeSet<Double> result = TreeRangeSet.create();
+        double lower = 0.;
+        for (int i = 0; i < rangesPerRemote; ++i) {
+            lower += 10. + random.nextInt(100);
+            result.add(Range.closed(lower, lower + 1. + random.nextInt(10)));
+            lower += 11.;
+        }
+        return result;
+    }
+
+    @Setup
+    public void setup () {
+        var random = new Random(42);
+        energyAwareness = new EnergyAwareness("bench", 10, 100, 14, fairnessFactor, 15.);
+        for (int i = 0; i < 10; ++i)
+            energyAwareness.addEnergyData(new Double[]{(double) i}, 50. * i);
+        for (int i = 0; i < nbRemotes; ++i)
+            energyAwareness.updateRemote(String.format("remote-%s", i), randomRangeSet(random));
+        var intervals = energyAwareness.combineIntervals();
+        objective = (intervals.min() + intervals.max()) / 2.;
+        i1 = IntervalSet.fromRangeSet(randomRangeSet(random));
+        i2 = IntervalSet.fromRangeSet(randomRangeSet(random));
+        summed = i1.sum(i2);
+    }
+
+    @Benchmark
+    public TreeMap<String, Double> getObjectives () {
+        return energyAwareness.getObjectives(objective, false);
+    }
+
+    @Benchmark
+    public IntervalSet combination () {
+        return i1.sum(i2);
+    }
+
+    @Benchmark
+    public IntervalSet boundedCombination () {
+        return i1.sum(i2, rangesPerRemote, 1.);
+    }
+
+    @Benchmark
+    public IntervalSet coalesce () {
+        return summed.coalesce(rangesPerRemote, 1.);
+    }
+
+}
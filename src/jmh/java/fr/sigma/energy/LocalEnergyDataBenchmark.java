@@ -0,0 +1,60 @@
+package fr.sigma.energy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Monitoring of local costs: new data may evict others, and
+ * objectives are turned into arguments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalEnergyDataBenchmark {
+
+    @Param({"10", "100"})
+    public int maxSize;
+
+    private LocalEnergyData data;
+    private Double[][] args;
+    private int next = 0;
+
+    @Setup
+    public void setup () {
+        data = new LocalEnergyData(maxSize, 10, 15.);
+        args = new Double[4 * maxSize][];
+        for (int i = 0; i < args.length; ++i)
+            args[i] = new Double[]{(double) i};
+        for (int i = 0; i < maxSize; ++i)
+            data.addEnergyData(args[i], 10. * i);
+    }
+
+    @Benchmark
+    public boolean addEnergyData () {
+        // cycles through more arguments than kept, hence evictions
+        next = (next + 1) % args.length;
+        return data.addEnergyData(args[next], 10. * next);
+    }
+
+    @Benchmark
+    public Double[] getClosest () {
+        return data.getClosest(5. * maxSize);
+    }
+
+}
@@ -0,0 +1,80 @@
+package fr.sigma.structures;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Dynamic programming table of the knapsack solver, and its
+ * backtracking, for several capacities and numbers of groups (i.e.,
+ * remote services).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MCKPBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int maxObjective;
+
+    @Param({"2", "8"})
+    public int nbGroups;
+
+    @Param({"8"})
+    public int elementsPerGroup;
+
+    private ArrayList<MCKPElement> elements;
+    private MCKP processed;
+
+    @Setup
+    public void setup () {
+        var random = new Random(42);
+        elements = new ArrayList<>();
+        int maxWeight = maxObjective / nbGroups;
+        for (int g = 0; g < nbGroups; ++g) {
+            // sorted by group then ascending weight, as the solver expects
+            int weight = 0;
+            for (int e = 0; e < elementsPerGroup; ++e) {
+                weight += 1 + random.nextInt(Math.max(1, maxWeight / elementsPerGroup));
+                elements.add(new MCKPElement(weight, weight, g));
+            }
+        }
+        processed = new MCKP(maxObjective, new ArrayList<>(elements));
+        processed.process();
+    }
+
+    @Benchmark
+    public MCKP process () {
+        var mckp = new MCKP(maxObjective, new ArrayList<>(elements));
+        mckp.process();
+        return mckp;
+    }
+
+    @Benchmark
+    public ArrayList<Integer> backtrack () {
+        return processed.backtrack(maxObjective / 2);
+    }
+
+    @Benchmark
+    public ArrayList<MCKPElement> greedy () {
+        return new MCKPGreedy(elements).solve(maxObjective / 2);
+    }
+
+}
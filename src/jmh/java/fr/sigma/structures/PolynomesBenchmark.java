@@ -0,0 +1,58 @@
+package fr.sigma.structures;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Simulated cost of a call, e.g., box.polynomes.coefficients =
+ * 1000-2000,10@1 is two polynomes over two arguments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolynomesBenchmark {
+
+    @Param({"1", "4"})
+    public int nbArgs;
+
+    @Param({"3"})
+    public int degree;
+
+    private Polynomes polynomes;
+    private Double[] args;
+
+    @Setup
+    public void setup () {
+        polynomes = new Polynomes();
+        args = new Double[nbArgs];
+        for (int i = 0; i < nbArgs; ++i) {
+            double[] coefs = new double[degree + 1];
+            for (int c = 0; c <= degree; ++c)
+                coefs[c] = 10. * (c + 1);
+            polynomes.add(new Polynome(coefs), i);
+            args[i] = 2. + i;
+        }
+    }
+
+    @Benchmark
+    public long get () {
+        return polynomes.get(args);
+    }
+
+}
@@ -1,21 +1,34 @@
 package fr.sigma.box;
 
+import fr.sigma.energy.AdmissionControl;
+import fr.sigma.energy.ArgsFilter;
+import fr.sigma.energy.CostSource;
 import fr.sigma.energy.EnergyAwareness;
-import fr.sigma.structures.Polynomes;
-import fr.sigma.structures.Polynome;
+import fr.sigma.energy.EnergyBudget;
+import fr.sigma.energy.EnergyDataStore;
+import fr.sigma.energy.LatencyAwareness;
+import fr.sigma.jfr.RemoteCallEvent;
+import fr.sigma.logging.RequestLog;
+import fr.sigma.structures.MappedCountingBloomFilter;
+import fr.sigma.structures.IntervalSet;
+import fr.sigma.structures.LatencyWindow;
 import fr.sigma.structures.Pair;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.opentracing.Tracer;
 import io.opentracing.Span;
 import io.opentracing.tag.StringTag;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.http.HttpStatus;
@@ -25,6 +38,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -34,9 +51,22 @@ import java.util.TreeMap;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
-import org.apache.commons.lang3.time.DurationFormatUtils;
-import com.google.common.primitives.Doubles;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableMap;
 
 
@@ -52,11 +82,18 @@ public class BoxController {
     
     @Value("#{'${box.polynomes.coefficients}'.split('-')}")
     private List<String> coefficients;
-    private Polynomes polynomes; 
 
     @Value("#{'${box.remote.calls}'.split(',')}")
     private List<String> remote_calls;
-    private ArrayList<Pair<String, Integer>> address_time_list;
+
+    @Value("${box.endpoints.max.size:0}")
+    private Long endpoints_max_size;
+    @Value("${box.endpoints.expire.after.access:0}")
+    private Long endpoints_expire_after_access;
+    // one workload and energy model per request path
+    private LoadingCache<String, Endpoint> endpoints;
+    // endpoints not closed yet, evicted ones included, by path
+    private final ConcurrentHashMap<String, Endpoint> openEndpoints = new ConcurrentHashMap<>();
 
     @Value("${box.energy.call.url:''}")
     private String energy_call_url; // (TODO) use this, i.e., with smartwatts
@@ -70,16 +107,114 @@ public class BoxController {
     private Double energy_factor_localdatakept_differentdatamonitored;
     @Value("${box.energy.max.error:15}")
     private Double energy_max_error;
-    private EnergyAwareness energyAwareness;
+    @Value("${box.energy.solver.time.budget:0}")
+    private Double energy_solver_time_budget;
+    @Value("${box.energy.max.ranges:0}")
+    private Integer energy_max_ranges;
+    @Value("${box.energy.ranges.merge.gap:0}")
+    private Double energy_ranges_merge_gap;
+    @Value("${box.energy.objectives.provenance:false}")
+    private Boolean energy_objectives_provenance;
+    @Value("${box.energy.objectives.cache.size:0}")
+    private Integer energy_objectives_cache_size;
+    @Value("${box.energy.objectives.cache.quantum:0}")
+    private Double energy_objectives_cache_quantum;
+    @Value("${box.energy.store.path:}")
+    private String energy_store_path;
+    @Value("${box.energy.store.snapshot.interval:0}")
+    private Long energy_store_snapshot_interval;
+    private ScheduledExecutorService snapshots;
+    @Value("${box.energy.filter.path:}")
+    private String energy_filter_path;
+    @Value("${box.energy.filter.expected.args:0}")
+    private Integer energy_filter_expected_args;
+
+    @Value("${box.energy.cost.source:thread}")
+    private String energy_cost_source;
+    @Value("${box.energy.cost.allocation.weight:0}")
+    private Double energy_cost_allocation_weight;
+    @Value("${box.energy.cost.powercap.path:/sys/class/powercap}")
+    private String energy_cost_powercap_path;
+    @Value("${box.energy.budget.rate:0}")
+    private Double energy_budget_rate;
+    @Value("${box.energy.budget.burst:0}")
+    private Double energy_budget_burst;
+    private EnergyBudget energyBudget = null; // shared by endpoints
+
+    @Value("${box.admission.degrade.in.flight:0}")
+    private Integer admission_degrade_in_flight;
+    @Value("${box.admission.degrade.cost:0}")
+    private Double admission_degrade_cost;
+    @Value("${box.admission.reject.in.flight:0}")
+    private Integer admission_reject_in_flight;
+    @Value("${box.admission.reject.cost:0}")
+    private Double admission_reject_cost;
+    @Value("${box.admission.retry.after:1}")
+    private Long admission_retry_after;
+    private AdmissionControl admission = null; // shared by endpoints
+
+    @Value("${box.latency.enable:false}")
+    private Boolean latency_enable;
+    @Value("${box.latency.max.error:0}")
+    private Double latency_max_error;
+
+    @Value("${box.await.enable:false}")
+    private Boolean await_enable;
+    @Value("${box.await.timeout:0}")
+    private Long await_timeout;
+    @Value("${box.await.hedge.percentile:0}")
+    private Double await_hedge_percentile;
+    @Value("${box.await.hedge.window:100}")
+    private Integer await_hedge_window;
+    @Value("${box.remote.threads:64}")
+    private Integer remote_threads;
+    @Value("${box.remote.queue:1024}")
+    private Integer remote_queue;
+    @Value("${box.remote.timeout:10000}")
+    private Long remote_timeout;
+    private ExecutorService remoteCalls; // calls and their hedges
+    @Value("${box.remote.poll.timeout:1000}")
+    private Long remote_poll_timeout;
+    @Value("${box.remote.breaker.window:0}")
+    private Integer remote_breaker_window;
+    @Value("${box.remote.breaker.min.calls:0}")
+    private Integer remote_breaker_min_calls;
+    @Value("${box.remote.breaker.failure.rate:0}")
+    private Double remote_breaker_failure_rate;
+    @Value("${box.remote.breaker.backoff:0}")
+    private Long remote_breaker_backoff;
+    @Value("${box.remote.breaker.max.backoff:0}")
+    private Long remote_breaker_max_backoff;
+    private RemoteRegistry remoteRegistry; // health of remotes
+    @Value("${box.remote.balance.policy:}")
+    private String remote_balance_policy;
+    @Value("${box.remote.balance.cost.aware:false}")
+    private Boolean remote_balance_cost_aware;
+    private ReplicaBalancer replicaBalancer; // replica of each call
+    // last latencies of each remote, to hedge calls
+    private final ConcurrentHashMap<String, LatencyWindow> remoteLatencies =
+        new ConcurrentHashMap<>();
+    private CostSource costSource;
+
+    @Value("${box.logging.ring.size:0}")
+    private Integer logging_ring_size;
+    @Value("${box.logging.slow.threshold:0}")
+    private Long logging_slow_threshold;
+    @Value("${box.logging.sample.rate:0}")
+    private Double logging_sample_rate;
 
     @Value("${spring.application.name}")
     private String service_name;
     
     @Autowired
     private Tracer tracer;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private Environment environment;
     private RestTemplate restTemplate;
 
-
+
     
     public BoxController() { }
 
@@ -88,92 +223,455 @@ public class BoxController {
 	// Span currentSpan = tracer.scopeManager().activeSpan();
 	// currentSpan.log(ImmutableMap.of("event", "startInit"));
 	
-        restTemplate = new RestTemplate();
-        
-        polynomes = new Polynomes();
-        for (String coefficient : coefficients) {
-            // format <a>,<b>,...,<k>[@index: default 0]
-            String[] coefficient_index = coefficient.split("@");
-            String[] coefsOfCurrentPoly = coefficient_index[0].split(",");
-            
-            var coefs = new ArrayList<Double>();
-            for (int i = 0; i < coefsOfCurrentPoly.length; ++i)
-                coefs.add( Double.parseDouble(coefsOfCurrentPoly[i]) );
-            
-            var index = coefficient_index.length > 1 ?
-                Integer.parseInt(coefficient_index[1]) :
-                0;
-            polynomes.add(new Polynome(coefs), index);
+        // calls to remotes set their own timeouts, see callRemote
+        restTemplate = new RestTemplate(new TimeoutRequestFactory());
+        // calls block their thread, they must not starve the common pool
+        var nbRemoteCalls = new AtomicInteger();
+        // bounded, calls beyond the queue are rejected rather than piling up
+        remoteCalls = new ThreadPoolExecutor(Math.max(1, remote_threads), Math.max(1, remote_threads),
+                                             0L, TimeUnit.MILLISECONDS,
+                                             new ArrayBlockingQueue<>(Math.max(1, remote_queue)),
+                                             runnable -> {
+                                                 var thread = new Thread(runnable, "remote-call-" +
+                                                                         nbRemoteCalls.incrementAndGet());
+                                                 thread.setDaemon(true);
+                                                 return thread;
+                                             },
+                                             new ThreadPoolExecutor.AbortPolicy());
+        costSource = CostSource.of(energy_cost_source, energy_cost_allocation_weight,
+                                   Path.of(energy_cost_powercap_path));
+        logger.info("Costs of requests are measured as {}.", costSource);
+        if (energy_budget_rate > 0) {
+            energyBudget = new EnergyBudget(energy_budget_rate, energy_budget_burst > 0 ?
+                                            energy_budget_burst : energy_budget_rate);
+            Gauge.builder("box.energy.budget.tokens", energyBudget, EnergyBudget::getTokens)
+                .description("cost the box can still afford at once")
+                .register(meterRegistry);
+            Gauge.builder("box.energy.budget.factor", energyBudget, EnergyBudget::getFactor)
+                .description("factor applied to objectives by the energy budget")
+                .register(meterRegistry);
+            logger.info("Costs of the box are capped at {} per second, {} at once.",
+                        energyBudget.getRate(), energyBudget.getBurst());
         }
-        
-        address_time_list = new ArrayList<>();
+
+        if (admission_degrade_in_flight > 0 || admission_degrade_cost > 0 ||
+            admission_reject_in_flight > 0 || admission_reject_cost > 0) {
+            admission = new AdmissionControl(admission_degrade_in_flight, admission_degrade_cost,
+                                             admission_reject_in_flight, admission_reject_cost);
+            Gauge.builder("box.admission.in.flight", admission, AdmissionControl::getInFlight)
+                .description("requests in flight")
+                .register(meterRegistry);
+            Gauge.builder("box.admission.in.flight.cost", admission,
+                          AdmissionControl::getInFlightCost)
+                .description("predicted cost of requests in flight")
+                .register(meterRegistry);
+        }
+
+        // remotes with an open circuit are neither called nor polled,
+        // and excluded from the distribution of objectives
+        remoteRegistry = new RemoteRegistry(remote_breaker_window, remote_breaker_min_calls,
+                                            remote_breaker_failure_rate,
+                                            remote_breaker_backoff, remote_breaker_max_backoff);
+        replicaBalancer = new ReplicaBalancer(remote_balance_policy, remote_balance_cost_aware,
+                                              new RemoteRegistry(remote_breaker_window,
+                                                                 remote_breaker_min_calls,
+                                                                 remote_breaker_failure_rate,
+                                                                 remote_breaker_backoff,
+                                                                 remote_breaker_max_backoff));
+        remoteRegistry.addListener((remote, isAvailable) -> {
+                if (isAvailable)
+                    logger.info("Remote {} is available again, closing its circuit.", remote);
+                else
+                    logger.warn("Remote {} is unavailable, opening its circuit.", remote);
+                meterRegistry.counter("box.remote.breaker", "remote", remote,
+                                      "available", String.valueOf(isAvailable)).increment();
+                for (var endpoint : endpoints.asMap().values()) {
+                    endpoint.energyAwareness.setRemoteAvailable(remote, isAvailable);
+                    endpoint.latencyAwareness.setRemoteAvailable(remote, isAvailable);
+                }
+            });
+
+        // #A models are created on first request of their path, and
+        // evicted when idle or too many
+        var builder = CacheBuilder.newBuilder();
+        if (endpoints_max_size > 0)
+            builder.maximumSize(endpoints_max_size);
+        if (endpoints_expire_after_access > 0)
+            builder.expireAfterAccess(endpoints_expire_after_access, TimeUnit.SECONDS);
+        endpoints = builder
+            .removalListener((RemovalNotification<String, Endpoint> removal) -> {
+                    logger.info("Evicting the model of endpoint {} ({}).",
+                                removal.getKey(), removal.getCause());
+                    closeEndpoint(removal.getValue());
+                })
+            .build(CacheLoader.from(this::newEndpoint));
+        endpoints.getUnchecked("/"); // eagerly, as the only one before
+
+        if (!energy_store_path.isBlank() && energy_store_snapshot_interval > 0) {
+            snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    var thread = new Thread(runnable, "energy-snapshots");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            snapshots.scheduleWithFixedDelay(this::snapshotEnergyData,
+                                             energy_store_snapshot_interval,
+                                             energy_store_snapshot_interval,
+                                             TimeUnit.SECONDS);
+        }
+
+	// currentSpan.log(ImmutableMap.of("event", "stopInit"));
+    }
+
+    /**
+     * Builds the model of a request path from box.endpoints.<name>.*
+     * properties, defaulting to the workload of the box.
+     */
+    private Endpoint newEndpoint(String path) {
+        // an evicted endpoint still in use comes back, so files of a
+        // path are never opened twice
+        var open = openEndpoints.get(path);
+        if (Objects.nonNull(open) && open.revive()) {
+            logger.info("Revived the model of endpoint {}.", path);
+            return open;
+        }
+
+        var name = Endpoint.toName(path);
+        var endpointCoefficients = name.isEmpty() ? coefficients :
+            Arrays.asList(environment.getProperty(String.format("box.endpoints.%s.polynomes.coefficients", name),
+                                                  String.join("-", coefficients)).split("-"));
+        var endpointRemoteCalls = name.isEmpty() ? remote_calls :
+            Arrays.asList(environment.getProperty(String.format("box.endpoints.%s.remote.calls", name),
+                                                  String.join(",", remote_calls)).split(","));
+        var address_time_list = Endpoint.parseRemoteCalls(endpointRemoteCalls);
         var names = new ArrayList<String>();
-	for (int i = 0; i < remote_calls.size(); ++i) {
-	    // format <address to call>@<percent before calling>
-	    String[] address_time = remote_calls.get(i).split("@");
-	    if (address_time.length == 2) {
-		var atProgress = Integer.parseInt(address_time[1]);
-		address_time_list.add(new Pair(address_time[0], atProgress));
-		names.add(address_time[0]); // (TODO) include name of function
-	    }
-	}
-	address_time_list.sort((e1, e2) -> e1.second.compareTo(e2.second));
+        for (var address_time : address_time_list)
+            names.add(address_time.first); // url includes the remote path
 
 	var nbDifferentInputMonitored = (int) (energy_max_local_data *
 					       energy_factor_localdatakept_differentdatamonitored);
-        energyAwareness = new EnergyAwareness(service_name,
-					      energy_max_local_data,
-					      nbDifferentInputMonitored,
-                                              energy_threshold_before_self_tuning_args,
-                                              energy_fairness_factor,
-                                              energy_max_error);
+        var energyAwareness = new EnergyAwareness(service_name,
+                                                  energy_max_local_data,
+                                                  nbDifferentInputMonitored,
+                                                  energy_threshold_before_self_tuning_args,
+                                                  energy_fairness_factor,
+                                                  energy_max_error);
+        energyAwareness.setSolverTimeBudget(energy_solver_time_budget);
+        energyAwareness.setRangesLimit(energy_max_ranges, energy_ranges_merge_gap);
+        energyAwareness.setProvenanceEnabled(energy_objectives_provenance);
+        energyAwareness.setObjectivesCache(energy_objectives_cache_size,
+                                           energy_objectives_cache_quantum);
+        energyAwareness.setMeterRegistry(meterRegistry, "endpoint", path);
+        energyAwareness.setEnergyBudget(energyBudget);
         energyAwareness.updateRemotes(names);
 
-	// currentSpan.log(ImmutableMap.of("event", "stopInit"));
+        var latencyAwareness = new LatencyAwareness(service_name, address_time_list,
+                                                    energy_max_local_data,
+                                                    nbDifferentInputMonitored,
+                                                    energy_threshold_before_self_tuning_args,
+                                                    latency_max_error);
+        latencyAwareness.setRangesLimit(energy_max_ranges, energy_ranges_merge_gap);
+        for (var remote : names)
+            if (!remoteRegistry.isAvailable(remote)) {
+                energyAwareness.setRemoteAvailable(remote, false);
+                latencyAwareness.setRemoteAvailable(remote, false);
+            }
+
+        var endpoint = new Endpoint(path, Endpoint.parsePolynomes(endpointCoefficients),
+                                    address_time_list, energyAwareness, latencyAwareness);
+        if (!energy_filter_path.isBlank())
+            mapArgsFilter(endpoint, energy_filter_expected_args > 0 ?
+                          energy_filter_expected_args : nbDifferentInputMonitored);
+        if (!energy_store_path.isBlank())
+            restoreEnergyData(endpoint);
+        openEndpoints.put(path, endpoint);
+        logger.info("Created the model of endpoint {} calling {}.", path, names);
+        return endpoint;
+    }
+
+    /**
+     * Counts tries of arguments in a memory-mapped file, so the
+     * learning phase does not start over after each restart.
+     */
+    private void mapArgsFilter(Endpoint endpoint, int expectedArgs) {
+        var file = Path.of(energy_filter_path, endpoint.fileName(service_name) + ".filter");
+        try {
+            endpoint.mappedFilter = new MappedCountingBloomFilter(file, expectedArgs, 0.01);
+            endpoint.energyAwareness
+                .setArgsFilter(new ArgsFilter(endpoint.mappedFilter,
+                                              energy_threshold_before_self_tuning_args));
+        } catch (IOException e) {
+            logger.warn("Could not map the filter of arguments to {}, keeping it in memory.",
+                        file, e);
+        }
+    }
+
+    /**
+     * Restores costs learned before the last restart or eviction;
+     * they are snapshotted periodically, and the journal keeps costs
+     * in between.
+     */
+    private void restoreEnergyData(Endpoint endpoint) {
+        try {
+            var store = new EnergyDataStore(Path.of(energy_store_path),
+                                            endpoint.fileName(service_name));
+            var restored = endpoint.energyAwareness.setEnergyDataStore(store);
+            endpoint.store = store;
+            logger.info("Restored {} costs from {}.", restored, store.getSnapshotPath());
+        } catch (IOException e) {
+            logger.warn("Could not restore energy data from {}, starting afresh.",
+                        energy_store_path, e);
+        }
+    }
+
+    private void snapshotEnergyData() {
+        for (var endpoint : endpoints.asMap().values()) {
+            if (!endpoint.acquire())
+                continue; // evicted, snapshotted when closing
+            try {
+                endpoint.energyAwareness.snapshot();
+            } catch (IOException e) {
+                logger.warn("Could not snapshot energy data of {}.", endpoint.path, e);
+            } finally {
+                releaseEndpoint(endpoint);
+            }
+        }
+    }
+
+    /**
+     * Evicted endpoints close once the last request using them left.
+     */
+    private void closeEndpoint(Endpoint endpoint) {
+        try {
+            if (endpoint.evict())
+                openEndpoints.remove(endpoint.path, endpoint);
+        } catch (IOException e) {
+            logger.warn("Could not save energy data of {}.", endpoint.path, e);
+        }
+    }
+
+    /**
+     * @param path a request path.
+     * @return its endpoint, used by the caller until released; null
+     * if it is neither configured nor known.
+     */
+    private Endpoint acquireEndpoint(String path) {
+        while (true) {
+            var endpoint = findEndpoint(path);
+            if (Objects.isNull(endpoint) || endpoint.acquire())
+                return endpoint;
+            // evicted meanwhile, the cache holds its successor now
+        }
+    }
+
+    private void releaseEndpoint(Endpoint endpoint) {
+        try {
+            if (endpoint.release())
+                openEndpoints.remove(endpoint.path, endpoint);
+        } catch (IOException e) {
+            logger.warn("Could not save energy data of {}.", endpoint.path, e);
+        }
+    }
+
+    @PreDestroy
+    private void close() {
+        if (Objects.nonNull(snapshots))
+            snapshots.shutdown();
+        remoteCalls.shutdownNow();
+        endpoints.invalidateAll(); // closes them all
+    }
+
+    /**
+     * @param path a request path given as parameter by a caller.
+     * @return its endpoint if it is configured or already known, null
+     * otherwise, so callers cannot create endpoints, with their files
+     * and meters, at will.
+     */
+    private Endpoint findEndpoint(String path) {
+        var normalized = Endpoint.normalize(path);
+        var endpoint = endpoints.getIfPresent(normalized);
+        if (Objects.nonNull(endpoint))
+            return endpoint;
+        var name = Endpoint.toName(normalized);
+        if (name.isEmpty() ||
+            environment.containsProperty(String.format("box.endpoints.%s.polynomes.coefficients", name)) ||
+            environment.containsProperty(String.format("box.endpoints.%s.remote.calls", name)))
+            return endpoints.getUnchecked(normalized);
+        return null;
     }
 
     /**
      * A "peer-to-peer" endpoint that provides energy knowledge, i.e.,
      * intervals of energy consumption.
+     * @param path the request path of the endpoint, the root one by
+     * default; no intervals if it is neither configured nor known.
      * @returns A JSON string containing pairs of doubles representing
      * intervals.
      */
     @ConditionalOnExpression("${box.energy.peertopeer.enable:false}")
     @RequestMapping("/getEnergyIntervals")
-    private ResponseEntity<String> getEnergyIntervals() {
-        if (Objects.isNull(polynomes)) { init(); }
-	var converter = RangeSetConverter.rangeSetConverter(Doubles.stringConverter().reverse());
-	var stringOfRanges = converter.convert(energyAwareness.combineIntervals()); // (TODO) as json
+    private ResponseEntity<String> getEnergyIntervals(@RequestParam(value = "path",
+                                                                    defaultValue = "/") String path) {
+        if (Objects.isNull(endpoints)) { init(); }
+        var endpoint = findEndpoint(path);
+	var converter = RangeSetConverter.intervalSetConverter();
+	// unknown path, nothing known, e.g., a parent polling before any request
+	var stringOfRanges = converter.convert(Objects.isNull(endpoint) ? IntervalSet.EMPTY :
+					       endpoint.energyAwareness.combineIntervals()); // (TODO) as json
         return new ResponseEntity<String>(stringOfRanges, HttpStatus.OK);
     }
 
+    /**
+     * A "peer-to-peer" endpoint that provides latency knowledge, i.e.,
+     * intervals of durations of this box and its remotes along the
+     * critical path.
+     * @param path the request path of the endpoint, the root one by
+     * default; no intervals if it is neither configured nor known.
+     * @returns A JSON string containing pairs of doubles representing
+     * intervals, in milliseconds.
+     */
+    @ConditionalOnExpression("${box.latency.enable:false}")
+    @RequestMapping("/getLatencyIntervals")
+    private ResponseEntity<String> getLatencyIntervals(@RequestParam(value = "path",
+                                                                     defaultValue = "/") String path) {
+        if (Objects.isNull(endpoints)) { init(); }
+        var endpoint = findEndpoint(path);
+	var converter = RangeSetConverter.intervalSetConverter();
+	var stringOfRanges = converter.convert(Objects.isNull(endpoint) ? IntervalSet.EMPTY :
+					       endpoint.latencyAwareness.combineIntervals());
+        return new ResponseEntity<String>(stringOfRanges, HttpStatus.OK);
+    }
+
+    /**
+     * A dry run of the energy awareness of an endpoint: for each
+     * objective, what a request would be given, without running it
+     * nor counting its arguments as tried. Objectives are planned from
+     * a single pass of the knapsack.
+     * @param objectives the objectives to plan, e.g., energy modes.
+     * @param args the input of the planned requests, none by default.
+     * @param path the request path of the endpoint, the root one by
+     * default; not found if it is neither configured nor known.
+     * @returns A JSON array with, per objective, the objectives of this
+     * box and its remotes, the arguments, and whether they are
+     * rewritten.
+     */
+    @RequestMapping("/plan")
+    private ResponseEntity<ArrayList<TreeMap<String, Object>>>
+        plan(@RequestParam("objectives") double[] objectives,
+             @RequestParam(value = "args", required = false) Double[] args,
+             @RequestParam(value = "path", defaultValue = "/") String path) {
+        if (Objects.isNull(endpoints)) { init(); }
+        var endpoint = findEndpoint(path);
+        if (Objects.isNull(endpoint))
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        var copyArgs = endpoint.keepImportantArgs(Objects.isNull(args) ?
+                                                  new Double[0] : args);
+        var plans = new ArrayList<TreeMap<String, Object>>();
+        for (var entry : endpoint.energyAwareness.plan(objectives, copyArgs).entrySet()) {
+            var plan = new TreeMap<String, Object>();
+            plan.put("objective", entry.getKey());
+            plan.put("objectives", entry.getValue().getLeft());
+            plan.put("args", entry.getValue().getMiddle());
+            plan.put("isRewritten", entry.getValue().getRight());
+            plans.add(plan);
+        }
+        return new ResponseEntity<>(plans, HttpStatus.OK);
+    }
+
     /**
      * A simple loop that lasts depending on inputs and a priori
      * configuration.
      * @param args the input provided to the system.
      * @param headers the header of the http request. Required to
      * transfer execution context to other services.
+     * @param request the http request, whose path selects the
+     * workload and energy model of the endpoint; not found if it is
+     * neither configured nor known.
      * @returns A string ":)" that returns when the execution of this
      * function is over.
      */
     @RequestMapping("/*")
     private ResponseEntity<String> handle(Double[] args,
-                                          @RequestHeader Map<String, String> headers) {
+                                          @RequestHeader Map<String, String> headers,
+                                          HttpServletRequest request) {
+	// events of the request are kept in memory, and logged only if
+	// it fails, is slow, or is sampled
+	var requestLog = RequestLog.open(logging_ring_size);
+	boolean isFailed = true;
+	try {
+	    if (Objects.isNull(endpoints)) { init(); }
+	    // only configured paths have a model, others are not found
+	    var endpoint = acquireEndpoint(request.getRequestURI());
+	    if (Objects.isNull(endpoint)) {
+		isFailed = false;
+		return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+	    }
+	    try {
+		var ticket = enter(endpoint);
+		if (Objects.nonNull(admission) && Objects.isNull(ticket)) {
+		    isFailed = false; // shed on purpose
+		    var retryHeaders = new HttpHeaders();
+		    retryHeaders.set(HttpHeaders.RETRY_AFTER, String.valueOf(admission_retry_after));
+		    return new ResponseEntity<String>(":(\n", retryHeaders,
+						      HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		try (ticket) {
+		    var response = doHandle(endpoint, args, headers, ticket);
+		    isFailed = false;
+		    return response;
+		}
+	    } finally {
+		releaseEndpoint(endpoint);
+	    }
+	} finally {
+	    RequestLog.close();
+	    dumpRequestLog(requestLog, isFailed);
+	}
+    }
+
+    /**
+     * @return the place of the request among those in flight, null if
+     * it is rejected or if admission is not controlled.
+     */
+    private AdmissionControl.Ticket enter(Endpoint endpoint) {
+	if (Objects.isNull(admission))
+	    return null;
+	var ticket = admission.enter(endpoint.energyAwareness.getLocalEnergyData());
+	if (Objects.isNull(ticket)) {
+	    meterRegistry.counter("box.admission", "outcome", "rejected").increment();
+	    RequestLog.log(logger, "Rejects the request, {} in flight already.",
+			   admission.getInFlight());
+	}
+	return ticket;
+    }
+
+    private void dumpRequestLog(RequestLog requestLog, boolean isFailed) {
+	if (Objects.isNull(requestLog))
+	    return;
+	if (isFailed)
+	    requestLog.dump(logger, true, "Failed request");
+	else if (logging_slow_threshold > 0 && requestLog.elapsedMillis() > logging_slow_threshold)
+	    requestLog.dump(logger, true, "Slow request");
+	else if (ThreadLocalRandom.current().nextDouble() < logging_sample_rate)
+	    requestLog.dump(logger, false, "Sampled request");
+    }
+
+    private ResponseEntity<String> doHandle(Endpoint endpoint, Double[] args,
+                                            Map<String, String> headers,
+                                            AdmissionControl.Ticket ticket) {
+	var startRequest = System.nanoTime();
 	Span currentSpan = tracer.scopeManager().activeSpan();
+	currentSpan.setTag("endpoint", endpoint.path);
 	
-        // #A initialize objects and reporting 
-        if (Objects.isNull(polynomes)) { init(); }
+        // #A objects and reporting of this endpoint
+        var polynomes = endpoint.polynomes;
+        var address_time_list = endpoint.address_time_list;
+        var energyAwareness = endpoint.energyAwareness;
 
 	var startEnergyAwareness = LocalDateTime.now();
 	currentSpan.log(ImmutableMap.of("event", "startEnergyAwareness"));
                 
         // keep important parameters of this box
-        Double[] copyArgs = new Double[args.length];
-        for (int i = 0; i < copyArgs.length; ++i)
-            copyArgs[i] = 0.;
-        for (int i = 0; i < polynomes.indices.size(); ++i)
-            if (polynomes.polynomes.get(i).coefficients.size() > 1) // not constant
-                copyArgs[polynomes.indices.get(i)] = args[polynomes.indices.get(i)];
+        Double[] copyArgs = endpoint.keepImportantArgs(args);
         
 
         
@@ -187,144 +685,413 @@ public class BoxController {
             solution = os.getMiddle();
 	    currentSpan.setTag("isLastInputRewritten", os.getRight());
 	    currentSpan.setTag("objective", objective);
-	    currentSpan.setTag("objectives", String.format("%s", objectives));
+	    final var finalObjectives = objectives;
+	    LazyTags.set(currentSpan, "objectives", () -> finalObjectives);
+        }
+
+        // latency awareness handler, distribute the deadline along the
+        // critical path; it prevails over energy for local args
+        TreeMap<String, Double> deadlines = null;
+        if (latency_enable && headers.keySet().contains("deadline")) {
+            var deadline = Double.parseDouble(headers.get("deadline"));
+            var ds = endpoint.latencyAwareness.newFunctionCall(deadline, solution);
+            deadlines = ds.getLeft();
+            if (ds.getRight())
+                solution = ds.getMiddle();
+	    currentSpan.setTag("deadline", deadline);
+	    currentSpan.setTag("isLastInputRewrittenForDeadline", ds.getRight());
+	    final var finalDeadlines = deadlines;
+	    LazyTags.set(currentSpan, "deadlines", () -> finalDeadlines);
         }
 
+	// degrades to the cheapest known arguments when overloaded
+	if (Objects.nonNull(ticket)) {
+	    var admitted = ticket.admit(solution);
+	    var outcome = ticket.isDegraded() ? "degraded" : "admitted";
+	    meterRegistry.counter("box.admission", "outcome", outcome).increment();
+	    currentSpan.setTag("admission", outcome);
+	    if (ticket.isDegraded())
+		RequestLog.log(logger, "Overloaded, degrades arguments: {} -> {}.",
+			       solution, admitted);
+	    solution = admitted;
+	}
+
 	var endEnergyAwareness = LocalDateTime.now();
-	logger.info(String.format("Energy awareness took %s ms to process.",
-				  Duration.between(startEnergyAwareness,
-						   endEnergyAwareness).toMillis()));
+	meterRegistry.timer("box.energy.awareness")
+	    .record(Duration.between(startEnergyAwareness, endEnergyAwareness));
+	RequestLog.log(logger, "Energy awareness took {} ms to process.",
+		       Duration.between(startEnergyAwareness, endEnergyAwareness).toMillis());
 	currentSpan.log(ImmutableMap.of("event", "endEnergyAwareness"));
 	
 
 
 	var start = LocalDateTime.now();
+	var meter = costSource.start(); // remote calls run in other threads
         var duration = Duration.between(start, LocalDateTime.now());
 
         // #C Main loop for different calls to remote services
-        logger.info(String.format("This box executes with args: %s", Arrays.toString(solution)));
-	currentSpan.setTag("parameters", Arrays.toString(args));
-	currentSpan.setTag("solution", Arrays.toString(solution));	
+        RequestLog.log(logger, "This box executes with args: {}", (Object) solution);
+	final var finalSolution = solution;
+	LazyTags.set(currentSpan, "parameters", () -> Arrays.toString(args));
+	LazyTags.set(currentSpan, "solution", () -> Arrays.toString(finalSolution));
 	
         var polyResult = polynomes.get(solution);
         currentSpan.setTag("polyResult", polyResult);
         
         var limit = polyResult > 0 ? Duration.ofMillis(polyResult) : Duration.ZERO;  
-        logger.info(String.format("This box must run during %s and call %s other boxes.",
-                                  DurationFormatUtils.formatDurationHMS(limit.toMillis()),
-                                  address_time_list.size()));
+        RequestLog.log(logger, "This box must run during {} ms and call {} other boxes.",
+                       limit.toMillis(), address_time_list.size());
         
+        var calls = new ArrayList<Pair<String, CompletableFuture<RemoteCall>>>();
         int i = 0;
         while (duration.minus(limit).isNegative()) {
             var progress = (double) duration.toMillis() / (double) limit.toMillis() * 100.;
             
             while (i < address_time_list.size() &&
                    progress > address_time_list.get(i).second) {
-                callRemote(address_time_list.get(i).first, args, headers, objectives,
-                           currentSpan, (int) progress);
+                calls.add(new Pair<>(address_time_list.get(i).first,
+                                     callRemote(address_time_list.get(i).first, args, headers,
+                                                objectives, deadlines, currentSpan,
+                                                (int) progress)));
                 ++i;
             }
             
             duration = Duration.between(start, LocalDateTime.now());
         }
 
+	var burn = Duration.between(start, LocalDateTime.now());
+	meterRegistry.timer("box.burn").record(burn);
+
 	// while (i < address_time_list.size()) { // call the rest that would have been skipped
         for (int j = i; j < address_time_list.size(); ++j)
-	    callRemote(address_time_list.get(j).first, args, headers, objectives,
-		       currentSpan, 100);
+	    calls.add(new Pair<>(address_time_list.get(j).first,
+				 callRemote(address_time_list.get(j).first, args, headers,
+					    objectives, deadlines, currentSpan, 100)));
+
+	// fan-in: awaits remotes until the deadline of the request, if any
+	var body = ":)\n";
+	if (await_enable) {
+	    long timeout = Long.MAX_VALUE;
+	    if (headers.keySet().contains("deadline"))
+		timeout = (long) (Double.parseDouble(headers.get("deadline")) * 1e6) -
+		    (System.nanoTime() - startRequest);
+	    else if (await_timeout > 0)
+		timeout = TimeUnit.MILLISECONDS.toNanos(await_timeout) -
+		    (System.nanoTime() - startRequest);
+	    var children = awaitRemotes(calls, timeout);
+	    currentSpan.setTag("children.succeeded",
+			       children.stream().filter(RemoteCall::isSuccess).count());
+	    currentSpan.setTag("children.cancelled", children.stream()
+			       .filter(c -> c.outcome.equals(RemoteCall.CANCELLED)).count());
+	    currentSpan.setTag("children.hedged",
+			       children.stream().filter(c -> c.isHedged).count());
+	    LazyTags.set(currentSpan, "children", () -> children.stream()
+			 .map(c -> String.format("%s %s %.1f ms", c.replica, c.outcome, c.latency))
+			 .collect(Collectors.joining(", ")));
+	    body += children.stream().map(RemoteCall::toString).collect(Collectors.joining());
+	}
 
 
 
         // #D monitor and update local energy        
-	var lastLocalInputKept = updateEnergy(solution, start, LocalDateTime.now());
+	var cost = meter.stop();
+	currentSpan.setTag("cost", cost);
+	var lastLocalInputKept = updateEnergy(endpoint, solution, cost);
+	updateLatency(endpoint, solution, burn.toNanos() / 1e6);
+	if (!Objects.isNull(objectives) && objectives.getOrDefault(service_name, -1.) >= 0) {
+	    var error = Math.abs(cost -
+				 objectives.get(service_name)); // |actual - objective|
+	    meterRegistry.summary("box.energy.objective.error").record(error);
+	    // traces of such requests are kept by tail sampling
+	    currentSpan.setTag(TailSamplingReporter.OBJECTIVE_VIOLATED, error > energy_max_error);
+	}
 	currentSpan.setTag("isLastInputKept", lastLocalInputKept);
-        currentSpan.setTag("localCosts",
-                           Arrays.toString(energyAwareness
+        LazyTags.set(currentSpan, "localCosts",
+                     () -> Arrays.toString(energyAwareness
                                            .getLocalEnergyData()
                                            .getSortedAvgCosts()));
         
-        return new ResponseEntity<String>(":)\n", HttpStatus.OK);
+        return new ResponseEntity<String>(body, HttpStatus.OK);
     }
     
 
     /**
      * Asynchronous call of a remote service. Headers are overloaded depending on
      * service capabilities.
-     * @param url The url of the remote service.
+     * @param url The url of the remote service, possibly with replicas
+     * separated by "|".
      * @param args The args passed to the application globally.
      * @param headers The headers of the http call.
      * @param objectives The energy objectives of calls to remote services.
+     * @param deadlines The deadlines of calls to remote services.
+     * @return The outcome of the call, once the first replica answers;
+     * or, when the call lasts more than the hedging percentile of its
+     * latencies, once either the first or the second replica answers
+     * successfully. Requests are cut off at the deadline of the call,
+     * or else the await timeout, or else the remote timeout. Fails
+     * with a RejectedExecutionException if too many calls are queued.
      */
-    private void callRemote(String url, Double[] args,  Map<String, String> headers,
-                            TreeMap<String, Double> objectives,
-                            Span currentSpan, int progress) {
-        
-        CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
-                logger.info(String.format("Calling %s at %s percent.",
-                                          url, progress));                
-                var myheader = new HttpHeaders();
-                for (var header : headers.keySet())
-                    if (header.contains("x-")) // propagate tracing headers
-                        myheader.set(header, headers.get(header));
-                myheader.set("x-b3-spanid", currentSpan.context().toSpanId());
-                if (!Objects.isNull(objectives) && objectives.containsKey(url))
-		    myheader.set("objective", objectives.get(url).toString());
-		else
-		    myheader.set("objective", "-1.0"); // default
-
-                var argsToSend = new LinkedMultiValueMap<String, String>();
-                argsToSend.add("args", Arrays.stream(args)
-                               .map(String::valueOf)
-                               .collect(Collectors.joining(",")));
-                var request = new HttpEntity<MultiValueMap<String, String>>(argsToSend,
-									    myheader);
-		var result = ":(";
-		try {
-		    result = restTemplate.postForEntity(url, request, String.class,
-							argsToSend).toString();
-		    // logger.info(String.format("Got the result %s from %s",
-		    // result, url));
-		} catch (Exception e) {
-		    logger.warn(String.format("Error while calling %s.", url));
-		    // logger.warn(e.toString());
-		}
-                return result;
-	    });
+    private CompletableFuture<RemoteCall> callRemote(String url, Double[] args,
+                                                     Map<String, String> headers,
+                                                     TreeMap<String, Double> objectives,
+                                                     TreeMap<String, Double> deadlines,
+                                                     Span currentSpan, int progress) {
+        if (!remoteRegistry.allow(url)) { // open circuit
+            RequestLog.log(logger, "Skipping {}, its circuit is open.", url);
+            meterRegistry.counter("box.remote.skipped", "remote", url).increment();
+            return CompletableFuture.completedFuture(new RemoteCall(url, url, RemoteCall.OPEN,
+                                                                    0., null, false));
+        }
+        var requestLog = RequestLog.current(); // runs in another thread
+        var startCall = System.nanoTime();
+        var myheader = new HttpHeaders();
+        for (var header : headers.keySet())
+            if (header.contains("x-")) // propagate tracing headers
+                myheader.set(header, headers.get(header));
+        myheader.set("x-b3-spanid", currentSpan.context().toSpanId());
+        if (!Objects.isNull(objectives) && objectives.containsKey(url))
+            myheader.set("objective", objectives.get(url).toString());
+        else
+            myheader.set("objective", "-1.0"); // default
+        if (!Objects.isNull(deadlines) && deadlines.containsKey(url))
+            myheader.set("deadline", deadlines.get(url).toString());
+        long timeout = -1; // ms, none
+        if (!Objects.isNull(deadlines) && deadlines.getOrDefault(url, -1.) >= 0)
+            timeout = (long) Math.ceil(deadlines.get(url));
+        else if (headers.keySet().contains("deadline"))
+            timeout = (long) Math.ceil(Double.parseDouble(headers.get("deadline")));
+        else if (await_timeout > 0)
+            timeout = await_timeout;
+        else if (remote_timeout > 0) // fire-and-forget
+            timeout = remote_timeout;
+        final long callTimeout = timeout;
+
+        var argsToSend = new LinkedMultiValueMap<String, String>();
+        argsToSend.add("args", Arrays.stream(args)
+                       .map(String::valueOf)
+                       .collect(Collectors.joining(",")));
+        var request = new HttpEntity<MultiValueMap<String, String>>(argsToSend, myheader);
+
+        // the least loaded of two replicas, the other one for hedging
+        var replicas = replicaBalancer.order(url, Objects.isNull(objectives) ? -1. :
+                                             objectives.getOrDefault(url, -1.));
+        var threshold = replicas.length < 2 || await_hedge_percentile <= 0 ? -1. :
+            remoteLatencies.computeIfAbsent(url, k -> new LatencyWindow(await_hedge_window))
+            .percentile(await_hedge_percentile, Math.max(1, await_hedge_window / 10));
+        // duplicate to the second replica if the first is late
+        var call = Fanout.hedge(() -> post(url, replicas[0], request, false, callTimeout,
+                                           startCall, requestLog, progress),
+                                () -> post(url, replicas[replicas.length > 1 ? 1 : 0], request,
+                                           true, callTimeout, startCall, requestLog, progress),
+                                threshold < 0 ? -1 : (long) threshold, remoteCalls);
+        // the circuit of the remote sees the outcome after hedging; a
+        // failure counts only when no replica is available anymore
+        call.whenComplete((result, error) -> {
+                if (error instanceof RejectedExecutionException) {
+                    logger.warn("Too many calls in flight, dropping the call to {}.", url);
+                    meterRegistry.counter("box.remote.rejected", "remote", url).increment();
+                }
+                if (Objects.isNull(result)) // cancelled or rejected
+                    return;
+                if (result.isSuccess())
+                    remoteRegistry.onSuccess(url);
+                else if (!replicaBalancer.hasAvailableReplica(url))
+                    remoteRegistry.onFailure(url);
+            });
+        return call;
+    }
+
+    private RemoteCall post(String url, String replica,
+                            HttpEntity<MultiValueMap<String, String>> request,
+                            boolean isHedged, long timeout, long startCall,
+                            RequestLog requestLog, int progress) {
+        RequestLog.log(requestLog, logger, "Calling {} at {} percent{}.", replica, progress,
+                       isHedged ? ", hedged" : "");
+        String result = null;
+        var outcome = RemoteCall.SUCCESS;
+        var event = new RemoteCallEvent();
+        event.begin();
+        var startPost = System.nanoTime();
+        replicaBalancer.start(replica);
+        try {
+            result = TimeoutRequestFactory.withTimeout(timeout, () -> restTemplate
+                .postForEntity(replica, request, String.class, request.getBody()).getBody());
+        } catch (Exception e) {
+            outcome = RemoteCall.ERROR;
+            logger.warn("Error while calling {}.", replica);
+            if (!Objects.isNull(requestLog))
+                requestLog.dump(logger, true, "Failed remote call");
+        }
+        var end = System.nanoTime();
+        replicaBalancer.finish(replica, (end - startPost) / 1e6,
+                               outcome.equals(RemoteCall.SUCCESS));
+        meterRegistry.timer("box.remote.call", "remote", url, "outcome", outcome)
+            .record(end - startPost, TimeUnit.NANOSECONDS);
+        if (!isHedged && outcome.equals(RemoteCall.SUCCESS) && await_hedge_percentile > 0)
+            remoteLatencies.computeIfAbsent(url, k -> new LatencyWindow(await_hedge_window))
+                .record((end - startPost) / 1e6);
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = replica;
+            event.kind = "call";
+            event.objective = Double.parseDouble(request.getHeaders().getFirst("objective"));
+            event.progress = progress;
+            event.success = outcome.equals(RemoteCall.SUCCESS);
+            event.commit();
+        }
+        return new RemoteCall(url, replica, outcome, (end - startCall) / 1e6, result, isHedged);
+    }
+
+    /**
+     * Joins calls to remotes until all answered or the timeout is
+     * over; stragglers are cancelled, i.e., their answers ignored.
+     * @param timeout the time left in nanoseconds.
+     * @return the outcome of each call, in order.
+     */
+    private ArrayList<RemoteCall> awaitRemotes(ArrayList<Pair<String, CompletableFuture<RemoteCall>>> calls,
+                                               long timeout) {
+        var results = Fanout.await(calls, timeout);
+        for (var result : results)
+            meterRegistry.counter("box.remote.await", "remote", result.url,
+                                  "outcome", result.outcome).increment();
+        return results;
     }
 
 
 
 
-    // (TODO) from span get from, get to, get args, get remote calls
-    private boolean updateEnergy (Double[] args, LocalDateTime from, LocalDateTime to) {
-        // (TODO) call energy stuff, for now, cost is only about duration
-        var kept = energyAwareness
-	    .addEnergyData(args, (double) Duration.between(from, to).toMillis());
+    // (TODO) from span get args, get remote calls
+    private boolean updateEnergy (Endpoint endpoint, Double[] args, double cost) {
+	var startUpdate = System.nanoTime();
+        var energyAwareness = endpoint.energyAwareness;
+        // (TODO) call energy stuff, e.g., smartwatts, for now cost
+        // comes from the cost source
+        var kept = energyAwareness.addEnergyData(args, cost);
 	
 	// (TODO) how often? maybe inverse direction
-        for (var address_time : address_time_list) {
+        for (var address_time : endpoint.address_time_list) {
+	    if (!remoteRegistry.allow(address_time.first))
+		continue; // open circuit, its intervals are excluded meanwhile
+	    var startPoll = System.nanoTime();
+	    var outcome = "success";
+	    var event = new RemoteCallEvent();
+	    event.begin();
             try {
 		// #A update remote service energy data
-                var stringRangeSet = restTemplate // (TODO) as json
-                    .getForEntity(String.format("%s/getEnergyIntervals",
-                                                address_time.first),
-                                  String.class).getBody();
-		var converter = RangeSetConverter.rangeSetConverter(Doubles.stringConverter()
-								    .reverse());
-		var costs = converter.reverse().convert(stringRangeSet);
-		logger.info(String.format("Just received remote energy data: %s sets from %s.",
-					  costs.asRanges().size(), address_time.first));
+		var costs = pollIntervals(address_time.first, "getEnergyIntervals",
+					  replicaBalancer::updateCosts);
+		if (Objects.isNull(costs))
+		    continue; // every replica has an open circuit
+		RequestLog.log(logger, "Just received remote energy data: {} sets from {}.",
+			       costs.size(), address_time.first);
                 energyAwareness.updateRemote(address_time.first, costs);
+		remoteRegistry.onSuccess(address_time.first);
             } catch (Exception e) {
-		// #B can't reach remote service, considered dead until further news
-                logger.warn(String.format("Error while calling %s to get energy costs. Resetting.",
-					  address_time.first));
-		energyAwareness.resetRemote(address_time.first);
+		// #B can't reach remote service, its circuit breaker decides
+		// whether it is dead; without breaker, until further news
+                logger.warn("Error while calling {} to get energy costs.",
+			    address_time.first);
+		remoteRegistry.onFailure(address_time.first);
+		if (!remoteRegistry.isEnabled())
+		    energyAwareness.resetRemote(address_time.first);
+		outcome = "error";
                 // (TODO) can fall down to remote dedicated service if there is.
             }
+	    meterRegistry.timer("box.remote.poll", "remote", address_time.first, "outcome", outcome)
+		.record(System.nanoTime() - startPoll, TimeUnit.NANOSECONDS);
+	    event.end();
+	    if (event.shouldCommit()) {
+		event.url = address_time.first;
+		event.kind = "poll";
+		event.objective = -1.;
+		event.success = outcome.equals("success");
+		event.commit();
+	    }
         }
 
+	meterRegistry.timer("box.energy.update")
+	    .record(System.nanoTime() - startUpdate, TimeUnit.NANOSECONDS);
 	return kept;
     }
 
+    /**
+     * Learns the duration of the local run and, in latency mode,
+     * polls the latencies of remotes.
+     * @param duration the duration of the local run in milliseconds.
+     */
+    private void updateLatency (Endpoint endpoint, Double[] args, double duration) {
+        var latencyAwareness = endpoint.latencyAwareness;
+        latencyAwareness.addLatencyData(args, duration);
+        if (!latency_enable)
+            return;
+
+        for (var address_time : endpoint.address_time_list) {
+	    if (!remoteRegistry.allow(address_time.first))
+		continue;
+	    var startPoll = System.nanoTime();
+	    var outcome = "success";
+            try {
+                var latencies = pollIntervals(address_time.first, "getLatencyIntervals",
+                                              (replica, intervals) -> {});
+		if (Objects.isNull(latencies))
+		    continue;
+                latencyAwareness.updateRemote(address_time.first, latencies);
+		remoteRegistry.onSuccess(address_time.first);
+            } catch (Exception e) {
+                logger.warn("Error while calling {} to get latencies.",
+			    address_time.first);
+		remoteRegistry.onFailure(address_time.first);
+		if (!remoteRegistry.isEnabled())
+		    latencyAwareness.updateRemote(address_time.first, IntervalSet.EMPTY);
+		outcome = "error";
+            }
+	    meterRegistry.timer("box.remote.poll.latency", "remote", address_time.first,
+				"outcome", outcome)
+		.record(System.nanoTime() - startPoll, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Polls the intervals of a remote. When balancing among its
+     * replicas, each available replica is polled, and their intervals
+     * are merged for planning, since any of them may handle a call.
+     * @param url the url of the remote, possibly with replicas.
+     * @param provider the endpoint of remote boxes that provides
+     * intervals, e.g., getEnergyIntervals.
+     * @param onReplica called with each replica and its intervals.
+     * @return the union of intervals of replicas that answered, null
+     * if none could be polled.
+     * @throws RuntimeException if every polled replica failed.
+     */
+    private IntervalSet pollIntervals (String url, String provider,
+                                       BiConsumer<String, IntervalSet> onReplica) {
+        var replicas = replicaBalancer.isEnabled() ? Endpoint.replicas(url) : new String[]{url};
+        var converter = RangeSetConverter.intervalSetConverter();
+        IntervalSet merged = null;
+        RuntimeException error = null;
+        for (var replica : replicas) {
+            if (!replicaBalancer.allow(replica))
+                continue;
+            try {
+                // polled on the request thread, a hanging replica must fail
+                var stringRangeSet = TimeoutRequestFactory
+                    .withTimeout(remote_poll_timeout > 0 ? remote_poll_timeout : -1,
+                                 () -> restTemplate // (TODO) as json
+                                 .getForEntity(Endpoint.intervalsUrl(replica, provider),
+                                               String.class)
+                                 .getBody());
+                var intervals = converter.reverse().convert(stringRangeSet);
+                replicaBalancer.report(replica, true);
+                onReplica.accept(replica, intervals);
+                merged = Objects.isNull(merged) ? intervals : merged.union(intervals);
+            } catch (RuntimeException e) {
+                replicaBalancer.report(replica, false);
+                error = e;
+            }
+        }
+        if (Objects.isNull(merged) && Objects.nonNull(error))
+            throw error;
+        return merged;
+    }
+
 }
@@ -0,0 +1,236 @@
+package fr.sigma.box;
+
+import fr.sigma.energy.EnergyAwareness;
+import fr.sigma.energy.EnergyDataStore;
+import fr.sigma.energy.LatencyAwareness;
+import fr.sigma.structures.MappedCountingBloomFilter;
+import fr.sigma.structures.Pair;
+import fr.sigma.structures.Polynome;
+import fr.sigma.structures.Polynomes;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+
+
+/**
+ * Workload definition and energy model of one endpoint of the box,
+ * i.e., of one request path: its polynomes, its remote calls, and
+ * the costs it learned. Endpoints do not share energy data since
+ * their costs may differ by orders of magnitude.
+ */
+public class Endpoint {
+
+    public final String path;
+    public final String name; // "" for the root path
+    public final Polynomes polynomes;
+    public final ArrayList<Pair<String, Integer>> address_time_list;
+    public final EnergyAwareness energyAwareness;
+    public final LatencyAwareness latencyAwareness;
+    // persistence of learned data, null when disabled
+    EnergyDataStore store = null;
+    MappedCountingBloomFilter mappedFilter = null;
+    // held by the cache, or revived after eviction, and used by
+    // requests; the endpoint closes once none holds nor uses it
+    private int holders = 1;
+    private int users = 0;
+    private boolean isClosed = false;
+
+    public Endpoint (String path, Polynomes polynomes,
+                     ArrayList<Pair<String, Integer>> address_time_list,
+                     EnergyAwareness energyAwareness,
+                     LatencyAwareness latencyAwareness) {
+        this.path = path;
+        this.name = toName(path);
+        this.polynomes = polynomes;
+        this.address_time_list = address_time_list;
+        this.energyAwareness = energyAwareness;
+        this.latencyAwareness = latencyAwareness;
+    }
+
+    /**
+     * @return the name of the endpoint of a request path, i.e., its
+     * segments joined by dots, as in box.endpoints.<name>.*
+     */
+    public static String toName (String path) {
+        return normalize(path).substring(1).replace('/', '.');
+    }
+
+    /**
+     * @return the canonical form of a request path, without empty
+     * segments, e.g., /compute for /compute/ or //compute, so they
+     * share one endpoint.
+     */
+    public static String normalize (String path) {
+        if (Objects.isNull(path))
+            return "/";
+        return "/" + path.replaceAll("^/+|/+$", "").replaceAll("/+", "/");
+    }
+
+    /**
+     * @return the name of files of this endpoint, the one of the box
+     * for the root path.
+     */
+    public String fileName (String serviceName) {
+        return name.isEmpty() ? serviceName : String.format("%s.%s", serviceName, name);
+    }
+
+    /**
+     * @param coefficients format <a>,<b>,...,<k>[@index: default 0]
+     * per polynome.
+     */
+    public static Polynomes parsePolynomes (List<String> coefficients) {
+        var polynomes = new Polynomes();
+        for (String coefficient : coefficients) {
+            String[] coefficient_index = coefficient.trim().split("@");
+            String[] coefsOfCurrentPoly = coefficient_index[0].split(",");
+
+            var coefs = new ArrayList<Double>();
+            for (int i = 0; i < coefsOfCurrentPoly.length; ++i)
+                coefs.add( Double.parseDouble(coefsOfCurrentPoly[i]) );
+
+            var index = coefficient_index.length > 1 ?
+                Integer.parseInt(coefficient_index[1]) :
+                0;
+            polynomes.add(new Polynome(coefs), index);
+        }
+        return polynomes;
+    }
+
+    /**
+     * @param remote_calls format <address to call>@<percent before
+     * calling> per call; other entries are ignored.
+     * @return the calls sorted by progress.
+     */
+    public static ArrayList<Pair<String, Integer>> parseRemoteCalls (List<String> remote_calls) {
+        var address_time_list = new ArrayList<Pair<String, Integer>>();
+        for (int i = 0; i < remote_calls.size(); ++i) {
+            String[] address_time = remote_calls.get(i).trim().split("@");
+            if (address_time.length == 2) {
+                var atProgress = Integer.parseInt(address_time[1]);
+                address_time_list.add(new Pair(address_time[0], atProgress));
+            }
+        }
+        address_time_list.sort((e1, e2) -> e1.second.compareTo(e2.second));
+        return address_time_list;
+    }
+
+    /**
+     * @param remote the url of a remote endpoint, possibly followed by
+     * the urls of its replicas, separated by "|".
+     * @return the url of each replica, the first being the primary.
+     */
+    public static String[] replicas (String remote) {
+        return remote.trim().split("\\|");
+    }
+
+    /**
+     * @param remote the url of a remote endpoint, possibly with a path.
+     * @return the url that provides the energy intervals of this
+     * remote endpoint.
+     */
+    public static String intervalsUrl (String remote) {
+        return intervalsUrl(remote, "getEnergyIntervals");
+    }
+
+    /**
+     * @param remote the url of a remote endpoint, possibly with a path.
+     * @param provider the endpoint of the remote box that provides
+     * intervals, e.g., getLatencyIntervals.
+     * @return the url that provides the intervals of this remote
+     * endpoint.
+     */
+    public static String intervalsUrl (String remote, String provider) {
+        remote = replicas(remote)[0];
+        var uri = URI.create(remote);
+        var path = Objects.isNull(uri.getRawPath()) || uri.getRawPath().isEmpty() ?
+            "/" : uri.getRawPath();
+        var base = remote.substring(0, remote.length() -
+                                    (Objects.isNull(uri.getRawPath()) ? 0 :
+                                     uri.getRawPath().length()));
+        return String.format("%s/%s?path=%s", base, provider, path);
+    }
+
+    /**
+     * @param args the arguments of a request.
+     * @return the arguments that matter to this endpoint, i.e., those
+     * of non-constant polynomes, others being zeroed.
+     */
+    public Double[] keepImportantArgs (Double[] args) {
+        Double[] copyArgs = new Double[args.length];
+        for (int i = 0; i < copyArgs.length; ++i)
+            copyArgs[i] = 0.;
+        for (int i = 0; i < polynomes.indices.size(); ++i)
+            if (polynomes.polynomes.get(i).coefficients.size() > 1 && // not constant
+                polynomes.indices.get(i) < args.length)
+                copyArgs[polynomes.indices.get(i)] = args[polynomes.indices.get(i)];
+        return copyArgs;
+    }
+
+    /**
+     * A request starts using the endpoint.
+     * @return false if the endpoint is evicted, then it must not be
+     * used.
+     */
+    public synchronized boolean acquire () {
+        if (holders == 0)
+            return false;
+        ++users;
+        return true;
+    }
+
+    /**
+     * A request stops using the endpoint; the last one of an evicted
+     * endpoint closes it.
+     * @return true if the endpoint just closed.
+     */
+    public synchronized boolean release () throws IOException {
+        --users;
+        return close();
+    }
+
+    /**
+     * The cache evicted the endpoint; it closes now if unused, or else
+     * once the last request using it left.
+     * @return true if the endpoint just closed.
+     */
+    public synchronized boolean evict () throws IOException {
+        --holders;
+        return close();
+    }
+
+    /**
+     * The cache holds the endpoint again, e.g., requested while its
+     * last requests still run, so two endpoints never share files.
+     * Waits for the endpoint to close if it is closing.
+     * @return false if the endpoint closed already.
+     */
+    public synchronized boolean revive () {
+        if (isClosed)
+            return false;
+        ++holders;
+        return true;
+    }
+
+    /**
+     * Snapshots learned data, releases files and meters, once the
+     * endpoint is neither held nor used.
+     */
+    private boolean close () throws IOException {
+        if (isClosed || holders > 0 || users > 0)
+            return false;
+        isClosed = true;
+        energyAwareness.close();
+        if (Objects.nonNull(store)) {
+            energyAwareness.snapshot();
+            store.close();
+        }
+        if (Objects.nonNull(mappedFilter))
+            mappedFilter.close();
+        return true;
+    }
+
+}
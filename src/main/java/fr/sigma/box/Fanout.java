@@ -0,0 +1,146 @@
+package fr.sigma.box;
+
+import fr.sigma.structures.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+
+
+/**
+ * Fan-out of a box to its remotes and fan-in of their answers: a
+ * late call is hedged by a duplicate to another replica, the first
+ * successful answer being kept; and calls are awaited until a
+ * timeout, stragglers being cancelled.
+ */
+public class Fanout {
+
+    private Fanout () { }
+
+    /**
+     * @param primary the call to the first replica.
+     * @param hedge the same call to another replica.
+     * @param delay the time in milliseconds after which the hedge is
+     * sent, unless the primary succeeded already; negative to never
+     * hedge.
+     * @param executor the executor running calls and their hedges.
+     * @return the first successful outcome of both calls; or, if both
+     * fail, the outcome of the primary. It fails with a
+     * RejectedExecutionException if the executor rejects the primary.
+     */
+    public static CompletableFuture<RemoteCall> hedge (Supplier<RemoteCall> primary,
+                                                       Supplier<RemoteCall> hedge,
+                                                       long delay, Executor executor) {
+        CompletableFuture<RemoteCall> first;
+        try {
+            first = CompletableFuture.supplyAsync(primary, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (delay < 0)
+            return first;
+        var second = new CompletableFuture<RemoteCall>();
+        // the timer only hands the hedge over to the executor
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, Runnable::run)
+            .execute(() -> {
+                if (second.isDone()) // cancelled meanwhile
+                    return;
+                try {
+                    executor.execute(() -> {
+                            if (second.isDone())
+                                return;
+                            try {
+                                second.complete(isSuccess(first) ? null : hedge.get());
+                            } catch (Throwable t) {
+                                second.completeExceptionally(t);
+                            }
+                        });
+                } catch (RejectedExecutionException e) { // not sent, the primary decides
+                    second.completeExceptionally(e);
+                }
+            });
+        return firstSuccess(first, second);
+    }
+
+    private static boolean isSuccess (CompletableFuture<RemoteCall> call) {
+        return call.isDone() && !call.isCompletedExceptionally() && call.join().isSuccess();
+    }
+
+    /**
+     * @param primary the call to the first replica.
+     * @param hedged the call to the second one, null if not sent.
+     * @return the first successful outcome, or else the outcome of the
+     * primary. Cancelling it cancels both calls, so those not started
+     * yet are never sent.
+     */
+    static CompletableFuture<RemoteCall> firstSuccess (CompletableFuture<RemoteCall> primary,
+                                                       CompletableFuture<RemoteCall> hedged) {
+        var result = new CompletableFuture<RemoteCall>();
+        var pending = new AtomicInteger(2);
+        BiConsumer<RemoteCall, Throwable> onOutcome = (call, error) -> {
+            if (Objects.nonNull(call) && call.isSuccess())
+                result.complete(call);
+            else if (pending.decrementAndGet() == 0) // both failed
+                primary.whenComplete((first, firstError) -> {
+                        if (Objects.isNull(firstError))
+                            result.complete(first);
+                        else
+                            result.completeExceptionally(firstError);
+                    });
+        };
+        primary.whenComplete(onOutcome);
+        hedged.whenComplete(onOutcome);
+        result.whenComplete((call, error) -> {
+                if (result.isCancelled()) {
+                    primary.cancel(true);
+                    hedged.cancel(true);
+                }
+            });
+        return result;
+    }
+
+    /**
+     * Joins calls to remotes until all answered or the timeout is
+     * over. Stragglers are cancelled: calls not sent yet never are,
+     * and calls in flight are left to the timeout of their request.
+     * @param calls the url of each remote and its call.
+     * @param timeout the time left in nanoseconds.
+     * @return the outcome of each call, in order.
+     */
+    public static ArrayList<RemoteCall> await (List<Pair<String, CompletableFuture<RemoteCall>>> calls,
+                                               long timeout) {
+        var startAwait = System.nanoTime();
+        try {
+            CompletableFuture.allOf(calls.stream().map(call -> call.second)
+                                    .toArray(CompletableFuture[]::new))
+                .get(Math.max(0, timeout), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // stragglers, handled below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        var results = new ArrayList<RemoteCall>();
+        for (var call : calls) {
+            if (call.second.isDone() && !call.second.isCompletedExceptionally())
+                results.add(call.second.join());
+            else {
+                call.second.cancel(true);
+                results.add(RemoteCall.cancelled(call.first,
+                                                 (System.nanoTime() - startAwait) / 1e6));
+            }
+        }
+        return results;
+    }
+
+}
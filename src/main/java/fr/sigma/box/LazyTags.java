@@ -0,0 +1,56 @@
+package fr.sigma.box;
+
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.opentracing.Span;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+
+
+/**
+ * Span tags whose values are computed only when the span is actually
+ * reported, i.e., sampled and kept by tail sampling. Values wait in a
+ * side map weakly keyed by span, so spans that are dropped take their
+ * tags with them.
+ */
+public class LazyTags {
+
+    private static final Cache<Span, Map<String, Supplier<?>>> tags =
+        CacheBuilder.newBuilder().weakKeys().build(); // identity of spans
+
+    /**
+     * @param span the span to tag.
+     * @param key the name of the tag.
+     * @param value the computation of the value of the tag, e.g.,
+     * formatting arguments.
+     */
+    public static void set(Span span, String key, Supplier<?> value) {
+        if (Objects.isNull(span))
+            return;
+        if (span.context() instanceof JaegerSpanContext &&
+            !((JaegerSpanContext) span.context()).isSampled())
+            return; // never reported
+        tags.asMap().computeIfAbsent(span, k -> new ConcurrentHashMap<>()).put(key, value);
+    }
+
+    /**
+     * Computes and sets the pending tags of the span.
+     */
+    public static void apply(Span span) {
+        var values = tags.asMap().remove(span);
+        if (Objects.isNull(values))
+            return;
+        for (var kv : values.entrySet())
+            span.setTag(kv.getKey(), String.valueOf(kv.getValue().get()));
+    }
+
+    public static void discard(Span span) {
+        tags.invalidate(span);
+    }
+
+}
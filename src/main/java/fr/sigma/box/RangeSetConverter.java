@@ -1,5 +1,7 @@
 package fr.sigma.box;
 
+import fr.sigma.structures.IntervalSet;
+
 import java.util.ArrayList;
 
 import com.google.common.base.Converter;
@@ -92,4 +94,46 @@ public class RangeSetConverter {
 	};
     }
 
+    /**
+     * Converter between IntervalSet instances and Strings, using the
+     * same format as range sets of doubles, without creating Range
+     * instances.
+     */
+    public static Converter<IntervalSet, String> intervalSetConverter() {
+	final String NEG_INFINITY = "-\u221e";
+	final String POS_INFINITY = "+\u221e";
+	final String DOTDOT = "\u2025";
+	return new Converter<IntervalSet, String>() {
+	    @Override
+	    protected String doForward(IntervalSet is) {
+		if (is.isEmpty())
+		    return "EMPTY";
+
+		var builder = new StringBuilder();
+		is.forEach((lower, upper) -> builder
+			   .append(builder.length() > 0 ? ", [" : "[")
+			   .append(lower).append(DOTDOT).append(upper).append(']'));
+		return builder.toString();
+	    }
+
+	    @Override
+	    protected IntervalSet doBackward(String is) {
+		if (is.equals("EMPTY"))
+		    return IntervalSet.EMPTY;
+
+		var lowers = new ArrayList<Double>();
+		var uppers = new ArrayList<Double>();
+		for (String range : Splitter.on(",").trimResults().split(is)) {
+		    String[] endpoints = range.substring(1, range.length() - 1).split(DOTDOT);
+		    lowers.add(endpoints[0].equals(NEG_INFINITY) ?
+			       Double.NEGATIVE_INFINITY : Double.parseDouble(endpoints[0]));
+		    uppers.add(endpoints[1].equals(POS_INFINITY) ?
+			       Double.POSITIVE_INFINITY : Double.parseDouble(endpoints[1]));
+		}
+		return IntervalSet.of(lowers.stream().mapToDouble(d -> d).toArray(),
+				      uppers.stream().mapToDouble(d -> d).toArray());
+	    }
+	};
+    }
+
 }
@@ -0,0 +1,57 @@
+package fr.sigma.box;
+
+import java.util.Objects;
+
+
+
+/**
+ * Outcome of a call to a remote box, as awaited by its parent: which
+ * replica answered, how long it took, and what it answered.
+ */
+public class RemoteCall {
+
+    public static final String SUCCESS = "success";
+    public static final String ERROR = "error";
+    public static final String CANCELLED = "cancelled";
+    public static final String OPEN = "open"; // skipped, circuit open
+
+    public final String url; // as configured, possibly with replicas
+    public final String replica; // the one that answered
+    public final String outcome;
+    // ms since the call started; since awaiting started if cancelled
+    public final double latency;
+    public final String body; // null unless successful
+    public final boolean isHedged; // answered by the hedged call
+
+    public RemoteCall (String url, String replica, String outcome, double latency,
+                       String body, boolean isHedged) {
+        this.url = url;
+        this.replica = replica;
+        this.outcome = outcome;
+        this.latency = latency;
+        this.body = body;
+        this.isHedged = isHedged;
+    }
+
+    public static RemoteCall cancelled (String url, double latency) {
+        return new RemoteCall(url, url, CANCELLED, latency, null, false);
+    }
+
+    public boolean isSuccess () {
+        return outcome.equals(SUCCESS);
+    }
+
+    /**
+     * @return one line for this call, followed by the answer of the
+     * remote box indented, so nested calls read as a tree.
+     */
+    @Override
+    public String toString () {
+        var line = String.format("%s %s %.1f ms%s\n", replica, outcome, latency,
+                                 isHedged ? " (hedged)" : "");
+        if (Objects.isNull(body) || body.isBlank())
+            return line;
+        return line + body.strip().replaceAll("(?m)^", "  ") + "\n";
+    }
+
+}
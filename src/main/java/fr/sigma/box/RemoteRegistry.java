@@ -0,0 +1,97 @@
+package fr.sigma.box;
+
+import fr.sigma.structures.CircuitBreaker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+
+
+/**
+ * Health of the remotes of a box, shared by its endpoints: a circuit
+ * breaker per remote, consulted before calling or polling it, and fed
+ * with their outcomes. Listeners learn when a remote becomes
+ * unavailable, i.e., its circuit opens; and available again, i.e.,
+ * its circuit closes after a successful probe.
+ */
+public class RemoteRegistry {
+
+    private final int window; // 0 disables breakers
+    private final int minCalls;
+    private final double failureRate;
+    private final long backoff; // ms
+    private final long maxBackoff; // ms
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<BiConsumer<String, Boolean>> listeners =
+        new CopyOnWriteArrayList<>();
+
+    /**
+     * See CircuitBreaker for parameters; a window of 0 disables
+     * breakers, every remote being always available.
+     */
+    public RemoteRegistry (int window, int minCalls, double failureRate,
+                           long backoff, long maxBackoff) {
+        this.window = window;
+        this.minCalls = minCalls;
+        this.failureRate = failureRate;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public boolean isEnabled () { return window > 0; }
+
+    /**
+     * @param listener called with a remote and true when it becomes
+     * available, false when it becomes unavailable.
+     */
+    public void addListener (BiConsumer<String, Boolean> listener) {
+        listeners.add(listener);
+    }
+
+    private CircuitBreaker breaker (String remote) {
+        return breakers.computeIfAbsent(remote, k -> new CircuitBreaker(window, minCalls,
+                                                                        failureRate,
+                                                                        backoff, maxBackoff));
+    }
+
+    /**
+     * @return true if the remote may be called or polled now.
+     */
+    public boolean allow (String remote) {
+        return !isEnabled() || breaker(remote).allowRequest();
+    }
+
+    /**
+     * @return true if the circuit of the remote is closed.
+     */
+    public boolean isAvailable (String remote) {
+        return !isEnabled() || breaker(remote).getState() == CircuitBreaker.State.CLOSED;
+    }
+
+    public CircuitBreaker.State getState (String remote) {
+        return isEnabled() ? breaker(remote).getState() : CircuitBreaker.State.CLOSED;
+    }
+
+    public void onSuccess (String remote) { report(remote, true); }
+    public void onFailure (String remote) { report(remote, false); }
+
+    private void report (String remote, boolean isSuccess) {
+        if (!isEnabled())
+            return;
+        var breaker = breaker(remote);
+        boolean wasAvailable, isAvailable;
+        synchronized (breaker) {
+            wasAvailable = breaker.getState() == CircuitBreaker.State.CLOSED;
+            if (isSuccess)
+                breaker.onSuccess();
+            else
+                breaker.onFailure();
+            isAvailable = breaker.getState() == CircuitBreaker.State.CLOSED;
+        }
+        if (wasAvailable != isAvailable)
+            for (var listener : listeners)
+                listener.accept(remote, isAvailable);
+    }
+
+}
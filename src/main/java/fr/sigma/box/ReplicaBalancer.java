@@ -0,0 +1,236 @@
+package fr.sigma.box;
+
+import fr.sigma.structures.CircuitBreaker;
+import fr.sigma.structures.IntervalSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+
+
+/**
+ * Chooses, for each call, the replica of a remote that handles it, so
+ * a remote scales horizontally without a proxy in between. Among the
+ * available replicas, two are drawn at random and the least loaded
+ * wins, i.e., the power of two choices: loaded by requests in flight,
+ * or by their observed latency. Cost aware, the replica whose energy
+ * intervals reach the objective of the call wins first.
+ */
+public class ReplicaBalancer {
+
+    public static final String FIRST = "first"; // no balancing, the primary
+    public static final String IN_FLIGHT = "inflight";
+    public static final String LATENCY = "latency";
+
+    private static final double DECAY = 0.2; // weight of the last latency or outcome
+    private static final double MIN_SUCCESS_RATE = 0.05; // caps the failure penalty
+
+    private final String policy;
+    private final boolean isCostAware;
+    private final RemoteRegistry health; // circuit breaker per replica
+    private final IntUnaryOperator random; // bound -> index in [0, bound)
+    private final ConcurrentHashMap<String, Replica> replicas = new ConcurrentHashMap<>();
+
+    private static class Replica {
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile double latency = 0.; // ms, moving average, 0 if unknown
+        volatile double failureRate = 0.; // moving average of outcomes
+        volatile IntervalSet costs = IntervalSet.EMPTY;
+    }
+
+    /**
+     * @param policy first, inflight, or latency; empty for first.
+     * @param isCostAware true to prefer replicas whose energy intervals
+     * reach the objective of calls.
+     * @param health the circuit breakers of replicas, keyed by their url.
+     */
+    public ReplicaBalancer (String policy, boolean isCostAware, RemoteRegistry health) {
+        this(policy, isCostAware, health, bound -> ThreadLocalRandom.current().nextInt(bound));
+    }
+
+    /**
+     * @param random draws the replicas to compare, given their number.
+     */
+    ReplicaBalancer (String policy, boolean isCostAware, RemoteRegistry health,
+                     IntUnaryOperator random) {
+        this.policy = Objects.isNull(policy) || policy.isBlank() ? FIRST : policy.trim();
+        if (!Arrays.asList(FIRST, IN_FLIGHT, LATENCY).contains(this.policy))
+            throw new IllegalArgumentException("Unknown balancing policy: " + policy);
+        this.isCostAware = isCostAware;
+        this.health = health;
+        this.random = random;
+    }
+
+    public boolean isEnabled () { return !policy.equals(FIRST); }
+
+    private Replica replica (String url) {
+        return replicas.computeIfAbsent(url, k -> new Replica());
+    }
+
+    /**
+     * @param url the url of a remote, possibly with replicas separated
+     * by "|".
+     * @param objective the energy objective of the call, negative if
+     * none.
+     * @return the replicas in order of preference: the first handles
+     * the call, the second its hedged duplicate, if any. Without
+     * balancing, replicas as configured.
+     */
+    public String[] order (String url, double objective) {
+        var all = Endpoint.replicas(url);
+        if (!isEnabled() || all.length < 2)
+            return all;
+
+        // #A a recovering replica gets its single probe first
+        for (int i = 0; i < all.length; ++i)
+            if (health.getState(all[i]) == CircuitBreaker.State.HALF_OPEN && health.allow(all[i]))
+                return first(all, i, -1);
+
+        // #B power of two choices among available replicas, if any
+        var candidates = new ArrayList<Integer>();
+        for (int i = 0; i < all.length; ++i)
+            if (health.isAvailable(all[i]))
+                candidates.add(i);
+        if (candidates.isEmpty()) // the circuit of the remote decides
+            for (int i = 0; i < all.length; ++i)
+                candidates.add(i);
+        if (candidates.size() == 1)
+            return first(all, candidates.get(0), -1);
+
+        int a = random.applyAsInt(candidates.size());
+        int b = random.applyAsInt(candidates.size() - 1);
+        if (b >= a) ++b;
+        a = candidates.get(a);
+        b = candidates.get(b);
+        return compare(all[a], all[b], objective) <= 0 ? first(all, a, b) : first(all, b, a);
+    }
+
+    /**
+     * @return the replicas starting with the best, then the second
+     * best if any, then the others as configured.
+     */
+    private static String[] first (String[] all, int best, int second) {
+        var ordered = new ArrayList<String>();
+        ordered.add(all[best]);
+        if (second >= 0)
+            ordered.add(all[second]);
+        for (int i = 0; i < all.length; ++i)
+            if (i != best && i != second)
+                ordered.add(all[i]);
+        return ordered.toArray(new String[0]);
+    }
+
+    /**
+     * @return negative if replica a should handle the call rather than
+     * b, positive if b should.
+     */
+    private int compare (String a, String b, double objective) {
+        var ra = replica(a);
+        var rb = replica(b);
+        if (isCostAware && objective >= 0) {
+            int byCost = Double.compare(excess(ra.costs, objective), excess(rb.costs, objective));
+            if (byCost != 0)
+                return byCost;
+        }
+        int byLoad = Double.compare(load(ra), load(rb));
+        if (byLoad != 0)
+            return byLoad;
+        return Integer.compare(ra.inFlight.get(), rb.inFlight.get());
+    }
+
+    /**
+     * @return the load of the replica following the policy, scaled up
+     * by its recent failures, so a replica that fails fast does not
+     * win by having few calls in flight; an unknown latency is the
+     * worst one.
+     */
+    private double load (Replica replica) {
+        double load = replica.inFlight.get() + 1;
+        if (policy.equals(LATENCY))
+            load = replica.latency <= 0 ? Double.POSITIVE_INFINITY : replica.latency;
+        return load / Math.max(MIN_SUCCESS_RATE, 1. - replica.failureRate);
+    }
+
+    /**
+     * @return how far the cheapest run of a replica is above the
+     * objective, 0 if it reaches the objective or is unknown.
+     */
+    private static double excess (IntervalSet costs, double objective) {
+        return costs.isEmpty() ? 0. : Math.max(0., costs.min() - objective);
+    }
+
+    /**
+     * @return true if the replica may be polled now.
+     */
+    public boolean allow (String url) {
+        return !isEnabled() || health.allow(url);
+    }
+
+    /**
+     * A call to the replica starts.
+     */
+    public void start (String url) {
+        if (isEnabled())
+            replica(url).inFlight.incrementAndGet();
+    }
+
+    /**
+     * A call to the replica ends.
+     * @param latency its latency in milliseconds.
+     * @param isSuccess true if the replica answered.
+     */
+    public void finish (String url, double latency, boolean isSuccess) {
+        if (!isEnabled())
+            return;
+        var replica = replica(url);
+        replica.inFlight.decrementAndGet();
+        if (isSuccess)
+            replica.latency = replica.latency <= 0 ? latency :
+                (1 - DECAY) * replica.latency + DECAY * latency;
+        replica.failureRate = (1 - DECAY) * replica.failureRate + (isSuccess ? 0. : DECAY);
+        report(url, isSuccess);
+    }
+
+    /**
+     * @param url the url of a remote, possibly with replicas separated
+     * by "|".
+     * @return true if, balancing among replicas, one of them is
+     * available, so the failure of a call to another one does not
+     * count against the whole remote.
+     */
+    public boolean hasAvailableReplica (String url) {
+        var all = Endpoint.replicas(url);
+        if (!isEnabled() || all.length < 2)
+            return false;
+        for (var replica : all)
+            if (health.isAvailable(replica))
+                return true;
+        return false;
+    }
+
+    /**
+     * Outcome of a call or a poll of the replica, for its circuit breaker.
+     */
+    public void report (String url, boolean isSuccess) {
+        if (!isEnabled())
+            return;
+        if (isSuccess)
+            health.onSuccess(url);
+        else
+            health.onFailure(url);
+    }
+
+    /**
+     * @param costs the energy intervals the replica just provided.
+     */
+    public void updateCosts (String url, IntervalSet costs) {
+        if (isEnabled())
+            replica(url).costs = costs;
+    }
+
+}
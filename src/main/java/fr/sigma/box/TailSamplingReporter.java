@@ -0,0 +1,127 @@
+package fr.sigma.box;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.spi.Reporter;
+import io.opentracing.tag.Tags;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+
+
+/**
+ * Reporter that buffers the spans of a trace in memory until the
+ * local server span finishes, then exports them only if the request
+ * was slow, failed, or missed its energy objective. Other traces are
+ * dropped locally. Lazy tags are computed for exported spans only.
+ */
+public class TailSamplingReporter implements Reporter {
+
+    public static final String OBJECTIVE_VIOLATED = "isObjectiveViolated";
+
+    private final Reporter delegate;
+    private final boolean isEnabled;
+    private final long slowThreshold; // µs, as span durations
+    private final Cache<String, Trace> traces; // by trace id
+
+    /**
+     * Spans of a trace waiting for its decision, then the decision for
+     * late spans; both under the lock of the trace, so a span is
+     * either buffered before the decision or decided after it.
+     */
+    private static class Trace {
+        List<JaegerSpan> spans = new ArrayList<>();
+        Boolean isKept = null; // undecided
+    }
+
+    /**
+     * Exports every span, only applying lazy tags.
+     */
+    public TailSamplingReporter (Reporter delegate) {
+        this.delegate = delegate;
+        this.isEnabled = false;
+        this.slowThreshold = 0;
+        this.traces = null;
+    }
+
+    /**
+     * @param delegate the reporter of kept spans.
+     * @param slowThreshold the duration (ms) beyond which a request is
+     * kept.
+     * @param maxTraces the maximal number of traces buffered, or
+     * remembered once decided, for a minute.
+     */
+    public TailSamplingReporter (Reporter delegate, long slowThreshold, int maxTraces) {
+        this.delegate = delegate;
+        this.isEnabled = true;
+        this.slowThreshold = TimeUnit.MILLISECONDS.toMicros(slowThreshold);
+        this.traces = CacheBuilder.newBuilder()
+            .maximumSize(maxTraces)
+            .expireAfterWrite(1, TimeUnit.MINUTES) // orphans, late spans
+            .build();
+    }
+
+    @Override
+    public void report (JaegerSpan span) {
+        if (!isEnabled) {
+            export(span);
+            return;
+        }
+
+        var trace = traces.asMap().computeIfAbsent(span.context().getTraceId(),
+                                                   k -> new Trace());
+        synchronized (trace) {
+            // #A trace already decided, e.g., remote calls finishing
+            // after the request
+            if (!Objects.isNull(trace.isKept)) {
+                exportOrDrop(span, trace.isKept);
+                return;
+            }
+
+            // #B wait for the local server span
+            if (!Tags.SPAN_KIND_SERVER.equals(span.getTags().get(Tags.SPAN_KIND.getKey()))) {
+                trace.spans.add(span);
+                return;
+            }
+
+            // #C decide for the whole trace
+            trace.isKept = isKept(span);
+            for (var other : trace.spans)
+                exportOrDrop(other, trace.isKept);
+            trace.spans = Collections.emptyList();
+            exportOrDrop(span, trace.isKept);
+        }
+    }
+
+    private boolean isKept (JaegerSpan span) {
+        var tags = span.getTags();
+        var status = tags.get(Tags.HTTP_STATUS.getKey());
+        return span.getDuration() >= slowThreshold ||
+            Boolean.TRUE.equals(tags.get(Tags.ERROR.getKey())) ||
+            (status instanceof Number && ((Number) status).intValue() >= 500) ||
+            Boolean.TRUE.equals(tags.get(OBJECTIVE_VIOLATED));
+    }
+
+    private void exportOrDrop (JaegerSpan span, boolean isKept) {
+        if (isKept)
+            export(span);
+        else
+            LazyTags.discard(span);
+    }
+
+    private void export (JaegerSpan span) {
+        LazyTags.apply(span);
+        delegate.report(span);
+    }
+
+    @Override
+    public void close () {
+        delegate.close();
+    }
+
+}
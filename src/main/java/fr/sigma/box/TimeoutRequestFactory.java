@@ -0,0 +1,46 @@
+package fr.sigma.box;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.function.Supplier;
+
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+
+
+/**
+ * Http requests whose connect and read timeouts are set per call by
+ * the thread that sends it, e.g., from the deadline of the call, so
+ * a hanging remote does not hold a thread forever.
+ */
+public class TimeoutRequestFactory extends SimpleClientHttpRequestFactory {
+
+    private static final ThreadLocal<Integer> TIMEOUT = ThreadLocal.withInitial(() -> 0);
+
+    /**
+     * @param timeout the timeout of requests sent by call, in
+     * milliseconds, at least 1; negative for none.
+     * @param call the call sending requests.
+     * @return the result of the call.
+     */
+    public static <T> T withTimeout (long timeout, Supplier<T> call) {
+        TIMEOUT.set(timeout < 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, Math.max(1, timeout)));
+        try {
+            return call.get();
+        } finally {
+            TIMEOUT.remove();
+        }
+    }
+
+    @Override
+    protected void prepareConnection (HttpURLConnection connection, String httpMethod)
+        throws IOException {
+        super.prepareConnection(connection, httpMethod);
+        int timeout = TIMEOUT.get();
+        if (timeout > 0) {
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+        }
+    }
+
+}
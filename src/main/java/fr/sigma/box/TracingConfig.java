@@ -1,6 +1,12 @@
 package fr.sigma.box;
 
+import io.jaegertracing.Configuration.SenderConfiguration;
 import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.CompositeReporter;
+import io.jaegertracing.internal.reporters.LoggingReporter;
+import io.jaegertracing.internal.reporters.RemoteReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.spi.Reporter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
@@ -10,7 +16,7 @@ import io.jaegertracing.internal.propagation.B3TextMapCodec;
 
 import java.util.Objects;
 
-
+
 
 @Configuration
 public class TracingConfig {
@@ -18,6 +24,19 @@ public class TracingConfig {
     @Value("${spring.application.name:default-service-name}")
     private String serviceName;
 
+    @Value("${opentracing.jaeger.log-spans:false}")
+    private Boolean isLogSpans;
+    @Value("${box.tracing.reporter.queue.size:100}")
+    private Integer reporterQueueSize;
+    @Value("${box.tracing.reporter.flush.interval:1000}")
+    private Integer reporterFlushInterval;
+    @Value("${box.tracing.tail.sampling:false}")
+    private Boolean isTailSampling;
+    @Value("${box.tracing.tail.slow.threshold:1000}")
+    private Long tailSlowThreshold;
+    @Value("${box.tracing.tail.max.traces:10000}")
+    private Integer tailMaxTraces;
+
     private Tracer tracer;
 
     @Bean
@@ -27,9 +46,24 @@ public class TracingConfig {
 
         var b3Codec = new B3TextMapCodec.Builder().build();
 
-        tracer = new JaegerTracer.Builder(serviceName)
+        // sender from JAEGER_* environment variables, udp by default
+        Reporter reporter = new RemoteReporter.Builder()
+            .withSender(SenderConfiguration.fromEnv().getSender())
+            .withMaxQueueSize(reporterQueueSize)
+            .withFlushInterval(reporterFlushInterval)
+            .build();
+        if (isLogSpans)
+            reporter = new CompositeReporter(reporter, new LoggingReporter());
+
+        var builder = new JaegerTracer.Builder(serviceName)
                 .registerInjector(Format.Builtin.HTTP_HEADERS, b3Codec)
-                .registerExtractor(Format.Builtin.HTTP_HEADERS, b3Codec).build();
+                .registerExtractor(Format.Builtin.HTTP_HEADERS, b3Codec);
+        if (isTailSampling) // record everything, decide locally at the end
+            builder.withSampler(new ConstSampler(true))
+                .withReporter(new TailSamplingReporter(reporter, tailSlowThreshold, tailMaxTraces));
+        else
+            builder.withReporter(new TailSamplingReporter(reporter));
+        tracer = builder.build();
 
         return tracer;
     }
@@ -0,0 +1,152 @@
+package fr.sigma.energy;
+
+import java.util.Objects;
+
+
+
+/**
+ * Bounds the work in flight in the box, counted in requests and in
+ * costs predicted from local energy data. Beyond degrade limits,
+ * requests run with the cheapest arguments known; beyond reject
+ * limits, even those do not fit and requests are rejected. Overload
+ * then sheds quality first, then requests, rather than latency of
+ * every request. Shared by all endpoints of a box.
+ *
+ * A request enters first, before any work, reserving the cost of the
+ * cheapest arguments; then it is admitted with the arguments it would
+ * run, whose cost replaces its reservation if it fits.
+ */
+public class AdmissionControl {
+
+    // 0 for unlimited
+    private final int degradeInFlight;
+    private final double degradeCost;
+    private final int rejectInFlight;
+    private final double rejectCost;
+
+    private int inFlight = 0;
+    private double inFlightCost = 0.;
+
+    /**
+     * @param degradeInFlight the number of requests in flight beyond
+     * which requests are degraded.
+     * @param degradeCost the predicted cost in flight beyond which
+     * requests are degraded.
+     * @param rejectInFlight the number of requests in flight beyond
+     * which requests are rejected.
+     * @param rejectCost the predicted cost in flight beyond which
+     * requests are rejected.
+     */
+    public AdmissionControl (int degradeInFlight, double degradeCost,
+                             int rejectInFlight, double rejectCost) {
+        this.degradeInFlight = degradeInFlight;
+        this.degradeCost = degradeCost;
+        this.rejectInFlight = rejectInFlight;
+        this.rejectCost = rejectCost;
+    }
+
+    public synchronized int getInFlight () { return inFlight; }
+    public synchronized double getInFlightCost () { return inFlightCost; }
+
+    /**
+     * @return the cost of arguments if known, the average cost of
+     * known arguments otherwise, 0 if none.
+     */
+    public static double predict (LocalEnergyData data, Double[] args) {
+        double known = data.getCost(args, Double.NaN);
+        if (!Double.isNaN(known))
+            return known;
+        var costs = data.getSortedAvgCosts();
+        double sum = 0.;
+        for (double cost : costs)
+            sum += cost;
+        return costs.length == 0 ? 0. : sum / costs.length;
+    }
+
+    /**
+     * @param data the local data of the endpoint of the request.
+     * @return the ticket of the request, to close once it is over; or
+     * null if it is rejected. A request alone is never rejected.
+     */
+    public Ticket enter (LocalEnergyData data) {
+        var cheapest = data.getClosest(0.);
+        double cheapestCost = Objects.isNull(cheapest) ? 0. : data.getCost(cheapest, 0.);
+        synchronized (this) {
+            if (inFlight > 0 &&
+                ((rejectInFlight > 0 && inFlight + 1 > rejectInFlight) ||
+                 (rejectCost > 0 && inFlightCost + cheapestCost > rejectCost)))
+                return null;
+            ++inFlight;
+            inFlightCost += cheapestCost;
+        }
+        return new Ticket(data, cheapest, cheapestCost);
+    }
+
+    /**
+     * Replaces a reservation by another if it fits degrade limits, or
+     * anyway when forced.
+     * @return true if it fits.
+     */
+    private synchronized boolean reserve (double from, double to, boolean isForced) {
+        double others = inFlightCost - from;
+        boolean fits = inFlight <= 1 ||
+            ((degradeInFlight <= 0 || inFlight <= degradeInFlight) &&
+             (degradeCost <= 0 || others + to <= degradeCost));
+        if (fits || isForced)
+            inFlightCost = others + to;
+        return fits;
+    }
+
+    private synchronized void release (double cost) {
+        --inFlight;
+        inFlightCost = inFlight == 0 ? 0. : inFlightCost - cost; // no drift
+    }
+
+
+
+    /**
+     * The place of a request in flight.
+     */
+    public class Ticket implements AutoCloseable {
+
+        private final LocalEnergyData data;
+        private final Double[] cheapest; // null when nothing is known
+        private double reserved;
+        private boolean isDegraded = false;
+        private boolean isClosed = false;
+
+        private Ticket (LocalEnergyData data, Double[] cheapest, double reserved) {
+            this.data = data;
+            this.cheapest = cheapest;
+            this.reserved = reserved;
+        }
+
+        /**
+         * @param args the arguments the request would run with.
+         * @return these arguments if their predicted cost fits, the
+         * cheapest known ones otherwise.
+         */
+        public Double[] admit (Double[] args) {
+            double predicted = predict(data, args);
+            boolean isKnown = Objects.nonNull(cheapest); // else, nothing to degrade to
+            if (reserve(reserved, predicted, !isKnown) || !isKnown) {
+                reserved = predicted;
+                return args;
+            }
+            isDegraded = true;
+            return cheapest.clone();
+        }
+
+        public boolean isDegraded () { return isDegraded; }
+        public double getReservedCost () { return reserved; }
+
+        @Override
+        public void close () {
+            if (isClosed)
+                return;
+            isClosed = true;
+            release(reserved);
+        }
+    }
+
+}
@@ -1,5 +1,8 @@
 package fr.sigma.energy;
 
+import fr.sigma.logging.RequestLog;
+import fr.sigma.structures.MappedCountingBloomFilter;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import orestes.bloomfilter.CountingBloomFilter;
@@ -9,6 +12,7 @@ import java.nio.ByteBuffer;
 import java.io.ByteArrayOutputStream;
 
 import java.util.Arrays;
+import java.util.Objects;
 
 
 
@@ -18,6 +22,8 @@ public class ArgsFilter {
 
     // <String> because Double[] does not work well
     private CountingBloomFilter<String> counting; 
+    // off-heap counters instead, surviving restarts
+    private MappedCountingBloomFilter mapped = null;
     private int threshold;
     
     public ArgsFilter () {
@@ -42,6 +48,19 @@ public class ArgsFilter {
                     .concat(String.format("; |distinct args| ~= %s.", numberOfValues)));
     }
     
+    /**
+     * @param mapped the counters of the filter, in a memory-mapped
+     * file.
+     * @param threshold the number of tries before self-tuning.
+     */
+    public ArgsFilter (MappedCountingBloomFilter mapped, int threshold) {
+        this.mapped = mapped;
+        this.threshold = threshold;
+        logger.info(String.format("Initialized filter when |args| > %s", threshold)
+                    .concat(String.format("; %s mapped counters%s.", mapped.getSize(),
+                                          mapped.isRestored() ? ", restored" : "")));
+    }
+
     public int getThreshold () {
         return threshold;
     }
@@ -53,15 +72,36 @@ public class ArgsFilter {
      * @returns True if the arguments should be self-tuned, false otherwise.
      */
     public boolean isTriedEnough (Double[] args) {
-        long count = counting.getEstimatedCount(Arrays.toString(args));
-        logger.info(String.format("Args %s have been seen roughly %s times before.",
-                                  Arrays.toString(args),
-                                  count));
+        long count = Objects.isNull(mapped) ?
+            counting.getEstimatedCount(Arrays.toString(args)) :
+            mapped.getEstimatedCount(Arrays.toString(args));
+        RequestLog.log(logger, "Args {} have been seen roughly {} times before.",
+                       args, count);
         return count >= threshold;
     }
     
     public void tryArgs(Double[] args) {
-        counting.add(Arrays.toString(args));
+        if (Objects.isNull(mapped))
+            counting.add(Arrays.toString(args));
+        else
+            mapped.add(Arrays.toString(args));
+    }
+
+    /**
+     * @return true if counts survive restarts, so they need not be
+     * restored from elsewhere.
+     */
+    public boolean isPersistent () {
+        return Objects.nonNull(mapped);
+    }
+
+    /**
+     * @return true if counts were restored from a previous run, false
+     * if they start from scratch, e.g., a mapped file just created or
+     * reset by a change of sizing.
+     */
+    public boolean isRestored () {
+        return isPersistent() && mapped.isRestored();
     }
 
 }
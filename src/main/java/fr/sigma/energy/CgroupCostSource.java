@@ -0,0 +1,65 @@
+package fr.sigma.energy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+
+/**
+ * Cpu time of the whole container, read from its cgroup: usage_usec
+ * of cpu.stat (v2) or cpuacct.usage in nanoseconds (v1). It includes
+ * other threads, garbage collection and concurrent requests, hence
+ * fits boxes that handle one request at a time.
+ */
+public class CgroupCostSource implements CostSource {
+
+    private final Path usage;
+    private final boolean isV2;
+
+    public CgroupCostSource (Path usage, boolean isV2) {
+        this.usage = usage;
+        this.isV2 = isV2;
+    }
+
+    /**
+     * @param root the mount point of cgroups, e.g., /sys/fs/cgroup.
+     * @return the source of the cgroup mounted there, null if none.
+     */
+    public static CgroupCostSource detect (Path root) {
+        if (Files.isReadable(root.resolve("cpu.stat")))
+            return new CgroupCostSource(root.resolve("cpu.stat"), true);
+        if (Files.isReadable(root.resolve("cpuacct/cpuacct.usage")))
+            return new CgroupCostSource(root.resolve("cpuacct/cpuacct.usage"), false);
+        return null;
+    }
+
+    /**
+     * @return the cpu usage of the cgroup in nanoseconds.
+     */
+    long readUsage () {
+        try {
+            if (!isV2)
+                return Long.parseLong(Files.readString(usage).trim());
+            for (String line : Files.readAllLines(usage))
+                if (line.startsWith("usage_usec "))
+                    return 1000 * Long.parseLong(line.substring("usage_usec ".length()).trim());
+            throw new IOException(String.format("No usage_usec in %s.", usage));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Meter start () {
+        long start = readUsage();
+        return () -> (readUsage() - start) / 1e6;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("cgroup cpu time of %s", usage);
+    }
+
+}
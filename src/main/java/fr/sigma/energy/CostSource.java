@@ -0,0 +1,67 @@
+package fr.sigma.energy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+
+
+/**
+ * Measures the cost of handling a request, i.e., what energy
+ * awareness learns and distributes. Costs are in the unit of
+ * objectives: milliseconds of time, or joules of energy.
+ */
+public interface CostSource {
+
+    /**
+     * Measure in progress, started and stopped by the same thread.
+     */
+    interface Meter {
+        /**
+         * @return the cost since the start of the measure.
+         */
+        double stop();
+    }
+
+    /**
+     * @return a measure starting now, for the calling thread.
+     */
+    Meter start();
+
+    /**
+     * @param kind "wall" for elapsed time; "thread" for the cpu time
+     * of the thread plus its allocations; "cgroup" for the cpu time
+     * of the whole container; "powercap" for joules.
+     * @param allocationWeight the cost of each allocated megabyte,
+     * for "thread" only.
+     * @param powercap the directory of powercap zones, for
+     * "powercap" only, e.g., /sys/class/powercap.
+     * @return the cost source, thread by default, or wall time if the
+     * source is not supported here.
+     */
+    static CostSource of (String kind, double allocationWeight, Path powercap) {
+        switch (Objects.isNull(kind) ? "thread" : kind.trim()) {
+        case "wall":
+            return new WallTimeCostSource();
+        case "cgroup":
+            var cgroup = CgroupCostSource.detect(Path.of("/sys/fs/cgroup"));
+            return Objects.isNull(cgroup) ? new WallTimeCostSource() : cgroup;
+        case "powercap":
+            try {
+                return new PowercapCostSource(powercap, Path.of("/proc/stat"));
+            } catch (IOException | UncheckedIOException e) {
+                return new WallTimeCostSource();
+            }
+        default:
+            return ThreadCostSource.isSupported() ?
+                new ThreadCostSource(allocationWeight) :
+                new WallTimeCostSource();
+        }
+    }
+
+    static CostSource of (String kind, double allocationWeight) {
+        return of(kind, allocationWeight, Path.of("/sys/class/powercap"));
+    }
+
+}
@@ -1,22 +1,40 @@
 package fr.sigma.energy;
 
+import fr.sigma.jfr.GetObjectivesEvent;
+import fr.sigma.logging.RequestLog;
+import fr.sigma.jfr.NewFunctionCallEvent;
 import fr.sigma.structures.Pair;
+import fr.sigma.structures.CombinationTree;
+import fr.sigma.structures.CombinedIntervals;
+import fr.sigma.structures.IntervalSet;
 import fr.sigma.structures.MCKP;
 import fr.sigma.structures.MCKPElement;
+import fr.sigma.structures.MCKPGreedy;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.SortedMap;
+import java.util.TreeSet;
 import java.util.Collections;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.tuple.Triple;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,20 +49,54 @@ public class EnergyAwareness {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
     
-    private TreeMap<String, TreeRangeSet<Double>> funcToIntervals;
+    private TreeMap<String, IntervalSet> funcToIntervals;
     private LocalEnergyData localEnergyData;
+    // cached combinations: leaf 0 is local, then remotes by name
+    private CombinationTree<CombinedIntervals> intervalsTree;
+    private TreeMap<String, Integer> funcToLeaf;
+    // unavailable remotes, kept but planned as if empty
+    private TreeSet<String> excluded = new TreeSet<>();
+    private long localVersion = -1;
+    private IntervalSet localIntervals = IntervalSet.EMPTY;
+    // local intervals as of the last version; costs drifting less
+    // than a quantum keep the version, hence cached objectives
+    private IntervalSet versionedLocalIntervals = IntervalSet.EMPTY;
+    // increases when local or remote intervals materially change
+    private long intervalsVersion = 0;
     private ArgsFilter argsFilter;
     private final String name;
 
     private int maxObjective = 1000; // (TODO) upscale downscale automatically
     // allows other solutions to improve fairness (between 0 and 1)
     private double fairnessFactor = 0.00; 
+    // time allowed to distribute objectives in nanoseconds, 0 for unlimited
+    private long solverTimeBudget = 0;
+    // bounds the ranges sent to parents, ranges closer than maxGap merge
+    private int maxRanges = Integer.MAX_VALUE;
+    private double maxGap = 0.;
+    // split objectives following the provenance of combined intervals
+    private boolean isProvenanceEnabled = false;
+    // last distribution of objectives, fallback when out of time;
+    // replaced as a whole, never modified, since requests share it
+    private volatile Plan lastPlan = null;
+    // no-op until a registry is set, e.g., the one of spring
+    private MeterRegistry meterRegistry = Metrics.globalRegistry;
+    private final ArrayList<Meter> meters = new ArrayList<>(); // of this instance
+    // distributions of objectives, valid for one version of intervals
+    private Cache<ObjectiveKey, TreeMap<String, Double>> objectivesCache = null;
+    private double objectivesQuantum = 0.;
+    private long objectivesCacheVersion = -1;
+    // learned costs survive restarts when set
+    private EnergyDataStore store = null;
+    // caps the aggregate cost of the box when set
+    private EnergyBudget budget = null;
 
     public EnergyAwareness(String name, int maxSizeOfLocalData, int thresholdFilter) {
         funcToIntervals = new TreeMap();
         localEnergyData = new LocalEnergyData(maxSizeOfLocalData, thresholdFilter, 15.);
         argsFilter = new ArgsFilter(thresholdFilter);
         this.name = name;
+        buildIntervalsTree();
     }
 
     public EnergyAwareness(String name, int maxSizeOfLocalData,
@@ -53,6 +105,7 @@ public class EnergyAwareness {
         localEnergyData = new LocalEnergyData(maxSizeOfLocalData, thresholdFilter, 15.);
         argsFilter = new ArgsFilter(nbDifferentInput, thresholdFilter);
         this.name = name;
+        buildIntervalsTree();
     }
 
     public EnergyAwareness(String name, int maxSizeOfLocalData,
@@ -63,14 +116,128 @@ public class EnergyAwareness {
         argsFilter = new ArgsFilter(nbDifferentInput, thresholdFilter);
         this.fairnessFactor = fairnessFactor;
         this.name = name;
+        buildIntervalsTree();
     }
     
-    public TreeMap<String, TreeRangeSet<Double>> getFuncToIntervals() {
+    public TreeMap<String, IntervalSet> getFuncToIntervals() {
         return funcToIntervals;
     }
     public LocalEnergyData getLocalEnergyData() { return localEnergyData; }
     public String getName() { return name; }
 
+    /**
+     * @param millis the time allowed to distribute an objective.
+     * Beyond, the best approximate solution is used. 0 for unlimited.
+     */
+    public void setSolverTimeBudget(double millis) {
+        solverTimeBudget = (long) (millis * 1_000_000);
+    }
+
+    /**
+     * Exposes the state of local data and the time spent solving
+     * through the registry.
+     * @param registry the registry of meters, e.g., prometheus.
+     * @param tags the keys and values that distinguish the state of
+     * this instance from others, e.g., its endpoint.
+     */
+    public void setMeterRegistry(MeterRegistry registry, String... tags) {
+        meterRegistry = registry;
+        meters.add(Gauge.builder("box.energy.local.data.size", localEnergyData,
+                                 LocalEnergyData::size)
+                   .description("arguments whose costs are kept locally")
+                   .tags(tags)
+                   .register(registry));
+        meters.add(FunctionCounter.builder("box.energy.local.data.evictions", localEnergyData,
+                                           LocalEnergyData::getEvictions)
+                   .description("arguments pruned from local data")
+                   .tags(tags)
+                   .register(registry));
+    }
+
+    /**
+     * Removes the meters of this instance from the registry, e.g.,
+     * when its endpoint is evicted, so a new instance with the same
+     * tags registers meters bound to its own data.
+     */
+    public void close() {
+        for (var meter : meters)
+            meterRegistry.remove(meter);
+        meters.clear();
+    }
+
+    /**
+     * @param filter the filter counting the tries of arguments, e.g.,
+     * one whose counters are memory-mapped. Set before the store.
+     */
+    public void setArgsFilter(ArgsFilter filter) {
+        argsFilter = filter;
+    }
+
+    /**
+     * Restores local data and, unless restored already from mapped
+     * counters, the counts of arguments from the store, then journals
+     * every new cost in it.
+     * @param store the store of this box.
+     * @return the number of costs restored.
+     */
+    public int setEnergyDataStore(EnergyDataStore store) throws IOException {
+        int restored = store.restore(localEnergyData,
+                                     argsFilter.isRestored() ? null : argsFilter);
+        this.store = store;
+        return restored;
+    }
+
+    /**
+     * Snapshots local data in the store, if any, and starts a new
+     * journal.
+     */
+    public void snapshot() throws IOException {
+        if (Objects.nonNull(store))
+            store.snapshot(localEnergyData);
+    }
+
+    /**
+     * @param budget the budget of the box, shared by its endpoints:
+     * costs drain it, and objectives shrink as it empties.
+     */
+    public void setEnergyBudget(EnergyBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Memoizes distributions of objectives until intervals change,
+     * since objectives usually come from a few modes. Local intervals
+     * change once a bound moved by more than the quantum.
+     * @param size the maximal number of distributions kept, least
+     * recently used first evicted; 0 disables the cache.
+     * @param quantum objectives are rounded down to a multiple of quantum
+     * so close ones share their distribution; 0 for exact objectives.
+     */
+    public void setObjectivesCache(int size, double quantum) {
+        objectivesCache = size <= 0 ? null :
+            CacheBuilder.newBuilder().maximumSize(size).build();
+        objectivesQuantum = Math.max(0., quantum);
+    }
+
+    /**
+     * @param enabled true to split objectives by walking back the
+     * combination of intervals rather than solving a knapsack.
+     */
+    public void setProvenanceEnabled(boolean enabled) {
+        isProvenanceEnabled = enabled;
+    }
+
+    /**
+     * @param maxRanges the maximal number of ranges of combined
+     * intervals; smallest gaps are filled beyond.
+     * @param maxGap ranges closer than this gap are merged.
+     */
+    public void setRangesLimit(int maxRanges, double maxGap) {
+        this.maxRanges = maxRanges > 0 ? maxRanges : Integer.MAX_VALUE;
+        this.maxGap = maxGap;
+        buildIntervalsTree();
+    }
+
 
 
     /**
@@ -81,27 +248,41 @@ public class EnergyAwareness {
      */
     public Triple<TreeMap<String, Double>, Double[], Boolean>
 	newFunctionCall(double objective, Double[] args) {
+	var event = new NewFunctionCallEvent();
+	event.begin();
 		
         if (objective < 0) { // default
-            logger.info("This box has no energy objective defined.");
+            RequestLog.log(logger, "This box has no energy objective defined.");
             argsFilter.tryArgs(args);
-            return new ImmutableTriple(getObjectives(objective, false), args, false);
+            var objectives = getObjectives(objective, false);
+            commit(event, objective, args, args, false, false);
+            return new ImmutableTriple(objectives, args, false);
         }
         
-        logger.info(String.format("This box has an energy consumption objective of %s.",
-                                  objective));
+        RequestLog.log(logger, "This box has an energy consumption objective of {}.",
+                       objective);
+        if (Objects.nonNull(budget)) {
+            var affordable = budget.adjust(objective);
+            if (affordable < objective)
+                RequestLog.log(logger, "Energy budget lowers the objective to {}.", affordable);
+            objective = affordable;
+        }
         
         TreeMap<String, Double> objectives = null;
         Double[] solution = args;
 	boolean isLastInputRewritten = false;
 	
-	if (!argsFilter.isTriedEnough(args)) {
+	boolean isTriedEnough = argsFilter.isTriedEnough(args);
+	meterRegistry.counter("box.energy.args.filter",
+			      "tried", String.valueOf(isTriedEnough)).increment();
+	if (!isTriedEnough) {
 	    // #1 not enough data to be part of the computation
-            if (localEnergyData.exists(args)) {
+            double knownCost = localEnergyData.getCost(args, Double.NaN);
+            if (!Double.isNaN(knownCost)) {
                 // small accuracy improvement when this service
                 // already monitored the current args.
-                logger.info("Removing known cost from objective.");
-                objective = Math.max(0., objective - localEnergyData.getCost(args));
+                RequestLog.log(logger, "Removing known cost from objective.");
+                objective = Math.max(0., objective - knownCost);
             }
 	    objectives = getObjectives(objective, true); // no objective for self
 	} else {
@@ -111,78 +292,277 @@ public class EnergyAwareness {
 	    isLastInputRewritten = !Objects.isNull(solution);
         }
 
-	logger.info(String.format("Distributes energy objective as: %s.", objectives));	
+	RequestLog.log(logger, "Distributes energy objective as: {}.", objectives);
 	if (isLastInputRewritten)
-	    logger.info(String.format("Rewrites local arguments: %s -> %s.",
-				      Arrays.toString(args),
-				      Arrays.toString(solution)));
+	    RequestLog.log(logger, "Rewrites local arguments: {} -> {}.", args, solution);
 	else
 	    solution = args;
 		
         argsFilter.tryArgs(solution);        
+        commit(event, objective, args, solution, isTriedEnough, isLastInputRewritten);
         return new ImmutableTriple(objectives, solution, isLastInputRewritten);
     }
+
+    /**
+     * Plans what newFunctionCall would do for each objective, without
+     * running anything nor counting arguments as tried. Objectives
+     * share one scaling, that of the largest, hence one table of the
+     * knapsack from which each objective is backtracked; smaller
+     * objectives get a coarser resolution. Objectives are lowered by
+     * the energy budget as they would be now.
+     * @param objectives the objectives to plan, e.g., energy modes.
+     * @param args the arguments that matter to the local function.
+     * @return for each objective, the objectives of this box and of
+     * remotes, the arguments, and whether they are rewritten.
+     */
+    public TreeMap<Double, Triple<TreeMap<String, Double>, Double[], Boolean>>
+        plan(double[] objectives, Double[] args) {
+        var plans = new TreeMap<Double, Triple<TreeMap<String, Double>, Double[], Boolean>>();
+        boolean withoutMe = !argsFilter.isTriedEnough(args);
+        double knownCost = withoutMe ? localEnergyData.getCost(args, 0.) : 0.;
+        var localIntervals = getLocalIntervals();
+
+        // #A one table for all objectives, scaled to the largest
+        double largest = 0.;
+        double factor = Objects.isNull(budget) ? 1. : budget.getFactor();
+        for (double objective : objectives)
+            largest = Math.max(largest, objective * factor - knownCost);
+        boolean isSolving = !localIntervals.isEmpty() && largest > 0. &&
+            !(isProvenanceEnabled && !withoutMe);
+        double ratio = isSolving ? (double) maxObjective / largest : 0.;
+        var groupToFunc = new TreeMap<Integer, String>();
+        var funcToIntervalsCopy = copyIntervals(withoutMe, localIntervals);
+        var mckpElements = isSolving ?
+            toElements(funcToIntervalsCopy, ratio, groupToFunc) : new ArrayList<MCKPElement>();
+        var mckp = new MCKP(maxObjective + (int) (maxObjective * fairnessFactor), mckpElements);
+        if (!mckpElements.isEmpty())
+            mckp.process();
+
+        // #B then, as newFunctionCall, for each objective
+        for (double objective : objectives) {
+            double affordable = objective < 0 ? objective : objective * factor;
+            double target = affordable < 0 || !withoutMe ? affordable :
+                Math.max(0., affordable - knownCost);
+            TreeMap<String, Double> distribution;
+            if (localIntervals.isEmpty() || target < 0)
+                distribution = getObjectives(-1., withoutMe); // default
+            else if (isProvenanceEnabled && !withoutMe)
+                distribution = getObjectivesByProvenance(target);
+            else {
+                int capacity = (int) (target * ratio);
+                var solution = mckpElements.isEmpty() ? new ArrayList<MCKPElement>() :
+                    fairestSolution(mckp, capacity + (int) (capacity * fairnessFactor),
+                                    capacity - (int) (capacity * fairnessFactor),
+                                    System.nanoTime());
+                distribution = toObjectives(target, solution, ratio, groupToFunc,
+                                            funcToIntervalsCopy);
+            }
+
+            Double[] solution = objective < 0 || withoutMe ? null :
+                solveObjective(distribution.get(name));
+            plans.put(objective, new ImmutableTriple(distribution,
+                                                     Objects.isNull(solution) ? args : solution,
+                                                     Objects.nonNull(solution)));
+        }
+        return plans;
+    }
+
+    private static void commit(NewFunctionCallEvent event, double objective,
+                               Double[] args, Double[] solution,
+                               boolean isTriedEnough, boolean isRewritten) {
+        event.end();
+        if (!event.shouldCommit())
+            return; // no formatting when not recording
+        event.objective = objective;
+        event.args = Arrays.toString(args);
+        event.solution = Arrays.toString(solution);
+        event.isTriedEnough = isTriedEnough;
+        event.isRewritten = isRewritten;
+        event.commit();
+    }
     
 
     
     public boolean addEnergyData(Double[] args, double cost) {
-        return localEnergyData.addEnergyData(args, cost);
+        boolean isKept = localEnergyData.addEnergyData(args, cost);
+        if (Objects.nonNull(budget))
+            budget.consume(cost);
+        if (Objects.nonNull(store)) {
+            try { // after local data, see EnergyDataStore.snapshot
+                store.append(args, cost);
+            } catch (IOException e) {
+                logger.warn("Could not journal the cost of {}.", Arrays.toString(args), e);
+            }
+        }
+        return isKept;
     }
     
-    public void updateRemotes(ArrayList<String> names) {
+    public synchronized void updateRemotes(ArrayList<String> names) {
         for (var func : names)
-            funcToIntervals.put(func, TreeRangeSet.create());
+            funcToIntervals.put(func, IntervalSet.EMPTY);
+        buildIntervalsTree();
     }
     
-    public void updateRemote(String func, TreeRangeSet<Double> costs) {
-        // (TODO) could be important to handle version of data
-        funcToIntervals.put(func, costs);
+    public synchronized void updateRemote(String func, IntervalSet costs) {
+        boolean isNew = !funcToIntervals.containsKey(func);
+        var previous = funcToIntervals.put(func, costs);
+        if (isNew)
+            buildIntervalsTree();
+        else if (!costs.equals(previous) && !excluded.contains(func)) { // polled often, rarely changed
+            intervalsTree.set(funcToLeaf.get(func), CombinedIntervals.leaf(costs));
+            ++intervalsVersion;
+        }
+    }
+
+    /**
+     * Excludes a remote from the distribution of objectives while it
+     * is unavailable, e.g., while its circuit is open, without losing
+     * its intervals; they count again once it is available.
+     * @param func the remote.
+     * @param isAvailable false to exclude it, true to include it back.
+     */
+    public synchronized void setRemoteAvailable(String func, boolean isAvailable) {
+        if (!funcToIntervals.containsKey(func) ||
+            !(isAvailable ? excluded.remove(func) : excluded.add(func)))
+            return; // unknown or unchanged
+        intervalsTree.set(funcToLeaf.get(func), CombinedIntervals.leaf(getPlannedIntervals(func)));
+        ++intervalsVersion;
+    }
+
+    public synchronized boolean isRemoteAvailable(String func) {
+        return !excluded.contains(func);
+    }
+
+    /**
+     * @return the intervals of a remote, empty while it is excluded.
+     */
+    private IntervalSet getPlannedIntervals(String func) {
+        return excluded.contains(func) ? IntervalSet.EMPTY : funcToIntervals.get(func);
+    }
+
+    public void updateRemote(String func, RangeSet<Double> costs) {
+        updateRemote(func, IntervalSet.fromRangeSet(costs));
     }
 
     public void resetRemote(String func) {
-	funcToIntervals.put(func, TreeRangeSet.create());
+        updateRemote(func, IntervalSet.EMPTY);
+    }
+
+    /**
+     * Rebuilds the tree of combinations from scratch, e.g., when the
+     * set of remotes changes.
+     */
+    private synchronized void buildIntervalsTree() {
+        funcToLeaf = new TreeMap<>();
+        var leaves = new ArrayList<CombinedIntervals>();
+        localVersion = localEnergyData.getVersion();
+        localIntervals = localEnergyData.getIntervals();
+        versionedLocalIntervals = localIntervals;
+        leaves.add(CombinedIntervals.leaf(localIntervals));
+        for (var kv : funcToIntervals.entrySet()) {
+            funcToLeaf.put(kv.getKey(), leaves.size());
+            leaves.add(CombinedIntervals.leaf(getPlannedIntervals(kv.getKey())));
+        }
+        intervalsTree = new CombinationTree<>(leaves, CombinedIntervals.EMPTY,
+                                              (c1, c2) -> CombinedIntervals.combine(c1, c2,
+                                                                                    maxRanges,
+                                                                                    maxGap));
+        ++intervalsVersion;
     }
     
     /**
      * Combine local intervals with ones got from remote services to
      * create a new interval. It should be sent to parent service.
+     * Only the combinations that depend on modified data are
+     * recomputed.
+     */
+    public synchronized IntervalSet combineIntervals() {
+        // bounded even if the root is a single leaf
+        return getRootIntervals().intervals.coalesce(maxRanges, maxGap);
+    }
+
+    private synchronized CombinedIntervals getRootIntervals() {
+        getLocalIntervals(); // up to date leaf
+        return intervalsTree.root();
+    }
+
+    /**
+     * @return the intervals of local data, whose changes update the
+     * tree of combinations, and whose material changes update the
+     * version of intervals.
+     */
+    private synchronized IntervalSet getLocalIntervals() {
+        if (localVersion != localEnergyData.getVersion()) {
+            localVersion = localEnergyData.getVersion();
+            var intervals = localEnergyData.getIntervals();
+            if (!intervals.equals(localIntervals)) {
+                localIntervals = intervals;
+                intervalsTree.set(0, CombinedIntervals.leaf(intervals));
+                if (isMaterialChange(versionedLocalIntervals, intervals)) {
+                    versionedLocalIntervals = intervals;
+                    ++intervalsVersion;
+                }
+            }
+        }
+        return localIntervals;
+    }
+
+    /**
+     * @return true if the number of ranges changed, or a bound moved
+     * by more than the quantum of cached objectives; by more than the
+     * error of local data if objectives are exact. Each request moves
+     * the average of its costs a bit, which must not drop every cached
+     * distribution.
+     */
+    private boolean isMaterialChange(IntervalSet previous, IntervalSet current) {
+        if (previous.size() != current.size())
+            return true;
+        double step = objectivesQuantum > 0. ? objectivesQuantum : localEnergyData.getMaxError();
+        for (int i = 0; i < current.size(); ++i)
+            if (Math.abs(current.lower(i) - previous.lower(i)) > step ||
+                Math.abs(current.upper(i) - previous.upper(i)) > step)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the version of intervals, after dropping cached
+     * distributions of objectives of previous versions.
      */
-    public TreeRangeSet<Double> combineIntervals() {        
-        var result = localEnergyData.getIntervals();
-        for (var interval : funcToIntervals.values())
-            result = _combination(result, interval);        
-        return result;
+    private synchronized long getIntervalsVersion() {
+        getLocalIntervals();
+        if (objectivesCacheVersion != intervalsVersion) {
+            objectivesCache.invalidateAll();
+            objectivesCacheVersion = intervalsVersion;
+        }
+        return intervalsVersion;
+    }
+
+    private synchronized void cacheObjectives(ObjectiveKey key, long version,
+                                              TreeMap<String, Double> objectives) {
+        if (version == intervalsVersion) // not computed on outdated intervals
+            objectivesCache.put(key, new TreeMap<>(objectives));
     }
     
-    public TreeRangeSet<Double> getIntervals() { // alias of combine
+    public IntervalSet getIntervals() { // alias of combine
         return combineIntervals();
     }
-    
+
+    /**
+     * Adapter of IntervalSet.sum for guava's range sets.
+     */
     public static TreeRangeSet<Double> _combination(RangeSet<Double> i1,
                                                     RangeSet<Double> i2) {
-        TreeRangeSet<Double> result = TreeRangeSet.create();
-        // #A quick defaults
-        if (i1.isEmpty() && i2.isEmpty())
-            return result; // empty
-        if (i1.isEmpty()) {
-            result.addAll(i2);
-            return result;
-        }
-        if (i2.isEmpty()) {
-            result.addAll(i1);
-            return result;
-        }
+        return _combination(i1, i2, Integer.MAX_VALUE, 0.);
+    }
 
-        // #B otherwise, all combinations       
-        // /!\ may be expensive without range factorization, i.e., it
-        // has a quadratic complexity
-        for (Range<Double> r1 : i1.asRanges()) {
-            for (Range<Double> r2 : i2.asRanges()) {
-                result.add(Range.closed(r1.lowerEndpoint() + r2.lowerEndpoint(),
-                                        r1.upperEndpoint() + r2.upperEndpoint()));
-            }
-        }   
-        return result;
+    public static TreeRangeSet<Double> _combination(RangeSet<Double> i1,
+                                                    RangeSet<Double> i2,
+                                                    int maxRanges,
+                                                    double maxGap) {
+        return IntervalSet.fromRangeSet(i1)
+            .sum(IntervalSet.fromRangeSet(i2), maxRanges, maxGap)
+            .toRangeSet();
     }
 
     /**
@@ -192,7 +572,92 @@ public class EnergyAwareness {
      * @return a map of service_name to its assignated objective.
      **/
     public TreeMap<String, Double> getObjectives(double objective, boolean withoutMe) {
-	var localIntervals = localEnergyData.getIntervals();
+        var event = new GetObjectivesEvent();
+        event.begin();
+        var objectives = Objects.isNull(objectivesCache) || objective <= 0 ?
+            distributeObjective(objective, withoutMe, event) :
+            getCachedObjectives(objective, withoutMe, event);
+        event.end();
+        if (event.shouldCommit()) {
+            event.objective = objective;
+            event.withoutMe = withoutMe;
+            event.nbRemotes = funcToIntervals.size();
+            event.objectives = objectives.toString();
+            event.commit();
+        }
+        return objectives;
+    }
+
+    /**
+     * @return the distribution of the objective rounded down to the
+     * quantum, computed once per version of intervals. Never up, the
+     * objective being an upper bound.
+     */
+    private TreeMap<String, Double> getCachedObjectives(double objective, boolean withoutMe,
+                                                        GetObjectivesEvent event) {
+        double quantized = objectivesQuantum > 0. ?
+            Math.floor(objective / objectivesQuantum) * objectivesQuantum : objective;
+        if (quantized <= 0.)
+            quantized = objective; // below a quantum
+        long version = getIntervalsVersion();
+        var key = new ObjectiveKey(quantized, withoutMe);
+        var cached = objectivesCache.getIfPresent(key);
+        meterRegistry.counter("box.energy.objectives.cache",
+                              "hit", String.valueOf(Objects.nonNull(cached))).increment();
+        if (Objects.nonNull(cached)) {
+            event.method = "cached";
+            return new TreeMap<>(cached);
+        }
+
+        var objectives = distributeObjective(quantized, withoutMe, event);
+        // approximations are not kept, time may allow better ones
+        if (!event.method.equals("greedy") && !event.method.equals("last"))
+            cacheObjectives(key, version, objectives);
+        return objectives;
+    }
+
+    /**
+     * Distribution of an objective, immutable so requests may read it
+     * while another one replaces it.
+     */
+    private static final class Plan {
+        final double objective;
+        final SortedMap<String, Double> objectives;
+
+        Plan(double objective, TreeMap<String, Double> objectives) {
+            this.objective = objective;
+            this.objectives = Collections.unmodifiableSortedMap(new TreeMap<>(objectives));
+        }
+    }
+
+    private static final class ObjectiveKey {
+        final double objective;
+        final boolean withoutMe;
+
+        ObjectiveKey(double objective, boolean withoutMe) {
+            this.objective = objective;
+            this.withoutMe = withoutMe;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ObjectiveKey &&
+                ((ObjectiveKey) o).objective == objective &&
+                ((ObjectiveKey) o).withoutMe == withoutMe;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Double.hashCode(objective) + Boolean.hashCode(withoutMe);
+        }
+    }
+
+    /**
+     * @param event the event to report the method used to.
+     */
+    private TreeMap<String, Double> distributeObjective(double objective, boolean withoutMe,
+                                                        GetObjectivesEvent event) {
+	var localIntervals = getLocalIntervals();
 
 	// #A objective is not set or,
 	// we don't even have our own energy data, how could we have others ?
@@ -201,42 +666,122 @@ public class EnergyAwareness {
 	    defaultResult.put(name, -1.);
 	    for (var func : funcToIntervals.keySet())
 		defaultResult.put(func, -1.);	    
+            event.method = "default";
             return defaultResult;
 	}
 	
+	if (isProvenanceEnabled && !withoutMe) {
+	    event.method = "provenance";
+	    return getObjectivesByProvenance(objective);
+	}
+
 	// #B Otherwiiiiiiiiise, process objectives of children and self.
+        var startSolving = System.nanoTime();
         double ratio = (double) maxObjective / objective; // (TODO) configurable scaling
         var groupToFunc = new TreeMap<Integer, String>();
-        var mckpElements = new ArrayList<MCKPElement>();
+	var funcToIntervalsCopy = copyIntervals(withoutMe, localIntervals);
+        var mckpElements = toElements(funcToIntervalsCopy, ratio, groupToFunc);
+
+
+
+        // #1 out of time already, last plan scaled to this objective
+        var plan = lastPlan;
+        if (isOverBudget(startSolving) && !Objects.isNull(plan)) {
+            RequestLog.log(logger, "Out of time budget, reusing the last distribution of objectives.");
+            var scaled = new TreeMap<String, Double>();
+            for (var func : funcToIntervalsCopy.keySet()) {
+                var previous = plan.objectives.getOrDefault(func, -1.);
+                scaled.put(func, previous < 0 ? -1. : previous * objective / plan.objective);
+            }
+            event.method = "last";
+            return scaled;
+        }
+
+        // #2 approximate solution with bounded error
+        ArrayList<MCKPElement> solution = null;
+        var greedy = new MCKPGreedy(new ArrayList<>(mckpElements));
+        if (solverTimeBudget > 0)
+            solution = greedy.solve(maxObjective);
 
-	// format the data to go through mckp solver
-	var funcToIntervalsCopy = new TreeMap<String, TreeRangeSet<Double>>(funcToIntervals);
+        // #3 exact solution if time allows. Improve fairness by
+        // looking at other solutions.
+        // (TODO) improve complexity by examining different solutions only
+        var solveWithObjective = maxObjective + (int) (maxObjective * fairnessFactor);
+        var mckp = new MCKP(solveWithObjective, mckpElements); // (TODO) cache mckp
+        var untilObjective = maxObjective - (int) (maxObjective * fairnessFactor);
+        var remaining = solverTimeBudget - (System.nanoTime() - startSolving);
+        boolean exact = solverTimeBudget <= 0 ||
+            ((greedy.getErrorBound() > 0 || fairnessFactor > 0) &&
+             remaining > 0 && mckp.process(remaining));
+        if (!exact && greedy.getErrorBound() > 0)
+            RequestLog.log(logger, "Out of time budget, approximate distribution at most {} off.",
+                           greedy.getErrorBound() / ratio);
+        if (exact)
+            solution = fairestSolution(mckp, solveWithObjective, untilObjective, startSolving);
+        event.method = exact ? "exact" : "greedy";
+        meterRegistry.timer("box.energy.mckp", "exact", String.valueOf(exact))
+            .record(System.nanoTime() - startSolving, TimeUnit.NANOSECONDS);
+
+	var objectives = toObjectives(objective, solution, ratio, groupToFunc,
+                                      funcToIntervalsCopy);
+	if (!solution.isEmpty() && objective > 0)
+	    lastPlan = new Plan(objective, objectives);
+	return objectives;
+    }
+
+    /**
+     * @return the intervals of remotes, empty for excluded ones, and
+     * of this box unless it is left out, i.e., the groups of the
+     * knapsack.
+     */
+    private synchronized TreeMap<String, IntervalSet> copyIntervals(boolean withoutMe,
+                                                                    IntervalSet localIntervals) {
+	var funcToIntervalsCopy = new TreeMap<String, IntervalSet>(funcToIntervals);
+	for (var func : excluded)
+	    funcToIntervalsCopy.put(func, IntervalSet.EMPTY);
 	if (withoutMe)
-	    funcToIntervalsCopy.put(name, TreeRangeSet.create());
+	    funcToIntervalsCopy.put(name, IntervalSet.EMPTY);
 	else
 	    funcToIntervalsCopy.put(name, localIntervals);
+        return funcToIntervalsCopy;
+    }
 
+    /**
+     * Formats the data to go through the mckp solver: one group per
+     * function, one element per range, weighted by its scaled lower
+     * bound.
+     * @param groupToFunc filled with the function of each group.
+     */
+    private static ArrayList<MCKPElement> toElements(TreeMap<String, IntervalSet> funcToIntervals,
+                                                     double ratio,
+                                                     TreeMap<Integer, String> groupToFunc) {
+        var mckpElements = new ArrayList<MCKPElement>();
 	int groupIndex = 0;
-        for (Map.Entry<String, TreeRangeSet<Double>> kv : funcToIntervalsCopy.entrySet()) {
-            for (var intervals : kv.getValue().asRanges())
-                mckpElements.add(new MCKPElement((int)(intervals.lowerEndpoint()*ratio),
-                                                 (int)(intervals.lowerEndpoint()*ratio),
+        for (Map.Entry<String, IntervalSet> kv : funcToIntervals.entrySet()) {
+            var intervals = kv.getValue();
+            for (int i = 0; i < intervals.size(); ++i)
+                mckpElements.add(new MCKPElement((int)(intervals.lower(i)*ratio),
+                                                 (int)(intervals.lower(i)*ratio),
                                                  groupIndex));
             groupToFunc.put(groupIndex, kv.getKey());
             ++groupIndex;
         }
+        return mckpElements;
+    }
 
-
-
-        // improve fairness by looking at other solutions
+    /**
+     * Improves fairness by looking at solutions of objectives from
+     * solveWithObjective down to untilObjective, while time allows.
+     * @return the solution whose weights deviate the least.
+     */
+    private ArrayList<MCKPElement> fairestSolution(MCKP mckp, int solveWithObjective,
+                                                   int untilObjective, long startSolving) {
         // (TODO) improve complexity by examining different solutions only
-        var solveWithObjective = maxObjective + (int) (maxObjective * fairnessFactor);
-        var mckp = new MCKP(solveWithObjective, mckpElements); // (TODO) cache mckp
-        var untilObjective = maxObjective - (int) (maxObjective * fairnessFactor);
-        ArrayList<MCKPElement> examineSolution = null, solution = null;
+        ArrayList<MCKPElement> solution = null;
         var minStdDev = Double.POSITIVE_INFINITY;
-        while (solveWithObjective >= untilObjective) {
-            examineSolution = mckp.solve(solveWithObjective);
+        while (solveWithObjective >= untilObjective &&
+               (Objects.isNull(solution) || !isOverBudget(startSolving))) {
+            var examineSolution = mckp.solve(solveWithObjective);
             solveWithObjective -= 1;
 
             double meanSolution = 0.;
@@ -255,33 +800,103 @@ public class EnergyAwareness {
                 minStdDev = stdDev;
                 solution = examineSolution;
             }
-        }                     
+        }
+        return solution;
+    }
 
+    /**
+     * @return the objective of each function, within the range of the
+     * element chosen for its group; -1 for functions without data.
+     */
+    private static TreeMap<String, Double> toObjectives(double objective,
+                                                        ArrayList<MCKPElement> solution,
+                                                        double ratio,
+                                                        TreeMap<Integer, String> groupToFunc,
+                                                        TreeMap<String, IntervalSet> funcToIntervals) {
         var funcToInterval = new TreeMap<String, Range>();
         for (int i = 0; i < solution.size(); ++i) {
             double value = solution.get(i).weight / ratio;
             String func = groupToFunc.get(solution.get(i).group);
-            TreeRangeSet<Double> interval = funcToIntervalsCopy.get(func);
-	    
-            double distance = Double.MAX_VALUE;
-            Range<Double> closestRange = null;
-            for (Range<Double> range : interval.asRanges()) {
-                if (distance > Math.abs(range.lowerEndpoint() - value)) {
-                    distance = Math.abs(range.lowerEndpoint() - value);
-                    closestRange = range;
-                }
-            }
-	    
-            funcToInterval.put(func, closestRange);
+            IntervalSet interval = funcToIntervals.get(func);
+            int closest = interval.closestLower(value);
+            funcToInterval.put(func, Range.closed(interval.lower(closest),
+                                                  interval.upper(closest)));
         }
 	
 	var objectives = getObjectivesFromInterval(objective, funcToInterval);
 
-	for (var func : funcToIntervalsCopy.keySet()) // fill gaps of missing data
+	for (var func : funcToIntervals.keySet()) // fill gaps of missing data
 	    if (!objectives.containsKey(func))
 		objectives.put(func, -1.);
-	
-	return objectives;
+        return objectives;
+    }
+
+    private boolean isOverBudget(long start) {
+        return solverTimeBudget > 0 && System.nanoTime() - start > solverTimeBudget;
+    }
+
+    /**
+     * Get the objectives of ourself and remote services by walking
+     * back the combination of intervals from the root: the objective
+     * is split between the ranges of children that produced the
+     * closest combined range at or below it, in O(depth x log ranges).
+     * Like the knapsack, children never get more than the objective,
+     * and all get -1 when even the cheapest combination exceeds it.
+     * @param objective: the objective to divide.
+     * @return a map of service_name to its assignated objective.
+     */
+    public synchronized TreeMap<String, Double> getObjectivesByProvenance(double objective) {
+        var objectives = new TreeMap<String, Double>();
+        objectives.put(name, -1.);
+        for (var func : funcToIntervals.keySet())
+            objectives.put(func, -1.);
+
+        var root = getRootIntervals();
+        int rootRange = objective < 0 ? -1 : root.intervals.floor(objective);
+        if (rootRange < 0) // nothing known, or nothing fits
+            return objectives;
+
+        var leafToFunc = new TreeMap<Integer, String>();
+        leafToFunc.put(0, name);
+        for (var kv : funcToLeaf.entrySet())
+            leafToFunc.put(kv.getValue(), kv.getKey());
+
+        // depth-first walk of (node, range, value)
+        var nodes = new ArrayList<Integer>();
+        var ranges = new ArrayList<Integer>();
+        var values = new ArrayList<Double>();
+        nodes.add(CombinationTree.ROOT);
+        ranges.add(rootRange);
+        values.add(objective);
+        while (!nodes.isEmpty()) {
+            int node = nodes.remove(nodes.size() - 1);
+            int range = ranges.remove(ranges.size() - 1);
+            double value = values.remove(values.size() - 1);
+            var combined = intervalsTree.node(node);
+
+            if (intervalsTree.isLeaf(node)) {
+                var intervals = combined.intervals;
+                objectives.put(leafToFunc.get(intervalsTree.leafIndex(node)),
+                               Math.max(intervals.lower(range),
+                                        Math.min(intervals.upper(range), value)));
+            } else if (combined == intervalsTree.node(2 * node) ||
+                       combined == intervalsTree.node(2 * node + 1)) {
+                // the other child is empty, nothing to split
+                nodes.add(combined == intervalsTree.node(2 * node) ? 2 * node : 2 * node + 1);
+                ranges.add(range);
+                values.add(value);
+            } else {
+                var split = combined.split(range, value);
+                if (split.leftRange >= 0) {
+                    nodes.add(2 * node); ranges.add(split.leftRange); values.add(split.leftValue);
+                }
+                if (split.rightRange >= 0) {
+                    nodes.add(2 * node + 1); ranges.add(split.rightRange); values.add(split.rightValue);
+                }
+            }
+        }
+
+        return objectives;
     }
 
     /**
@@ -0,0 +1,97 @@
+package fr.sigma.energy;
+
+import java.util.function.LongSupplier;
+
+
+
+/**
+ * Caps the aggregate cost of a box over time, whatever the objectives
+ * of its requests. A token bucket fills at the allowed rate up to a
+ * burst, and every measured cost drains it. The fuller the bucket,
+ * the closer to their objective requests run: a full bucket keeps
+ * objectives as they are, an empty one lowers them to 0, i.e., to
+ * the cheapest known arguments. Under a spike, objectives tighten
+ * until the consumption of the box matches the rate; they relax as
+ * the bucket refills.
+ *
+ * Shared by all endpoints of a box, their costs being in the same
+ * unit.
+ */
+public class EnergyBudget {
+
+    private final double rate; // cost per second
+    private final double burst; // capacity of the bucket
+    private final LongSupplier clock; // ns
+
+    private double tokens;
+    private long lastRefill;
+    private double consumed = 0.; // in total, for monitoring
+
+    /**
+     * @param rate the cost allowed per second, e.g., watts when costs
+     * are joules.
+     * @param burst the cost allowed at once above the rate, at least
+     * the cost of a request.
+     */
+    public EnergyBudget (double rate, double burst) {
+        this(rate, burst, System::nanoTime);
+    }
+
+    EnergyBudget (double rate, double burst, LongSupplier clock) {
+        if (rate <= 0. || burst <= 0.)
+            throw new IllegalArgumentException("Rate and burst of energy budget must be positive.");
+        this.rate = rate;
+        this.burst = burst;
+        this.clock = clock;
+        this.tokens = burst; // starts full
+        this.lastRefill = clock.getAsLong();
+    }
+
+    public double getRate () { return rate; }
+    public double getBurst () { return burst; }
+
+    private void refill () {
+        long now = clock.getAsLong();
+        tokens = Math.min(burst, tokens + rate * (now - lastRefill) / 1e9);
+        lastRefill = now;
+    }
+
+    /**
+     * @param cost the cost measured for a request, drained from the
+     * bucket. It may go in debt, repaid before objectives relax.
+     */
+    public synchronized void consume (double cost) {
+        refill();
+        tokens -= Math.max(0., cost);
+        consumed += Math.max(0., cost);
+    }
+
+    /**
+     * @return the tokens left in the bucket, negative when in debt.
+     */
+    public synchronized double getTokens () {
+        refill();
+        return tokens;
+    }
+
+    public synchronized double getConsumed () { return consumed; }
+
+    /**
+     * @return the factor applied to objectives, between 0 for an empty
+     * bucket and 1 for a full one.
+     */
+    public synchronized double getFactor () {
+        refill();
+        return Math.max(0., Math.min(1., tokens / burst));
+    }
+
+    /**
+     * @param objective the objective of a request, -1 if none.
+     * @return the objective the box can afford; requests without
+     * objective are left as they are.
+     */
+    public double adjust (double objective) {
+        return objective < 0 ? objective : objective * getFactor();
+    }
+
+}
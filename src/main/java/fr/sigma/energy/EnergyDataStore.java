@@ -0,0 +1,281 @@
+package fr.sigma.energy;
+
+import fr.sigma.structures.Pair;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * Keeps the costs learned by a box across restarts. A snapshot of
+ * local data is written periodically through a memory-mapped file,
+ * and every cost measured in between is appended to a journal.
+ * Restoring loads the snapshot then replays the journal.
+ *
+ * Snapshot: magic, format, generation, |entries|, then per entry
+ * |args|, args, |costs|, costs; and a crc32 of all that.
+ * Journal: magic, generation, then records of length, crc32, |args|,
+ * args, cost. A journal whose generation differs from the snapshot
+ * one is already included in the snapshot.
+ */
+public class EnergyDataStore implements Closeable {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int SNAPSHOT_MAGIC = 0x57425331; // WBS1
+    private static final int JOURNAL_MAGIC = 0x57424A31; // WBJ1
+    private static final int FORMAT = 1;
+    private static final int SNAPSHOT_HEADER = 4 + 4 + 8 + 4;
+    private static final int JOURNAL_HEADER = 4 + 8;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private FileChannel journal = null; // opened by restore
+    private long generation = 0;
+    private long appended = 0; // records since the last snapshot
+    private boolean isClosed = false;
+
+    /**
+     * @param directory the directory of files, created if needed.
+     * @param name the name of the box, prefix of files.
+     */
+    public EnergyDataStore (Path directory, String name) throws IOException {
+        Files.createDirectories(directory);
+        snapshotPath = directory.resolve(name + ".snapshot");
+        journalPath = directory.resolve(name + ".journal");
+    }
+
+    public Path getSnapshotPath () { return snapshotPath; }
+    public Path getJournalPath () { return journalPath; }
+
+    /**
+     * Loads the last snapshot then replays the journal into local
+     * data, and counts restored costs as tries of their arguments.
+     * Must be called once before appending.
+     * @param data the local data to fill, usually empty.
+     * @param filter the filter of arguments to warm up, may be null.
+     * @return the number of costs restored.
+     */
+    public synchronized int restore (LocalEnergyData data, ArgsFilter filter) throws IOException {
+        int restored = 0;
+        long journalGeneration = -1;
+        long validLength = 0;
+
+        // #A snapshot, whole or nothing
+        if (Files.exists(snapshotPath)) {
+            try (var channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                var entries = readSnapshot(buffer);
+                if (Objects.isNull(entries))
+                    logger.warn("Ignoring corrupted energy snapshot {}.", snapshotPath);
+                else
+                    for (var entry : entries)
+                        for (double cost : entry.second) {
+                            data._add(entry.first, cost);
+                            if (Objects.nonNull(filter))
+                                filter.tryArgs(entry.first);
+                            ++restored;
+                        }
+            }
+        }
+
+        // #B journal of the same generation, up to its first torn record
+        if (Files.exists(journalPath)) {
+            try (var channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() >= JOURNAL_HEADER && buffer.getInt() == JOURNAL_MAGIC)
+                    journalGeneration = buffer.getLong();
+                if (journalGeneration == generation) {
+                    Pair<Double[], Double> record;
+                    while ((record = readRecord(buffer)) != null) {
+                        data.addEnergyData(record.first, record.second);
+                        if (Objects.nonNull(filter))
+                            filter.tryArgs(record.first);
+                        ++restored;
+                        ++appended;
+                    }
+                    validLength = buffer.position();
+                }
+            }
+        }
+
+        // #C keep appending to the journal, or start a new one
+        if (journalGeneration == generation) {
+            journal = FileChannel.open(journalPath, StandardOpenOption.WRITE);
+            journal.truncate(validLength);
+            journal.position(validLength);
+        } else
+            resetJournal();
+        logger.info("Restored {} energy costs from {} (generation {}).",
+                    restored, snapshotPath.getParent(), generation);
+        return restored;
+    }
+
+    /**
+     * Appends a measured cost to the journal. Not forced to disk: it
+     * survives a crash of the box but not one of the system. Costs
+     * appended once closed are dropped.
+     */
+    public synchronized void append (Double[] args, double cost) throws IOException {
+        if (isClosed)
+            return;
+        if (Objects.isNull(journal))
+            throw new IllegalStateException("Energy data store must be restored first.");
+        int payload = 4 + 8 * args.length + 8;
+        var buffer = ByteBuffer.allocate(4 + 4 + payload);
+        buffer.putInt(payload).putInt(0).putInt(args.length);
+        for (Double arg : args)
+            buffer.putDouble(arg);
+        buffer.putDouble(cost);
+        buffer.putInt(4, crc(buffer, 8, payload));
+        buffer.flip();
+        while (buffer.hasRemaining())
+            journal.write(buffer);
+        ++appended;
+    }
+
+    /**
+     * Writes local data to a new snapshot, then starts a new journal.
+     * Local data must be updated before the journal so a concurrent
+     * cost is never lost, at worst counted twice.
+     * @return true if a snapshot was written, false if nothing
+     * changed since the last one, or if closed.
+     */
+    public synchronized boolean snapshot (LocalEnergyData data) throws IOException {
+        if (isClosed || (appended == 0 && Files.exists(snapshotPath)))
+            return false;
+        var entries = data.getEntries();
+
+        int size = SNAPSHOT_HEADER + 4;
+        for (var entry : entries)
+            size += 4 + 8 * entry.first.length + 4 + 8 * entry.second.size();
+
+        // #A write aside then rename, a crash never leaves half a snapshot
+        var tmpPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(FORMAT).putLong(generation + 1)
+                .putInt(entries.size());
+            for (var entry : entries) {
+                buffer.putInt(entry.first.length);
+                for (Double arg : entry.first)
+                    buffer.putDouble(arg);
+                buffer.putInt(entry.second.size());
+                for (Double cost : entry.second)
+                    buffer.putDouble(cost);
+            }
+            buffer.putInt(crc(buffer, 0, size - 4));
+            buffer.force();
+        }
+        Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+
+        // #B the previous journal is part of the snapshot now
+        ++generation;
+        resetJournal();
+        logger.debug("Snapshot {} of {} arguments written to {}.",
+                     generation, entries.size(), snapshotPath);
+        return true;
+    }
+
+    @Override
+    public synchronized void close () throws IOException {
+        if (Objects.nonNull(journal))
+            journal.close();
+        journal = null;
+        isClosed = true;
+    }
+
+
+
+    private void resetJournal () throws IOException {
+        if (Objects.nonNull(journal))
+            journal.close();
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        var header = ByteBuffer.allocate(JOURNAL_HEADER);
+        header.putInt(JOURNAL_MAGIC).putLong(generation).flip();
+        while (header.hasRemaining())
+            journal.write(header);
+        journal.force(false);
+        appended = 0;
+    }
+
+    /**
+     * @return the entries of the snapshot, and sets its generation;
+     * null if the snapshot is corrupted.
+     */
+    private ArrayList<Pair<Double[], ArrayList<Double>>> readSnapshot (ByteBuffer buffer) {
+        int size = buffer.remaining();
+        if (size < SNAPSHOT_HEADER + 4 ||
+            buffer.getInt(size - 4) != crc(buffer, 0, size - 4) ||
+            buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != FORMAT)
+            return null;
+        long snapshotGeneration = buffer.getLong();
+        int nbEntries = buffer.getInt();
+        var entries = new ArrayList<Pair<Double[], ArrayList<Double>>>(nbEntries);
+        for (int i = 0; i < nbEntries; ++i) {
+            var args = new Double[buffer.getInt()];
+            for (int j = 0; j < args.length; ++j)
+                args[j] = buffer.getDouble();
+            int nbCosts = buffer.getInt();
+            var costs = new ArrayList<Double>(nbCosts);
+            for (int j = 0; j < nbCosts; ++j)
+                costs.add(buffer.getDouble());
+            entries.add(new Pair<>(args, costs));
+        }
+        generation = snapshotGeneration;
+        return entries;
+    }
+
+    /**
+     * @return the next record of the journal, or null at its end or
+     * at its first torn or corrupted record; then the position of the
+     * buffer stays at the end of the last valid record.
+     */
+    private static Pair<Double[], Double> readRecord (ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < 4 + 4 + 4)
+            return null;
+        int payload = buffer.getInt();
+        int crc = buffer.getInt();
+        if (payload < 4 + 8 || payload > buffer.remaining() ||
+            crc != crc(buffer, buffer.position(), payload)) {
+            buffer.position(start);
+            return null;
+        }
+        int nbArgs = buffer.getInt();
+        if (payload != 4 + 8 * nbArgs + 8) {
+            buffer.position(start);
+            return null;
+        }
+        var args = new Double[nbArgs];
+        for (int j = 0; j < nbArgs; ++j)
+            args[j] = buffer.getDouble();
+        return new Pair<>(args, buffer.getDouble());
+    }
+
+    private static int crc (ByteBuffer buffer, int offset, int length) {
+        var crc = new CRC32();
+        crc.update(buffer.duplicate().position(offset).limit(offset + length));
+        return (int) crc.getValue();
+    }
+
+}
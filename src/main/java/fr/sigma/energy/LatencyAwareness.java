@@ -0,0 +1,201 @@
+package fr.sigma.energy;
+
+import fr.sigma.logging.RequestLog;
+import fr.sigma.structures.IntervalSet;
+import fr.sigma.structures.Pair;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * Latency counterpart of energy awareness. Durations do not add up
+ * as costs do: remote calls start at a fraction of the local run and
+ * run in parallel, so the latency of a box and its remotes is the
+ * latest of its own end and of the ends of its calls, i.e., its
+ * critical path max(x, offset_1*x + y_1, …, offset_n*x + y_n) for a
+ * local duration x and remote latencies y_i.
+ *
+ * A deadline is split by picking the longest local arguments that
+ * leave every remote enough time to run its fastest, each remote
+ * getting what remains after its call starts.
+ */
+public class LatencyAwareness {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    // durations (ms) per arguments, as costs in energy awareness
+    private final LocalEnergyData localLatencyData;
+    private final ArgsFilter argsFilter;
+    // latencies of remotes, and the fraction of the local run before calling them
+    private final TreeMap<String, IntervalSet> funcToIntervals = new TreeMap<>();
+    private final TreeMap<String, Double> funcToOffset = new TreeMap<>();
+    // unavailable remotes, not called hence off the critical path
+    private final TreeSet<String> excluded = new TreeSet<>();
+    // bounds the ranges sent to parents, ranges closer than maxGap merge
+    private int maxRanges = Integer.MAX_VALUE;
+    private double maxGap = 0.;
+
+    /**
+     * @param name the name of this box.
+     * @param address_time_list the remote calls and the percent of
+     * the local run before each.
+     */
+    public LatencyAwareness(String name, ArrayList<Pair<String, Integer>> address_time_list,
+                            int maxSizeOfLocalData, int nbDifferentInput,
+                            int thresholdFilter, double maxError) {
+        this.name = name;
+        localLatencyData = new LocalEnergyData(maxSizeOfLocalData, thresholdFilter, maxError);
+        argsFilter = new ArgsFilter(nbDifferentInput, thresholdFilter);
+        for (var address_time : address_time_list) {
+            funcToIntervals.put(address_time.first, IntervalSet.EMPTY);
+            funcToOffset.put(address_time.first,
+                             Math.max(0., Math.min(1., address_time.second / 100.)));
+        }
+    }
+
+    public LocalEnergyData getLocalLatencyData() { return localLatencyData; }
+
+    /**
+     * @param maxRanges the maximal number of ranges of combined
+     * intervals; smallest gaps are filled beyond.
+     * @param maxGap ranges closer than this gap are merged.
+     */
+    public void setRangesLimit(int maxRanges, double maxGap) {
+        this.maxRanges = maxRanges > 0 ? maxRanges : Integer.MAX_VALUE;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * @param args the arguments the box ran with.
+     * @param duration the duration of its local run in milliseconds,
+     * remote calls excluded.
+     */
+    public boolean addLatencyData(Double[] args, double duration) {
+        argsFilter.tryArgs(args);
+        return localLatencyData.addEnergyData(args, duration);
+    }
+
+    public synchronized void updateRemote(String func, IntervalSet latencies) {
+        if (funcToOffset.containsKey(func))
+            funcToIntervals.put(func, latencies);
+    }
+
+    /**
+     * @param func the remote.
+     * @param isAvailable false while it is not called, e.g., while its
+     * circuit is open.
+     */
+    public synchronized void setRemoteAvailable(String func, boolean isAvailable) {
+        if (isAvailable)
+            excluded.remove(func);
+        else if (funcToOffset.containsKey(func))
+            excluded.add(func);
+    }
+
+    /**
+     * @return the latencies of this box and its remotes, combined
+     * along the critical path. Without local data, the local run is
+     * considered instantaneous.
+     */
+    public synchronized IntervalSet combineIntervals() {
+        if (localLatencyData.size() == 0 && funcToIntervals.values().stream()
+            .allMatch(IntervalSet::isEmpty))
+            return IntervalSet.EMPTY; // nothing known yet
+        var localIntervals = localLatencyData.size() == 0 ?
+            IntervalSet.of(0., 0.) : localLatencyData.getIntervals();
+        var combined = IntervalSet.EMPTY;
+        for (int k = 0; k < localIntervals.size(); ++k) {
+            double lower = localIntervals.lower(k);
+            double upper = localIntervals.upper(k);
+            // remotes start later when the local run lasts longer
+            var path = IntervalSet.of(lower, upper);
+            for (var kv : funcToIntervals.entrySet()) {
+                if (excluded.contains(kv.getKey()))
+                    continue;
+                double offset = funcToOffset.get(kv.getKey());
+                var end = kv.getValue().sum(IntervalSet.of(offset * lower, offset * upper));
+                path = path.max(end, maxRanges, maxGap);
+            }
+            combined = combined.union(path);
+        }
+        return combined.coalesce(maxRanges, maxGap);
+    }
+
+    /**
+     * Process the new call to the function.
+     * @param deadline the time in milliseconds the box and its
+     * remotes have to answer, -1 if none.
+     * @param args the args that matter to the local function.
+     * @return a triple <deadlines of this box and remotes, args,
+     * whether args are rewritten>.
+     */
+    public synchronized Triple<TreeMap<String, Double>, Double[], Boolean>
+        newFunctionCall(double deadline, Double[] args) {
+        var deadlines = new TreeMap<String, Double>();
+        if (deadline < 0) { // default
+            deadlines.put(name, -1.);
+            for (var func : funcToOffset.keySet())
+                deadlines.put(func, -1.);
+            return new ImmutableTriple(deadlines, args, false);
+        }
+
+        // #A local duration, the longest that leaves time to remotes
+        Double[] solution = args;
+        double local = localLatencyData.getCost(args, 0.);
+        if (argsFilter.isTriedEnough(args)) {
+            Double[] longest = null;
+            Double[] fastest = null;
+            double longestDuration = Double.NEGATIVE_INFINITY;
+            double fastestDuration = Double.POSITIVE_INFINITY;
+            for (var entry : localLatencyData.getEntries()) {
+                double duration = entry.second.stream().mapToDouble(d -> d)
+                    .average().orElse(0.);
+                if (duration < fastestDuration) {
+                    fastestDuration = duration;
+                    fastest = entry.first;
+                }
+                if (duration > longestDuration && fits(duration, deadline)) {
+                    longestDuration = duration;
+                    longest = entry.first;
+                }
+            }
+            if (Objects.nonNull(fastest)) { // if none fits, as fast as possible
+                solution = Objects.isNull(longest) ? fastest : longest;
+                local = Objects.isNull(longest) ? fastestDuration : longestDuration;
+                RequestLog.log(logger, "Deadline of {} ms leaves {} ms to this box.",
+                               deadline, local);
+            }
+        }
+
+        // #B remotes get what remains after they are called
+        deadlines.put(name, local);
+        for (var kv : funcToOffset.entrySet())
+            deadlines.put(kv.getKey(), Math.max(0., deadline - kv.getValue() * local));
+        return new ImmutableTriple(deadlines, solution, solution != args);
+    }
+
+    /**
+     * @return true if a local run of this duration ends before the
+     * deadline and leaves every known remote time to run its fastest.
+     */
+    private boolean fits(double duration, double deadline) {
+        if (duration > deadline)
+            return false;
+        for (var kv : funcToIntervals.entrySet())
+            if (!kv.getValue().isEmpty() && !excluded.contains(kv.getKey()) &&
+                funcToOffset.get(kv.getKey()) * duration + kv.getValue().min() > deadline)
+                return false;
+        return true;
+    }
+
+}
@@ -1,6 +1,8 @@
 package fr.sigma.energy;
 
+import fr.sigma.jfr.AddEnergyDataEvent;
 import fr.sigma.structures.Pair;
+import fr.sigma.structures.IntervalSet;
 
 import java.util.Map;
 import java.util.TreeMap;
@@ -14,9 +16,6 @@ import java.util.stream.DoubleStream;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
 import smile.stat.distribution.KernelDensity;
 import smile.math.MathEx;
 import org.slf4j.Logger;
@@ -37,6 +36,8 @@ public class LocalEnergyData {
     private double maxError = 15.;
     private TreeMap<String, ArrayList<Double>> inputToCost;
     private TreeMap<String, Double[]> inputToArgs;
+    private long version = 0; // increases on each modification
+    private long evictions = 0; // arguments pruned so far
 
 
     public LocalEnergyData (int maxSize, int maxCosts) {
@@ -68,19 +69,35 @@ public class LocalEnergyData {
     }
 
     public int getMaxSize() { return maxSize; }
-    public int size() { return inputToCost.size(); }
+    public synchronized int size() { return inputToCost.size(); }
+    public long getVersion() { return version; }
+    public long getEvictions() { return evictions; }
+    public double getMaxError() { return maxError; }
 
-    public boolean exists (Double[] args) {
+    public synchronized boolean exists (Double[] args) {
         return inputToCost.containsKey(toKey(args));
     }
 
-    public double getCost(Double[] args) {
+    public synchronized double getCost(Double[] args) {
         String key = toKey(args);
         return inputToCost.get(key).stream()
             .mapToDouble(d->d).average().orElse(0.);
     }
+
+    /**
+     * Checks and reads at once, so an eviction cannot happen in
+     * between as with exists then getCost.
+     * @param args the arguments to look for.
+     * @param otherwise the cost when the arguments are unknown.
+     * @return the average cost of the arguments, or otherwise.
+     */
+    public synchronized double getCost(Double[] args, double otherwise) {
+        var costs = inputToCost.get(toKey(args));
+        return Objects.isNull(costs) ? otherwise :
+            costs.stream().mapToDouble(d->d).average().orElse(0.);
+    }
     
-    public ArrayList<Pair<String, Double>> getAvgCosts() {
+    public synchronized ArrayList<Pair<String, Double>> getAvgCosts() {
         var avgCosts = new ArrayList<Pair<String, Double>>();
         for (Map.Entry<String, ArrayList<Double>> ic: inputToCost.entrySet()) 
             avgCosts.add(new Pair(ic.getKey(),
@@ -89,12 +106,24 @@ public class LocalEnergyData {
         return avgCosts;
     }
 
-    public double[] getSortedAvgCosts() {
+    /**
+     * @return a copy of monitored data, i.e., the arguments kept and
+     * their last costs, consistent even while costs are added.
+     */
+    public synchronized ArrayList<Pair<Double[], ArrayList<Double>>> getEntries() {
+        var entries = new ArrayList<Pair<Double[], ArrayList<Double>>>();
+        for (Map.Entry<String, ArrayList<Double>> ic: inputToCost.entrySet())
+            entries.add(new Pair(inputToArgs.get(ic.getKey()).clone(),
+                                 new ArrayList<Double>(ic.getValue())));
+        return entries;
+    }
+
+    public synchronized double[] getSortedAvgCosts() {
         var avgCosts = getAvgCosts();
         return avgCosts.stream().mapToDouble(p -> p.second).sorted().toArray();
     }
 
-    public Double[] getClosest(double objective) {
+    public synchronized Double[] getClosest(double objective) {
 	var min = Double.POSITIVE_INFINITY;
 	String input = null;
 	for (Map.Entry<String, ArrayList<Double>> ic : inputToCost.entrySet()) {
@@ -112,23 +141,25 @@ public class LocalEnergyData {
     
 
     
-    public TreeRangeSet<Double> getIntervals() {
-        TreeRangeSet<Double> resultingIntervals = TreeRangeSet.create();
-        var costs = getAvgCosts();        
-        if (costs.size() == 1) 
-            resultingIntervals.add(Range.closed(costs.get(0).second, costs.get(0).second));
-        else
-            for (Pair<String, Double> cost : costs) 
-                resultingIntervals.add(Range.closed(Math.max(0., cost.second - maxError),
-                                                    Math.max(0.,cost.second + maxError)));        
-        return resultingIntervals;
+    public synchronized IntervalSet getIntervals() {
+        var costs = getSortedAvgCosts();
+        if (costs.length == 1) 
+            return IntervalSet.of(costs[0], costs[0]);
+        double[] lowers = new double[costs.length];
+        double[] uppers = new double[costs.length];
+        for (int i = 0; i < costs.length; ++i) {
+            lowers[i] = Math.max(0., costs[i] - maxError);
+            uppers[i] = Math.max(0., costs[i] + maxError);
+        }
+        return IntervalSet.of(lowers, uppers);
     }
     
 
 
-public boolean _add(Double[] inputs, Double cost) {
+public synchronized boolean _add(Double[] inputs, Double cost) {
         String newKey = toKey(inputs);
         boolean isNew = !inputToCost.containsKey(newKey);
+        ++version;
         if (isNew) {
             var costs = new ArrayList<Double>(); costs.add(cost);
             inputToCost.put(newKey, costs);
@@ -142,8 +173,10 @@ public boolean _add(Double[] inputs, Double cost) {
         return isNew;
     }
 
-    public void _rem(String key) {
+    public synchronized void _rem(String key) {
         if (inputToCost.containsKey(key)){
+            ++version;
+            ++evictions;
             inputToCost.remove(key);
             inputToArgs.remove(key);
         }
@@ -157,7 +190,24 @@ public boolean _add(Double[] inputs, Double cost) {
      * @param cost: the cost of the call with such arguments.
      * @returns true if the data has replaced another value, false otherwise.
      */
-    public boolean addEnergyData (Double[] argsAsArray, double cost) {
+    public synchronized boolean addEnergyData (Double[] argsAsArray, double cost) {
+        var event = new AddEnergyDataEvent();
+        event.begin();
+        long evictionsBefore = evictions;
+        boolean isKept = addAndPrune(argsAsArray, cost);
+        event.end();
+        if (event.shouldCommit()) {
+            event.args = Arrays.toString(argsAsArray);
+            event.cost = cost;
+            event.pruned = (int) (evictions - evictionsBefore);
+            event.isKept = exists(argsAsArray);
+            event.size = size();
+            event.commit();
+        }
+        return isKept;
+    }
+
+    private boolean addAndPrune (Double[] argsAsArray, double cost) {
         // #A if the key already exists, we only include the new value
         // to the sliding window of monitored values.
         boolean isNew = _add(argsAsArray, cost);        
@@ -0,0 +1,184 @@
+package fr.sigma.energy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+
+/**
+ * Energy in joules, read from the cumulative counters of powercap
+ * zones, e.g., intel-rapl:0/energy_uj. These counters measure the
+ * whole machine, so a request gets the cpu time of its thread times
+ * the energy per busy cpu time of all cpus in /proc/stat. Busy time
+ * advances in ticks of 10 ms, so this rate is averaged over a sliding
+ * window of requests rather than measured during each one: a request
+ * shorter than a tick would get the energy of the whole machine.
+ *
+ * Only top-level zones are summed, their subzones (core, dram…)
+ * being parts of them, and psys that includes the others. Counters
+ * wrap around at max_energy_range_uj.
+ */
+public class PowercapCostSource implements CostSource {
+
+    private static final double NANOS_PER_TICK = 1e9 / 100; // USER_HZ
+
+    private final Path[] energies; // energy_uj of zones
+    private final long[] ranges; // max_energy_range_uj of zones
+    private final Path procStat;
+    private final LongSupplier threadCpuTime; // ns
+    private final LongSupplier clock; // ns
+    private final long window; // ns
+
+    // cumulative {time, microjoules, busy ns, cpu ns of requests}, the
+    // first one being the last reading before the window
+    private final ArrayDeque<long[]> readings = new ArrayDeque<>();
+    private long[] lastEnergies;
+    private long microjoules = 0;
+    private long cpuOfRequests = 0;
+
+    /**
+     * @param powercap the directory of zones, e.g., /sys/class/powercap.
+     * @param procStat the statistics of cpus, e.g., /proc/stat.
+     */
+    public PowercapCostSource (Path powercap, Path procStat) throws IOException {
+        this(powercap, procStat, ManagementFactory.getThreadMXBean()::getCurrentThreadCpuTime,
+             System::nanoTime, 1000);
+    }
+
+    /**
+     * @param windowMillis the time over which the energy per busy cpu
+     * time is averaged, many ticks long.
+     */
+    PowercapCostSource (Path powercap, Path procStat, LongSupplier threadCpuTime,
+                        LongSupplier clock, long windowMillis) throws IOException {
+        var zones = new ArrayList<Path>();
+        try (Stream<Path> children = Files.list(powercap)) {
+            for (Path zone : children.sorted().collect(Collectors.toList())) {
+                var name = zone.getFileName().toString();
+                if (name.split(":").length == 2 && // not a subzone
+                    Files.isReadable(zone.resolve("energy_uj")) &&
+                    !readName(zone).equals("psys"))
+                    zones.add(zone);
+            }
+        }
+        if (zones.isEmpty())
+            throw new IOException(String.format("No readable powercap zone in %s.", powercap));
+        energies = new Path[zones.size()];
+        ranges = new long[zones.size()];
+        for (int i = 0; i < zones.size(); ++i) {
+            energies[i] = zones.get(i).resolve("energy_uj");
+            var range = zones.get(i).resolve("max_energy_range_uj");
+            ranges[i] = Files.isReadable(range) ? readLong(range) : Long.MAX_VALUE;
+        }
+        this.procStat = procStat;
+        this.threadCpuTime = threadCpuTime;
+        this.clock = clock;
+        this.window = windowMillis * 1_000_000;
+        lastEnergies = readEnergies();
+        // fails now rather than on each request
+        readings.add(new long[]{clock.getAsLong(), 0, readBusyTime(), 0});
+    }
+
+    private static String readName (Path zone) throws IOException {
+        var name = zone.resolve("name");
+        return Files.isReadable(name) ? Files.readString(name).trim() : "";
+    }
+
+    private static long readLong (Path file) throws IOException {
+        return Long.parseLong(Files.readString(file).trim());
+    }
+
+    private long[] readEnergies () {
+        try {
+            long[] values = new long[energies.length];
+            for (int i = 0; i < energies.length; ++i)
+                values[i] = readLong(energies[i]);
+            return values;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the time all cpus spent busy, i.e., neither idle nor
+     * waiting for io, in nanoseconds.
+     */
+    long readBusyTime () {
+        try (Stream<String> lines = Files.lines(procStat)) {
+            // cpu user nice system idle iowait irq softirq steal …
+            var fields = lines.filter(line -> line.startsWith("cpu "))
+                .findFirst().orElseThrow(() -> new IOException("No cpu line in " + procStat))
+                .trim().split("\\s+");
+            long total = 0;
+            for (int i = 1; i < Math.min(fields.length, 9); ++i)
+                total += Long.parseLong(fields[i]);
+            long idle = Long.parseLong(fields[4]) + (fields.length > 5 ? Long.parseLong(fields[5]) : 0);
+            return (long) ((total - idle) * NANOS_PER_TICK);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the energy consumed between two readings of a counter,
+     * in microjoules, the counter having wrapped around at most once.
+     */
+    static long delta (long from, long to, long range) {
+        return to >= from ? to - from : range - from + to;
+    }
+
+    /**
+     * Reads counters at the end of a request, and forgets readings
+     * older than the window but the last one.
+     * @param cpu the cpu time of the request in nanoseconds.
+     * @return the energy per busy nanosecond over the window, in joules.
+     */
+    private synchronized double record (long cpu) {
+        long[] endEnergies = readEnergies();
+        for (int i = 0; i < energies.length; ++i)
+            microjoules += delta(lastEnergies[i], endEnergies[i], ranges[i]);
+        lastEnergies = endEnergies;
+        cpuOfRequests += Math.max(0, cpu);
+        long now = clock.getAsLong();
+        var reading = new long[]{now, microjoules, readBusyTime(), cpuOfRequests};
+        readings.addLast(reading);
+        while (readings.size() > 2) {
+            var first = readings.pollFirst();
+            if (now - readings.peekFirst()[0] < window) {
+                readings.addFirst(first);
+                break;
+            }
+        }
+
+        var oldest = readings.peekFirst();
+        long energy = reading[1] - oldest[1];
+        long busy = reading[2] - oldest[2];
+        long cpuOfWindow = reading[3] - oldest[3];
+        // busy time is counted in ticks, it may lag behind threads
+        return cpuOfWindow <= 0 ? 0. : energy / 1e6 / Math.max(busy, cpuOfWindow);
+    }
+
+    @Override
+    public Meter start () {
+        long startCpu = threadCpuTime.getAsLong();
+        return () -> {
+            long cpu = threadCpuTime.getAsLong() - startCpu;
+            double perBusyNano = record(cpu);
+            return cpu <= 0 ? 0. : cpu * perBusyNano;
+        };
+    }
+
+    @Override
+    public String toString () {
+        return String.format("joules of %s powercap zones", energies.length);
+    }
+
+}
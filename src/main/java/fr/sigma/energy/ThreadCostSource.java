@@ -0,0 +1,59 @@
+package fr.sigma.energy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+
+
+/**
+ * Cpu time of the thread that handles the request, plus a weight of
+ * the bytes it allocates, i.e., the garbage it leaves for the
+ * collector. Waiting does not cost, so concurrent requests do not
+ * inflate each other's costs.
+ */
+public class ThreadCostSource implements CostSource {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final double allocationWeight; // ms per megabyte
+    private final com.sun.management.ThreadMXBean allocations; // null if unsupported
+
+    /**
+     * @param allocationWeight the cost in milliseconds of each
+     * allocated megabyte, 0 to count cpu time only.
+     */
+    public ThreadCostSource (double allocationWeight) {
+        this.allocationWeight = allocationWeight;
+        if (!THREADS.isThreadCpuTimeEnabled())
+            THREADS.setThreadCpuTimeEnabled(true);
+        var extended = THREADS instanceof com.sun.management.ThreadMXBean ?
+            (com.sun.management.ThreadMXBean) THREADS : null;
+        if (allocationWeight > 0 && extended != null && extended.isThreadAllocatedMemorySupported()) {
+            extended.setThreadAllocatedMemoryEnabled(true);
+            allocations = extended;
+        } else
+            allocations = null;
+    }
+
+    public static boolean isSupported () {
+        return THREADS.isCurrentThreadCpuTimeSupported();
+    }
+
+    @Override
+    public Meter start () {
+        long startCpu = THREADS.getCurrentThreadCpuTime();
+        if (allocations == null)
+            return () -> (THREADS.getCurrentThreadCpuTime() - startCpu) / 1e6;
+        long thread = Thread.currentThread().getId();
+        long startBytes = allocations.getThreadAllocatedBytes(thread);
+        return () -> (THREADS.getCurrentThreadCpuTime() - startCpu) / 1e6 +
+            allocationWeight * (allocations.getThreadAllocatedBytes(thread) - startBytes) / 1e6;
+    }
+
+    @Override
+    public String toString () {
+        return allocations == null ? "thread cpu time" :
+            String.format("thread cpu time + %s ms/MB allocated", allocationWeight);
+    }
+
+}
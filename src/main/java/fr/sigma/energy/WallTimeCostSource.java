@@ -0,0 +1,22 @@
+package fr.sigma.energy;
+
+
+
+/**
+ * Elapsed time. It includes waiting for the scheduler, locks and
+ * other requests, which inflates costs under high concurrency.
+ */
+public class WallTimeCostSource implements CostSource {
+
+    @Override
+    public Meter start () {
+        long start = System.nanoTime();
+        return () -> (System.nanoTime() - start) / 1e6;
+    }
+
+    @Override
+    public String toString () {
+        return "wall time";
+    }
+
+}
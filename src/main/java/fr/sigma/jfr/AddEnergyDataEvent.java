@@ -0,0 +1,37 @@
+package fr.sigma.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+
+/**
+ * Monitored cost of a call, and the local data it pruned.
+ */
+@Name("fr.sigma.AddEnergyData")
+@Label("Add Energy Data")
+@Category({"Working Box", "Energy"})
+@Description("Monitored cost of a call, and the local data it pruned")
+public class AddEnergyDataEvent extends Event {
+
+    @Label("Arguments")
+    public String args;
+
+    @Label("Cost")
+    public double cost;
+
+    @Label("Pruned")
+    @Description("Number of arguments removed from local data")
+    public int pruned;
+
+    @Label("Kept")
+    @Description("Arguments of this call are kept in local data")
+    public boolean isKept;
+
+    @Label("Size")
+    public int size;
+
+}
@@ -0,0 +1,36 @@
+package fr.sigma.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+
+/**
+ * Distribution of an objective between this box and remote ones.
+ */
+@Name("fr.sigma.GetObjectives")
+@Label("Get Objectives")
+@Category({"Working Box", "Energy"})
+@Description("Distribution of an objective between this box and remote ones")
+public class GetObjectivesEvent extends Event {
+
+    @Label("Objective")
+    public double objective;
+
+    @Label("Without Me")
+    public boolean withoutMe;
+
+    @Label("Remotes")
+    public int nbRemotes;
+
+    @Label("Method")
+    @Description("default, provenance, last, greedy, exact, or cached")
+    public String method;
+
+    @Label("Objectives")
+    public String objectives;
+
+}
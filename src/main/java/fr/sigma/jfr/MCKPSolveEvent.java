@@ -0,0 +1,37 @@
+package fr.sigma.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+
+/**
+ * Filling of the dynamic programming table of the knapsack solver.
+ */
+@Name("fr.sigma.MCKPSolve")
+@Label("MCKP Solve")
+@Category({"Working Box", "Energy"})
+@Description("Filling of the dynamic programming table of the knapsack solver")
+public class MCKPSolveEvent extends Event {
+
+    @Label("Elements")
+    public int nbElements;
+
+    @Label("Groups")
+    public int nbGroups;
+
+    @Label("Capacity")
+    public int maxObjective;
+
+    @Label("Table Size")
+    @Description("Number of cells of the table")
+    public long tableSize;
+
+    @Label("Completed")
+    @Description("False when the time budget ran out")
+    public boolean completed;
+
+}
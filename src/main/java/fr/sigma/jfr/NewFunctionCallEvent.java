@@ -0,0 +1,37 @@
+package fr.sigma.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+
+/**
+ * A call of the box handled by energy awareness, from its objective
+ * to the arguments chosen to meet it.
+ */
+@Name("fr.sigma.NewFunctionCall")
+@Label("New Function Call")
+@Category({"Working Box", "Energy"})
+@Description("Objective of a call and the arguments chosen to meet it")
+public class NewFunctionCallEvent extends Event {
+
+    @Label("Objective")
+    public double objective;
+
+    @Label("Arguments")
+    public String args;
+
+    @Label("Chosen Arguments")
+    public String solution;
+
+    @Label("Tried Enough")
+    @Description("Arguments seen often enough to be self-tuned")
+    public boolean isTriedEnough;
+
+    @Label("Rewritten")
+    public boolean isRewritten;
+
+}
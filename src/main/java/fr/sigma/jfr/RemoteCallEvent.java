@@ -0,0 +1,33 @@
+package fr.sigma.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+
+/**
+ * Call of a remote box, or poll of its energy intervals.
+ */
+@Name("fr.sigma.RemoteCall")
+@Label("Remote Call")
+@Category({"Working Box", "Remote"})
+public class RemoteCallEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Kind")
+    public String kind; // call or poll
+
+    @Label("Objective")
+    public double objective;
+
+    @Label("Progress")
+    public int progress;
+
+    @Label("Success")
+    public boolean success;
+
+}
@@ -0,0 +1,124 @@
+package fr.sigma.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+
+
+/**
+ * In-memory ring of the last events of a request. Events keep their
+ * pattern and arguments, and are formatted only when the ring is
+ * dumped, e.g., on errors or slow requests. Outside of a request,
+ * events are logged as usual.
+ */
+public class RequestLog {
+
+    private static final ThreadLocal<RequestLog> current = new ThreadLocal<>();
+
+    private final long start = System.nanoTime();
+    private final long[] times;
+    private final Logger[] loggers;
+    private final String[] patterns;
+    private final Object[][] arguments;
+    private long count = 0;
+    private boolean isDumped = false;
+
+    public RequestLog (int capacity) {
+        times = new long[capacity];
+        loggers = new Logger[capacity];
+        patterns = new String[capacity];
+        arguments = new Object[capacity][];
+    }
+
+    /**
+     * Starts the ring of the request handled by this thread.
+     * @param capacity the number of last events kept.
+     * @return the ring, to give to other threads working on the
+     * request; null if capacity is not positive.
+     */
+    public static RequestLog open (int capacity) {
+        var log = capacity > 0 ? new RequestLog(capacity) : null;
+        current.set(log);
+        return log;
+    }
+
+    /**
+     * @return the ring of the request handled by this thread, null if
+     * none.
+     */
+    public static RequestLog current () {
+        return current.get();
+    }
+
+    public static void close () {
+        current.remove();
+    }
+
+    /**
+     * Logs a parameterized event to the ring of this thread if any,
+     * or at info level otherwise.
+     * @param logger the logger of the emitting class.
+     * @param pattern the slf4j pattern, i.e., with {} placeholders.
+     * @param args the arguments of the pattern, arrays included.
+     */
+    public static void log (Logger logger, String pattern, Object... args) {
+        log(current.get(), logger, pattern, args);
+    }
+
+    public static void log (RequestLog log, Logger logger, String pattern, Object... args) {
+        if (Objects.isNull(log))
+            logger.info(pattern, args);
+        else {
+            log.add(logger, pattern, args);
+            if (logger.isDebugEnabled())
+                logger.debug(pattern, args);
+        }
+    }
+
+    public synchronized void add (Logger logger, String pattern, Object... args) {
+        int i = (int) (count % times.length);
+        times[i] = System.nanoTime();
+        loggers[i] = logger;
+        patterns[i] = pattern;
+        arguments[i] = args;
+        ++count;
+    }
+
+    public long elapsedMillis () {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Formats and logs the events of the ring, once per request.
+     * @param logger the logger of the dump.
+     * @param isWarning true to log at warn level, info otherwise.
+     * @param reason the reason of the dump, e.g., slow request.
+     * @return the logged message, null if already dumped.
+     */
+    public synchronized String dump (Logger logger, boolean isWarning, String reason) {
+        if (isDumped)
+            return null;
+        isDumped = true;
+        long first = Math.max(0, count - times.length);
+        var builder = new StringBuilder()
+            .append(String.format("%s after %s ms, last %s of %s events:",
+                                  reason, elapsedMillis(), count - first, count));
+        for (long k = first; k < count; ++k) {
+            int i = (int) (k % times.length);
+            builder.append(String.format("%n  +%s ms [%s] ",
+                                         TimeUnit.NANOSECONDS.toMillis(times[i] - start),
+                                         loggers[i].getName()))
+                .append(MessageFormatter.arrayFormat(patterns[i], arguments[i]).getMessage());
+        }
+        var message = builder.toString();
+        if (isWarning)
+            logger.warn(message);
+        else
+            logger.info(message);
+        return message;
+    }
+
+}
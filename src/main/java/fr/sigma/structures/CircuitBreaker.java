@@ -0,0 +1,133 @@
+package fr.sigma.structures;
+
+import java.util.function.LongSupplier;
+
+
+
+/**
+ * Circuit breaker of a remote, so a dead remote costs a timeout once
+ * rather than on each request. Closed, it counts failures over the
+ * last window calls; once the failure rate is reached, it opens and
+ * calls are skipped during a backoff. Then it is half-open: a single
+ * probe is let through, whose success closes it, and whose failure
+ * opens it again for twice the backoff, up to the maximal backoff.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final boolean[] failures; // ring of the last outcomes
+    private final int minCalls;
+    private final double failureRate;
+    private final long backoff; // ns
+    private final long maxBackoff; // ns
+    private final LongSupplier clock; // ns
+
+    private State state = State.CLOSED;
+    private int next = 0;
+    private int size = 0;
+    private int nbFailures = 0;
+    private long currentBackoff;
+    private long openedAt = 0;
+    private boolean isProbing = false;
+    private long probedAt = 0;
+
+    /**
+     * @param window the number of last outcomes considered.
+     * @param minCalls the number of outcomes below which the circuit
+     * stays closed, whatever the failures.
+     * @param failureRate the rate of failures, between 0 and 1, that
+     * opens the circuit.
+     * @param backoffMillis the first time the circuit stays open.
+     * @param maxBackoffMillis the longest time it stays open.
+     */
+    public CircuitBreaker (int window, int minCalls, double failureRate,
+                           long backoffMillis, long maxBackoffMillis) {
+        this(window, minCalls, failureRate, backoffMillis, maxBackoffMillis, System::nanoTime);
+    }
+
+    CircuitBreaker (int window, int minCalls, double failureRate,
+                    long backoffMillis, long maxBackoffMillis, LongSupplier clock) {
+        this.failures = new boolean[Math.max(1, window)];
+        this.minCalls = Math.max(1, minCalls);
+        this.failureRate = failureRate;
+        this.backoff = backoffMillis * 1_000_000;
+        this.maxBackoff = Math.max(backoffMillis, maxBackoffMillis) * 1_000_000;
+        this.currentBackoff = this.backoff;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the state, half-open once the backoff is over.
+     */
+    public synchronized State getState () {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= currentBackoff)
+            state = State.HALF_OPEN;
+        return state;
+    }
+
+    /**
+     * @return true if a call may go through: always when closed, for
+     * a single probe when half-open. A probe without outcome after a
+     * backoff is considered lost, and another one is let through.
+     */
+    public synchronized boolean allowRequest () {
+        switch (getState()) {
+        case CLOSED: return true;
+        case HALF_OPEN:
+            long now = clock.getAsLong();
+            if (isProbing && now - probedAt < currentBackoff)
+                return false;
+            isProbing = true;
+            probedAt = now;
+            return true;
+        default: return false;
+        }
+    }
+
+    public synchronized void onSuccess () {
+        if (state != State.CLOSED) { // the probe succeeded
+            reset();
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure () {
+        if (state != State.CLOSED) { // the probe failed, or late outcomes
+            if (state == State.HALF_OPEN)
+                open(Math.min(maxBackoff, 2 * currentBackoff));
+            return;
+        }
+        record(true);
+        if (size >= minCalls && nbFailures >= failureRate * size)
+            open(backoff);
+    }
+
+    private void record (boolean isFailure) {
+        if (size == failures.length && failures[next])
+            --nbFailures;
+        failures[next] = isFailure;
+        if (isFailure)
+            ++nbFailures;
+        next = (next + 1) % failures.length;
+        size = Math.min(size + 1, failures.length);
+    }
+
+    private void open (long duration) {
+        state = State.OPEN;
+        currentBackoff = duration;
+        openedAt = clock.getAsLong();
+        isProbing = false;
+    }
+
+    private void reset () {
+        state = State.CLOSED;
+        currentBackoff = backoff;
+        isProbing = false;
+        next = 0;
+        size = 0;
+        nbFailures = 0;
+    }
+
+}
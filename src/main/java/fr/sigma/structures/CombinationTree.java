@@ -0,0 +1,138 @@
+package fr.sigma.structures;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BinaryOperator;
+
+
+
+/**
+ * Balanced binary tree that caches partial combinations of its
+ * leaves, i.e., a segment tree. Updating a leaf only marks its path
+ * to the root; the next read recomputes O(log n) combinations, and
+ * independent dirty subtrees are combined in parallel. The operator
+ * must be associative and commutative.
+ */
+public class CombinationTree<T> {
+
+    public static final int ROOT = 1; // children of node n are 2n and 2n+1
+    private static final int PARALLEL_DEPTH = 3; // fork near the root only
+
+    private final BinaryOperator<T> combine;
+    private final T empty; // neutral element, pads the leaves
+    private final int size;
+    private final int capacity; // power of 2, index of the first leaf
+    private final Object[] nodes; // nodes[1] is the root
+    private final boolean[] dirty;
+
+    public CombinationTree (List<T> leaves, T empty, BinaryOperator<T> combine) {
+        this.combine = combine;
+        this.empty = empty;
+        this.size = leaves.size();
+        int c = 1;
+        while (c < Math.max(1, size))
+            c *= 2;
+        this.capacity = c;
+        nodes = new Object[2 * capacity];
+        dirty = new boolean[2 * capacity];
+        for (int i = 0; i < capacity; ++i)
+            nodes[capacity + i] = i < size ? leaves.get(i) : empty;
+        for (int node = 1; node < capacity; ++node)
+            dirty[node] = true;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized T get (int index) {
+        return (T) nodes[capacity + index];
+    }
+
+    /**
+     * @return the cached combination of a node, up to date after a
+     * call to root().
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T node (int node) {
+        return (T) nodes[node];
+    }
+
+    public boolean isLeaf (int node) {
+        return node >= capacity;
+    }
+
+    /**
+     * @return the index of the leaf, possibly beyond size for nodes
+     * that only pad the tree.
+     */
+    public int leafIndex (int node) {
+        return node - capacity;
+    }
+
+    /**
+     * Replaces a leaf. Combinations are recomputed on next read.
+     */
+    public synchronized void set (int index, T leaf) {
+        int node = capacity + index;
+        nodes[node] = leaf;
+        for (node /= 2; node >= 1; node /= 2)
+            dirty[node] = true;
+    }
+
+    /**
+     * @return the combination of all leaves.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T root () {
+        if (capacity == 1)
+            return (T) nodes[1];
+        refresh(1, 0);
+        return (T) nodes[1];
+    }
+
+    private void refresh (int node, int depth) {
+        if (node >= capacity || !dirty[node])
+            return;
+        int left = 2 * node, right = 2 * node + 1;
+        if (depth < PARALLEL_DEPTH && isDirty(left) && isDirty(right))
+            ForkJoinTask.invokeAll(new Refresh(left, depth + 1),
+                                   new Refresh(right, depth + 1));
+        else {
+            refresh(left, depth + 1);
+            refresh(right, depth + 1);
+        }
+        nodes[node] = combine(nodes[left], nodes[right]);
+        dirty[node] = false;
+    }
+
+    private boolean isDirty (int node) {
+        return node < capacity && dirty[node];
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object combine (Object left, Object right) {
+        if (right == empty) return left;
+        if (left == empty) return right;
+        return combine.apply((T) left, (T) right);
+    }
+
+    private class Refresh extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int node;
+        private final int depth;
+
+        Refresh (int node, int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute () {
+            refresh(node, depth);
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package fr.sigma.structures;
+
+import java.util.Objects;
+
+
+
+/**
+ * Intervals resulting of the combination of two children intervals,
+ * along with their provenance: each combined range knows the pairs
+ * of children ranges whose sum it contains. A value of a combined
+ * range can therefore be split back into values of children ranges
+ * in O(log pairs), without solving anything.
+ */
+public class CombinedIntervals {
+
+    public static final CombinedIntervals EMPTY = leaf(IntervalSet.EMPTY);
+
+    /**
+     * A value split between the two children: the index of the range
+     * and the value for each child, -1 for a child without range.
+     */
+    public static class Split {
+        public final int leftRange;
+        public final double leftValue;
+        public final int rightRange;
+        public final double rightValue;
+
+        public Split (int leftRange, double leftValue, int rightRange, double rightValue) {
+            this.leftRange = leftRange;
+            this.leftValue = leftValue;
+            this.rightRange = rightRange;
+            this.rightValue = rightValue;
+        }
+    }
+
+    public final IntervalSet intervals;
+    private final IntervalSet leftIntervals;
+    private final IntervalSet rightIntervals;
+    // pairs of range k are in [start[k], start[k+1]), by ascending lower
+    private final int[] start;
+    private final int[] left;
+    private final int[] right;
+    private final double[] pairLower;
+    // running max of upper bounds of pairs in a range, and its pair
+    private final double[] maxUpper;
+    private final int[] maxUpperPair;
+
+    private CombinedIntervals (IntervalSet intervals,
+                               IntervalSet leftIntervals, IntervalSet rightIntervals,
+                               int[] start, int[] left, int[] right,
+                               double[] pairLower, double[] maxUpper, int[] maxUpperPair) {
+        this.intervals = intervals;
+        this.leftIntervals = leftIntervals;
+        this.rightIntervals = rightIntervals;
+        this.start = start;
+        this.left = left;
+        this.right = right;
+        this.pairLower = pairLower;
+        this.maxUpper = maxUpper;
+        this.maxUpperPair = maxUpperPair;
+    }
+
+    public static CombinedIntervals leaf (IntervalSet intervals) {
+        return new CombinedIntervals(intervals, null, null, null, null, null, null, null, null);
+    }
+
+    public boolean isLeaf () {
+        return start == null;
+    }
+
+    /**
+     * @return the bounded Minkowski sum of two sets, with provenance
+     * of its ranges. An empty child is neutral.
+     */
+    public static CombinedIntervals combine (CombinedIntervals c1, CombinedIntervals c2,
+                                             int maxRanges, double maxGap) {
+        var i1 = c1.intervals;
+        var i2 = c2.intervals;
+        var result = i1.sum(i2, maxRanges, maxGap);
+        int nbPairs = i1.isEmpty() || i2.isEmpty() ?
+            i1.size() + i2.size() : i1.size() * i2.size();
+
+        int[] start = new int[result.size() + 1];
+        int[] left = new int[nbPairs];
+        int[] right = new int[nbPairs];
+        double[] pairLower = new double[nbPairs];
+        double[] maxUpper = new double[nbPairs];
+        int[] maxUpperPair = new int[nbPairs];
+
+        // #A pairs come by ascending lower bound, as do combined
+        // ranges that enclose them
+        var sweep = i1.isEmpty() || i2.isEmpty() ? null : new IntervalSet.Sweep(i1, i2);
+        int range = 0;
+        for (int p = 0; p < nbPairs; ++p) {
+            double lower, upper;
+            if (Objects.isNull(sweep)) { // one child only
+                left[p] = i1.isEmpty() ? -1 : p;
+                right[p] = i1.isEmpty() ? p : -1;
+                lower = i1.isEmpty() ? i2.lower(p) : i1.lower(p);
+                upper = i1.isEmpty() ? i2.upper(p) : i1.upper(p);
+            } else {
+                sweep.next();
+                left[p] = sweep.i;
+                right[p] = sweep.j;
+                lower = i1.lower(sweep.i) + i2.lower(sweep.j);
+                upper = i1.upper(sweep.i) + i2.upper(sweep.j);
+            }
+            while (lower > result.upper(range)) {
+                ++range;
+                start[range] = p;
+            }
+            pairLower[p] = lower;
+            // #B running max within the range
+            if (p == start[range] || upper > maxUpper[p - 1]) {
+                maxUpper[p] = upper;
+                maxUpperPair[p] = p;
+            } else {
+                maxUpper[p] = maxUpper[p - 1];
+                maxUpperPair[p] = maxUpperPair[p - 1];
+            }
+        }
+        for (int k = range + 1; k <= result.size(); ++k)
+            start[k] = nbPairs;
+
+        return new CombinedIntervals(result, i1, i2, start, left, right,
+                                     pairLower, maxUpper, maxUpperPair);
+    }
+
+    /**
+     * Splits a value of a combined range between the ranges of
+     * children that produced it. Each child gets its minimum plus a
+     * share of the surplus proportional to the width of its range.
+     * @param range the index of the combined range.
+     * @param value the value to split, at least the lower bound of
+     * the range. If it lies in a gap filled by coalescing, it is
+     * clamped down to the pair of ranges below, so children never get
+     * more than value.
+     */
+    public Split split (int range, double value) {
+        // #A last pair starting before value, the pair with the highest
+        // upper bound so far contains value if any does
+        int lo = start[range], hi = start[range + 1] - 1, found = lo;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (pairLower[mid] <= value) {
+                found = mid;
+                lo = mid + 1;
+            } else
+                hi = mid - 1;
+        }
+        int pair = maxUpperPair[found];
+
+        int l = left[pair], r = right[pair];
+        // #B one child may be missing, it is neutral
+        double lowerL = l < 0 ? 0. : leftIntervals.lower(l);
+        double upperL = l < 0 ? 0. : leftIntervals.upper(l);
+        double lowerR = r < 0 ? 0. : rightIntervals.lower(r);
+        double upperR = r < 0 ? 0. : rightIntervals.upper(r);
+        double lower = lowerL + lowerR, upper = upperL + upperR;
+        double clamped = Math.max(lower, Math.min(upper, value));
+
+        double surplus = clamped - lower;
+        double width = upper - lower;
+        double toLeft = width > 0. ? surplus * (upperL - lowerL) / width : 0.;
+        return new Split(l, lowerL + toLeft, r, lowerR + surplus - toLeft);
+    }
+
+}
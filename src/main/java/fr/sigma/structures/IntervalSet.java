@@ -0,0 +1,375 @@
+package fr.sigma.structures;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+
+
+
+/**
+ * Immutable set of closed ranges of doubles. Ranges are sorted and
+ * disjoint, stored as consecutive lower and upper bounds of a single
+ * primitive array. Iterating through indices does not allocate.
+ */
+public final class IntervalSet {
+
+    public static final IntervalSet EMPTY = new IntervalSet(new double[0], 0);
+
+    /**
+     * Consumer of ranges, avoiding boxed bounds.
+     */
+    @FunctionalInterface
+    public interface RangeConsumer {
+        void accept(double lower, double upper);
+    }
+
+    private final double[] bounds; // lower0, upper0, lower1, upper1, …
+    private final int size;
+
+    private IntervalSet (double[] bounds, int size) {
+        this.bounds = bounds;
+        this.size = size;
+    }
+
+    public static IntervalSet of (double lower, double upper) {
+        return new IntervalSet(new double[]{lower, upper}, 1);
+    }
+
+    /**
+     * @param lowers the lower bounds of ranges, in any order.
+     * @param uppers the upper bounds of ranges.
+     * @return the union of the ranges.
+     */
+    public static IntervalSet of (double[] lowers, double[] uppers) {
+        int n = lowers.length;
+        if (n == 0)
+            return EMPTY;
+        boolean sorted = true;
+        for (int i = 1; sorted && i < n; ++i)
+            sorted = lowers[i - 1] <= lowers[i];
+        double[] bounds = new double[2 * n];
+        if (sorted) {
+            for (int i = 0; i < n; ++i) {
+                bounds[2*i] = lowers[i]; bounds[2*i + 1] = uppers[i];
+            }
+        } else {
+            int[] order = IntStream.range(0, n).boxed()
+                .sorted(Comparator.comparingDouble(i -> lowers[i]))
+                .mapToInt(i -> i).toArray();
+            for (int i = 0; i < n; ++i) {
+                bounds[2*i] = lowers[order[i]]; bounds[2*i + 1] = uppers[order[i]];
+            }
+        }
+        return coalesce(bounds, n, Integer.MAX_VALUE, 0.);
+    }
+
+    public int size () { return size; }
+    public boolean isEmpty () { return size == 0; }
+    public double lower (int i) { return bounds[2*i]; }
+    public double upper (int i) { return bounds[2*i + 1]; }
+    public double min () { return bounds[0]; }
+    public double max () { return bounds[2*size - 1]; }
+
+    public void forEach (RangeConsumer consumer) {
+        for (int i = 0; i < size; ++i)
+            consumer.accept(bounds[2*i], bounds[2*i + 1]);
+    }
+
+    /**
+     * @return the index of the last range whose lower bound is lower
+     * or equal to value, -1 if none.
+     */
+    public int floor (double value) {
+        int lo = 0, hi = size - 1, result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bounds[2*mid] <= value) {
+                result = mid;
+                lo = mid + 1;
+            } else
+                hi = mid - 1;
+        }
+        return result;
+    }
+
+    public boolean contains (double value) {
+        int i = floor(value);
+        return i >= 0 && value <= bounds[2*i + 1];
+    }
+
+    public boolean encloses (double lower, double upper) {
+        int i = floor(lower);
+        return i >= 0 && upper <= bounds[2*i + 1];
+    }
+
+    public boolean enclosesAll (IntervalSet other) {
+        for (int i = 0; i < other.size; ++i)
+            if (!encloses(other.lower(i), other.upper(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the index of the range that contains value, or else of
+     * the range the closest to value; -1 if empty.
+     */
+    public int nearest (double value) {
+        if (size == 0)
+            return -1;
+        int i = floor(value);
+        if (i < 0)
+            return 0;
+        if (value <= bounds[2*i + 1] || i == size - 1)
+            return i;
+        return value - bounds[2*i + 1] <= bounds[2*i + 2] - value ? i : i + 1;
+    }
+
+    /**
+     * @return the index of the range whose lower bound is the closest
+     * to value; -1 if empty.
+     */
+    public int closestLower (double value) {
+        if (size == 0)
+            return -1;
+        int i = floor(value);
+        if (i < 0)
+            return 0;
+        if (i == size - 1)
+            return i;
+        return value - bounds[2*i] <= bounds[2*i + 2] - value ? i : i + 1;
+    }
+
+    public IntervalSet union (IntervalSet other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        double[] merged = new double[2 * (size + other.size)];
+        int i = 0, j = 0, k = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && bounds[2*i] <= other.bounds[2*j])) {
+                merged[2*k] = bounds[2*i]; merged[2*k + 1] = bounds[2*i + 1]; ++i;
+            } else {
+                merged[2*k] = other.bounds[2*j]; merged[2*k + 1] = other.bounds[2*j + 1]; ++j;
+            }
+            ++k;
+        }
+        return coalesce(merged, k, Integer.MAX_VALUE, 0.);
+    }
+
+    public IntervalSet sum (IntervalSet other) {
+        return sum(other, Integer.MAX_VALUE, 0.);
+    }
+
+    /**
+     * Minkowski sum of two sets of ranges, an empty set being
+     * neutral. Pairwise sums are swept by ascending lower bound,
+     * using a heap over the ranges of this set, so overlapping sums
+     * merge on the fly.
+     * @param maxRanges the maximal number of ranges of the result.
+     * Beyond, the smallest gaps between ranges are filled.
+     * @param maxGap ranges separated by at most this gap are merged.
+     * @return a superset of the exact sum where each additional value
+     * lies in a filled gap, i.e., at most max(maxGap, smallest kept
+     * gap) wide.
+     */
+    public IntervalSet sum (IntervalSet other, int maxRanges, double maxGap) {
+        if (isEmpty() && other.isEmpty())
+            return EMPTY;
+        if (isEmpty() || other.isEmpty())
+            return (isEmpty() ? other : this).coalesce(maxRanges, maxGap);
+
+        var sweep = new Sweep(this, other);
+        double[] result = new double[2 * Math.min(size * other.size, 16)];
+        int n = 0;
+        while (sweep.next()) {
+            double lower = lower(sweep.i) + other.lower(sweep.j);
+            double upper = upper(sweep.i) + other.upper(sweep.j);
+            if (n > 0 && lower <= result[2*n - 1] + maxGap) {
+                result[2*n - 1] = Math.max(result[2*n - 1], upper);
+            } else {
+                if (2*n == result.length)
+                    result = Arrays.copyOf(result, 4*n);
+                result[2*n] = lower; result[2*n + 1] = upper; ++n;
+            }
+        }
+
+        return coalesce(result, n, maxRanges, maxGap);
+    }
+
+    /**
+     * Pairwise maximum of two sets of ranges, an empty set being
+     * neutral: the latest of two events whose times lie in this set
+     * and in the other one, e.g., the end of parallel runs.
+     * @param maxRanges the maximal number of ranges of the result.
+     * @param maxGap ranges separated by at most this gap are merged.
+     */
+    public IntervalSet max (IntervalSet other, int maxRanges, double maxGap) {
+        if (isEmpty() || other.isEmpty())
+            return (isEmpty() ? other : this).coalesce(maxRanges, maxGap);
+
+        double[] lowers = new double[size * other.size];
+        double[] uppers = new double[size * other.size];
+        int n = 0;
+        for (int i = 0; i < size; ++i)
+            for (int j = 0; j < other.size; ++j) {
+                lowers[n] = Math.max(lower(i), other.lower(j));
+                uppers[n] = Math.max(upper(i), other.upper(j));
+                ++n;
+            }
+        return of(lowers, uppers).coalesce(maxRanges, maxGap);
+    }
+
+    /**
+     * Enumerates the pairs of ranges of two non-empty sets by
+     * ascending sum of lower bounds, using a heap over the ranges of
+     * the first set: row i of the heap is b1[i] + b2[column[i]],
+     * columns being sorted already.
+     */
+    static final class Sweep {
+        private final double[] b1, b2;
+        private final int m;
+        private final int[] column, heap;
+        private int heapSize;
+        int i, j; // current pair
+
+        Sweep (IntervalSet s1, IntervalSet s2) {
+            b1 = s1.bounds; b2 = s2.bounds; m = s2.size;
+            column = new int[s1.size];
+            heap = new int[s1.size];
+            for (int k = 0; k < s1.size; ++k)
+                heap[k] = k; // sorted, hence a valid heap
+            heapSize = s1.size;
+        }
+
+        private double key (int row) {
+            return b1[2*row] + b2[2*column[row]];
+        }
+
+        boolean next () {
+            if (heapSize == 0)
+                return false;
+            i = heap[0];
+            j = column[i];
+
+            column[i] += 1;
+            if (column[i] == m)
+                heap[0] = heap[--heapSize]; // row exhausted
+            int k = 0; // sift down
+            while (2*k + 1 < heapSize) {
+                int child = 2*k + 1;
+                if (child + 1 < heapSize && key(heap[child + 1]) < key(heap[child]))
+                    child += 1;
+                if (key(heap[k]) <= key(heap[child]))
+                    break;
+                int tmp = heap[k]; heap[k] = heap[child]; heap[child] = tmp;
+                k = child;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return this set where ranges closer than maxGap are merged,
+     * and the smallest gaps are filled until at most maxRanges remain.
+     */
+    public IntervalSet coalesce (int maxRanges, double maxGap) {
+        if (size <= 1 || (size <= maxRanges && maxGap <= 0.))
+            return this;
+        return coalesce(Arrays.copyOf(bounds, 2*size), size, maxRanges, maxGap);
+    }
+
+    /**
+     * Coalesces ranges sorted by lower bound, in place.
+     */
+    private static IntervalSet coalesce (double[] bounds, int n,
+                                         int maxRanges, double maxGap) {
+        // #A overlapping or nearly adjacent ranges
+        int kept = 0;
+        for (int k = 0; k < n; ++k) {
+            if (kept > 0 && bounds[2*k] <= bounds[2*kept - 1] + maxGap) {
+                bounds[2*kept - 1] = Math.max(bounds[2*kept - 1], bounds[2*k + 1]);
+            } else {
+                bounds[2*kept] = bounds[2*k]; bounds[2*kept + 1] = bounds[2*k + 1]; ++kept;
+            }
+        }
+
+        // #B keep the maxRanges - 1 largest gaps only
+        int limit = Math.max(1, maxRanges);
+        if (kept > limit) {
+            double[] gaps = new double[kept - 1];
+            for (int k = 0; k < kept - 1; ++k)
+                gaps[k] = bounds[2*k + 2] - bounds[2*k + 1];
+            double[] sorted = gaps.clone();
+            Arrays.sort(sorted);
+            double threshold = limit == 1 ? Double.POSITIVE_INFINITY : // fill all
+                sorted[gaps.length - limit + 1]; // smallest kept
+            boolean[] filled = new boolean[kept];
+            int toFill = kept - limit;
+            for (int k = 0; k < gaps.length && toFill > 0; ++k)
+                if (gaps[k] < threshold) { filled[k] = true; --toFill; }
+            for (int k = 0; k < gaps.length && toFill > 0; ++k)
+                if (!filled[k] && gaps[k] == threshold) { filled[k] = true; --toFill; }
+
+            int merged = 0;
+            for (int k = 0; k < kept; ++k) {
+                double lower = bounds[2*k];
+                while (k < kept - 1 && filled[k])
+                    ++k;
+                bounds[2*merged] = lower; bounds[2*merged + 1] = bounds[2*k + 1]; ++merged;
+            }
+            kept = merged;
+        }
+
+        return kept == 0 ? EMPTY : new IntervalSet(bounds, kept);
+    }
+
+
+
+    public static IntervalSet fromRangeSet (RangeSet<Double> rangeSet) {
+        var ranges = rangeSet.asRanges();
+        double[] bounds = new double[2 * ranges.size()];
+        int k = 0;
+        for (Range<Double> r : ranges) {
+            bounds[2*k] = r.lowerEndpoint(); bounds[2*k + 1] = r.upperEndpoint(); ++k;
+        }
+        return k == 0 ? EMPTY : coalesce(bounds, k, Integer.MAX_VALUE, 0.);
+    }
+
+    public TreeRangeSet<Double> toRangeSet () {
+        TreeRangeSet<Double> result = TreeRangeSet.create();
+        forEach((lower, upper) -> result.add(Range.closed(lower, upper)));
+        return result;
+    }
+
+    @Override
+    public boolean equals (Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        IntervalSet other = (IntervalSet) o;
+        return size == other.size &&
+            Arrays.equals(bounds, 0, 2*size, other.bounds, 0, 2*size);
+    }
+
+    @Override
+    public int hashCode () {
+        int hash = 1;
+        for (int i = 0; i < 2*size; ++i)
+            hash = 31 * hash + Double.hashCode(bounds[i]);
+        return hash;
+    }
+
+    @Override
+    public String toString () {
+        var builder = new StringBuilder("{");
+        for (int i = 0; i < size; ++i)
+            builder.append(i == 0 ? "" : ", ")
+                .append('[').append(lower(i)).append(", ").append(upper(i)).append(']');
+        return builder.append('}').toString();
+    }
+
+}
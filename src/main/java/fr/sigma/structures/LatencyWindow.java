@@ -0,0 +1,53 @@
+package fr.sigma.structures;
+
+import java.util.Arrays;
+
+
+
+/**
+ * The last latencies of a remote, in a ring, to estimate its current
+ * percentiles, e.g., to decide when a call lasts long enough to be
+ * hedged. Old latencies are forgotten so estimates follow changes of
+ * load.
+ */
+public class LatencyWindow {
+
+    private final double[] ring;
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * @param capacity the number of last latencies kept.
+     */
+    public LatencyWindow (int capacity) {
+        ring = new double[Math.max(1, capacity)];
+    }
+
+    public synchronized int size () { return size; }
+
+    public synchronized void record (double latency) {
+        ring[next] = latency;
+        next = (next + 1) % ring.length;
+        size = Math.min(size + 1, ring.length);
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100.
+     * @param minSize the number of latencies below which estimates
+     * are unreliable.
+     * @return the nearest-rank percentile of kept latencies, or -1 if
+     * fewer than minSize are kept.
+     */
+    public double percentile (double percentile, int minSize) {
+        double[] sorted;
+        synchronized (this) {
+            if (size == 0 || size < minSize)
+                return -1.;
+            sorted = Arrays.copyOf(ring, size);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(Math.max(0., Math.min(100., percentile)) / 100. * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+}
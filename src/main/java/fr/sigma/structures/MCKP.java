@@ -1,6 +1,10 @@
 package fr.sigma.structures;
 
+import fr.sigma.jfr.MCKPSolveEvent;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 
@@ -16,7 +20,7 @@ public class MCKP {
     private ArrayList<MCKPElement> elements;
 
     private double ratio; // upscale or downscale
-    private ArrayList<ArrayList<Integer>> m; // matrix of results
+    private int[][] m; // matrix of results, one primitive row per element
     private ArrayList<Integer> iGroup; // indexes of row with group change
 
     
@@ -26,7 +30,7 @@ public class MCKP {
         this.maxObjective = maxObjective;
         this.elements = elements;
         this.elements.add(0, MCKPElement.PLACEHOLDER()); // convenience
-        m = new ArrayList();
+        m = new int[0][];
         iGroup = new ArrayList();
     }
 
@@ -40,8 +44,16 @@ public class MCKP {
         return maxObjective;
     }
 
+    /**
+     * @return a boxed copy of the matrix of results, for inspection
+     * purpose only; the solver itself works on primitive rows.
+     */
     public ArrayList<ArrayList<Integer>> getMatrix () {
-        return m;
+        var matrix = new ArrayList<ArrayList<Integer>>();
+        for (int[] row : m)
+            matrix.add(Arrays.stream(row).boxed()
+                       .collect(Collectors.toCollection(ArrayList::new)));
+        return matrix;
     }
 
     public ArrayList<Integer> getIGroup () {
@@ -57,7 +69,7 @@ public class MCKP {
     public ArrayList<MCKPElement> solve(double objective) {        
         // (TODO) normalize objective with intervals
         // (TODO) if objective > maxObjective, process missing data
-        if (m.isEmpty())
+        if (m.length == 0)
             process();
         var listOfIndices = backtrack((int) objective);
         return listOfIndices.stream().map(i->elements.get(i))
@@ -68,18 +80,26 @@ public class MCKP {
      * Fill the matrix of size ~maxObjective*nbElements. 
      */    
     public void process() {
+        process(0);
+    }
+
+    /**
+     * Fill the matrix of size ~maxObjective*nbElements unless it
+     * takes longer than the time budget.
+     * @param budget the time budget in nanoseconds, 0 or less for
+     * unlimited.
+     * @return true if the matrix is complete, false if the budget is
+     * exhausted, in which case the matrix stays empty.
+     */
+    public boolean process(long budget) {
+        var event = new MCKPSolveEvent();
+        event.begin();
+        var start = System.nanoTime();
         int iPreviousGroup = -1;
         int previousGroup = elements.get(0).group;
-        int currentGroup = elements.get(0).group;
-        
-        for (int i = 0; i < elements.size(); ++i) {
-            m.add(new ArrayList());
-            m.get(i).add(-1); // first column full of 0
-        }
 
-        m.get(0).set(0, 0);
-        for (int w = 0; w < maxObjective; ++w)
-            m.get(0).add(0); // first row full of 0
+        m = new int[elements.size()][];
+        m[0] = new int[maxObjective + 1]; // first row full of 0
         
         int minWeight = 0; // remove invalid possibility
         
@@ -94,21 +114,74 @@ public class MCKP {
                 iPreviousGroup = i-1;
                 iGroup.add(iPreviousGroup);
             }
-            
-            for (int w = 1; w <= maxObjective; ++w) {
-                if (w < minWeight) 
-                    m.get(i).add(-1);
-                else  {
-                    int diag = (w < e.weight) ?
-                        -1 : m.get(iPreviousGroup).get(w - e.weight);
-                    int option1 = (diag < 0) ?
-                        -1 : diag + e.profit ; // diag
-                    int option2 = newGroup ?
-                        -1 : m.get(i-1).get(w); // above
-                    m.get(i).add(Math.max(option1, option2));
-                }
+
+            m[i] = new int[maxObjective + 1];
+            processRow(m[iPreviousGroup], newGroup ? null : m[i-1], m[i],
+                       e.weight, e.profit, minWeight);
+
+            if (budget > 0 && System.nanoTime() - start > budget) {
+                m = new int[0][];
+                iGroup.clear();
+                commit(event, false);
+                return false;
+            }
+        }
+        commit(event, true);
+        return true;
+    }
+
+    private void commit(MCKPSolveEvent event, boolean completed) {
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.nbElements = elements.size() - 1; // placeholder
+        event.nbGroups = 0;
+        for (int i = 1; i < elements.size(); ++i)
+            if (i == 1 || elements.get(i).group != elements.get(i - 1).group)
+                ++event.nbGroups;
+        event.maxObjective = maxObjective;
+        event.tableSize = (long) elements.size() * (maxObjective + 1);
+        event.completed = completed;
+        event.commit();
+    }
+
+    /**
+     * Row update of the dynamic programming table, i.e., for each
+     * w, max(diag + profit, above). Rows are primitive and the loop
+     * body is branch-free so the JIT can vectorize it.
+     * @param diagRow the last row of the previous group.
+     * @param aboveRow the row above in the same group, null when the
+     * element starts a new group.
+     * @param row the row to fill.
+     * @param weight the weight of the element of this row.
+     * @param profit the profit of the element of this row.
+     * @param minWeight the minimal weight to fill every group so far.
+     */
+    public static void processRow(int[] diagRow, int[] aboveRow, int[] row,
+                                  int weight, int profit, int minWeight) {
+        int width = row.length;
+        // #A no valid solution below the minimal weight, nor in the
+        // first column
+        int from = Math.max(1, Math.min(minWeight, width));
+        Arrays.fill(row, 0, from, -1);
+        // #B cannot afford the element
+        int split = Math.max(from, Math.min(weight, width));
+        if (Objects.isNull(aboveRow))
+            Arrays.fill(row, from, split, -1);
+        else
+            System.arraycopy(aboveRow, from, row, from, split - from);
+        // #C otherwise, diag is -1 or positive: (-1 >> 31) = -1 keeps
+        // invalid cells invalid without branching
+        if (Objects.isNull(aboveRow))
+            for (int w = split; w < width; ++w) {
+                int diag = diagRow[w - weight];
+                row[w] = (diag + profit) | (diag >> 31);
+            }
+        else
+            for (int w = split; w < width; ++w) {
+                int diag = diagRow[w - weight];
+                row[w] = Math.max((diag + profit) | (diag >> 31), aboveRow[w]);
             }
-        }    
     }
 
     /**
@@ -123,10 +196,10 @@ public class MCKP {
             return new ArrayList(); // default empty
        
         // start at the proper row column in the matrix
-        int y = m.size() - 1;
+        int y = m.length - 1;
         int x = objective;
 
-	if (m.get(y).get(x) == -1)
+	if (m[y][x] == -1)
 	    return new ArrayList(); // no solution
 
 	var indexOfValidItems = new ArrayList<Integer>();
@@ -134,10 +207,10 @@ public class MCKP {
 
         while (y > 0) {
             while (x > 0 &&
-                   m.get(y).get(x).equals(m.get(y).get(x-1)))
+                   m[y][x] == m[y][x-1])
                 --x; // go left
             while (y > 0 &&
-                   m.get(y).get(x).equals(m.get(y-1).get(x)) &&
+                   m[y][x] == m[y-1][x] &&
                    y > iGroup.get(iCurrentGroup - 1))
                 --y; // go up
             if (y == iGroup.get(iCurrentGroup - 1)) {
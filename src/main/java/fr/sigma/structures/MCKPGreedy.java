@@ -0,0 +1,111 @@
+package fr.sigma.structures;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.TreeMap;
+
+
+
+/**
+ * Approximate solver of the multiple-choice knapsack problem based
+ * on its linear relaxation. Starting from the lightest element of
+ * each group, it upgrades elements by decreasing efficiency while
+ * they fit. It runs in O(n log n) and its profit is at most
+ * errorBound below the exact optimum.
+ */
+public class MCKPGreedy {
+
+    private ArrayList<MCKPElement> elements;
+    private int errorBound = 0;
+
+    public MCKPGreedy (ArrayList<MCKPElement> elements) {
+        this.elements = elements;
+    }
+
+    /**
+     * @return the maximal difference of profit between the last
+     * solution and the exact one; 0 means the solution is optimal.
+     */
+    public int getErrorBound () {
+        return errorBound;
+    }
+
+    /**
+     * @param objective the capacity of the knapsack.
+     * @return one element per group, or an empty list when the
+     * lightest elements do not fit.
+     */
+    public ArrayList<MCKPElement> solve (int objective) {
+        errorBound = 0;
+        var groups = new TreeMap<Integer, ArrayList<MCKPElement>>();
+        for (var element : elements)
+            groups.computeIfAbsent(element.group, k -> new ArrayList<>()).add(element);
+
+        // #A keep the elements of the upper convex hull of each group,
+        // others are never part of the solution of the relaxation
+        var chosen = new ArrayList<MCKPElement>();
+        var upgrades = new ArrayList<MCKPElement[]>(); // from, to
+        int weight = 0;
+        for (var group : groups.values()) {
+            group.sort(Comparator.<MCKPElement>comparingInt(e -> e.weight)
+                       .thenComparing(e -> -e.profit));
+            var hull = new ArrayList<MCKPElement>();
+            for (var e : group) {
+                if (!hull.isEmpty() && e.profit <= hull.get(hull.size() - 1).profit)
+                    continue; // dominated by a lighter element
+                while (hull.size() > 1 && isBelow(hull.get(hull.size() - 2),
+                                                  hull.get(hull.size() - 1), e))
+                    hull.remove(hull.size() - 1);
+                hull.add(e);
+            }
+            chosen.add(hull.get(0));
+            weight += hull.get(0).weight;
+            for (int i = 1; i < hull.size(); ++i)
+                upgrades.add(new MCKPElement[]{hull.get(i - 1), hull.get(i)});
+        }
+
+        if (weight > objective)
+            return new ArrayList<>(); // no solution
+
+        // #B upgrade by decreasing efficiency, the sort being stable,
+        // upgrades of a group stay ordered
+        upgrades.sort((u1, u2) -> Double.compare(efficiency(u2), efficiency(u1)));
+        var groupIndex = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < chosen.size(); ++i)
+            groupIndex.put(chosen.get(i).group, i);
+
+        for (var upgrade : upgrades) {
+            int i = groupIndex.get(upgrade[0].group);
+            if (chosen.get(i) != upgrade[0])
+                continue; // a previous upgrade of this group did not fit
+            int dw = upgrade[1].weight - upgrade[0].weight;
+            if (weight + dw <= objective) {
+                chosen.set(i, upgrade[1]);
+                weight += dw;
+            } else if (errorBound == 0) {
+                // first upgrade that does not fit: the relaxation
+                // only takes a fraction of it
+                errorBound = upgrade[1].profit - upgrade[0].profit;
+            }
+        }
+
+        return chosen;
+    }
+
+    private static double efficiency (MCKPElement[] upgrade) {
+        int dw = upgrade[1].weight - upgrade[0].weight;
+        int dp = upgrade[1].profit - upgrade[0].profit;
+        return dw == 0 ? Double.POSITIVE_INFINITY : (double) dp / dw;
+    }
+
+    /**
+     * @return true if b is strictly below the segment [a, c], i.e.,
+     * b is dominated in the linear relaxation.
+     */
+    private static boolean isBelow (MCKPElement a, MCKPElement b, MCKPElement c) {
+        long cross = (long) (b.weight - a.weight) * (c.profit - a.profit) -
+            (long) (b.profit - a.profit) * (c.weight - a.weight);
+        return cross > 0;
+    }
+
+}
@@ -0,0 +1,131 @@
+package fr.sigma.structures;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+
+
+/**
+ * Counting bloom filter whose counters live in a memory-mapped file,
+ * off the heap: it can be sized for millions of elements, and its
+ * counts survive restarts. Counters are 32-bit integers updated
+ * atomically, so threads, or even processes mapping the same file,
+ * may add concurrently. Indexes come from one murmur3 hash, split in
+ * two and combined as h1 + i*h2 (Kirsch-Mitzenmacher).
+ */
+public class MappedCountingBloomFilter implements Closeable {
+
+    private static final int MAGIC = 0x57424346; // WBCF
+    private static final int HEADER = 16; // magic, size, hashes, padding
+    private static final VarHandle COUNTER =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final HashFunction MURMUR = Hashing.murmur3_128();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer counters;
+    private final int size; // number of counters
+    private final int hashes;
+    private final boolean isRestored;
+
+    /**
+     * Maps the file, reusing its counters if it was created with the
+     * same sizing, resetting them otherwise.
+     * @param file the file of counters, created if needed.
+     * @param expectedElements the number of distinct elements.
+     * @param falsePositiveProbability the probability that an element
+     * shares the counts of others.
+     */
+    public MappedCountingBloomFilter (Path file, int expectedElements,
+                                      double falsePositiveProbability) throws IOException {
+        double n = Math.max(1, expectedElements);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) /
+                                  (Math.log(2) * Math.log(2)));
+        if (m > (Integer.MAX_VALUE - HEADER) / 4)
+            throw new IllegalArgumentException(String.format("Filter of %s counters too large.", m));
+        size = (int) Math.max(1, m);
+        hashes = (int) Math.max(1, Math.round(size / n * Math.log(2)));
+
+        if (Objects.nonNull(file.getParent()))
+            Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = HEADER + 4L * size;
+        // #A same sizing or nothing, counts of another one are garbage
+        var header = ByteBuffer.allocate(HEADER);
+        boolean isSameSizing = channel.size() == length && channel.read(header, 0) == HEADER &&
+            header.getInt(0) == MAGIC && header.getInt(4) == size && header.getInt(8) == hashes;
+        if (!isSameSizing)
+            channel.truncate(0);
+        counters = channel.map(FileChannel.MapMode.READ_WRITE, 0, length); // zero-filled
+        if (!isSameSizing) {
+            counters.putInt(0, MAGIC).putInt(4, size).putInt(8, hashes);
+            counters.force();
+        }
+        isRestored = isSameSizing;
+    }
+
+    public int getSize () { return size; }
+    public int getHashes () { return hashes; }
+
+    /**
+     * @return true if counts come from a previous run.
+     */
+    public boolean isRestored () { return isRestored; }
+
+    public void add (String element) {
+        long hash = MURMUR.hashString(element, StandardCharsets.UTF_8).asLong();
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; ++i)
+            COUNTER.getAndAdd(counters, offset(h1 + i * h2), 1);
+    }
+
+    /**
+     * @return the estimated number of times the element was added,
+     * never lower than the actual one.
+     */
+    public long getEstimatedCount (String element) {
+        long hash = MURMUR.hashString(element, StandardCharsets.UTF_8).asLong();
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 1; i <= hashes; ++i)
+            min = Math.min(min, Integer.toUnsignedLong((int) COUNTER.getVolatile(counters,
+                                                                                offset(h1 + i * h2))));
+        return min;
+    }
+
+    /**
+     * Writes counters to the file; otherwise the system does it
+     * whenever it sees fit, even after a crash of the box.
+     */
+    public void force () {
+        counters.force();
+    }
+
+    @Override
+    public void close () throws IOException {
+        force();
+        channel.close();
+    }
+
+    private int offset (int combinedHash) {
+        int index = combinedHash < 0 ? ~combinedHash : combinedHash;
+        return HEADER + 4 * (index % size);
+    }
+
+}
@@ -0,0 +1,101 @@
+package fr.sigma.box;
+
+import fr.sigma.energy.EnergyAwareness;
+import fr.sigma.energy.LatencyAwareness;
+import fr.sigma.structures.Polynomes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class EndpointTest {
+
+    @Test
+    public void pathsShareANormalizedName () {
+        assertEquals("", Endpoint.toName("/"));
+        assertEquals("", Endpoint.toName(null));
+        assertEquals("compute", Endpoint.toName("/compute"));
+        assertEquals("compute", Endpoint.toName("/compute/"));
+        assertEquals("compute", Endpoint.toName("//compute"));
+        assertEquals("api.compute", Endpoint.toName("/api//compute/"));
+        assertEquals("/", Endpoint.normalize(""));
+        assertEquals("/compute", Endpoint.normalize("//compute/"));
+        assertEquals("/api/compute", Endpoint.normalize("/api//compute"));
+    }
+
+    @Test
+    public void remoteCallsSortedByProgress () {
+        var calls = Endpoint.parseRemoteCalls(List.of("http://b:8080@80", " http://a:8080/x@10",
+                                                      "http://ignored:8080"));
+        assertEquals(2, calls.size());
+        assertEquals("http://a:8080/x", calls.get(0).first);
+        assertEquals(10, (int) calls.get(0).second);
+        assertEquals("http://b:8080", calls.get(1).first);
+        assertEquals(80, (int) calls.get(1).second);
+    }
+
+    @Test
+    public void intervalsOfTheRemotePath () {
+        assertEquals("http://a:8080/getEnergyIntervals?path=/",
+                     Endpoint.intervalsUrl("http://a:8080"));
+        assertEquals("http://a:8080/getEnergyIntervals?path=/compute",
+                     Endpoint.intervalsUrl("http://a:8080/compute"));
+        assertEquals("http://a:8080/getLatencyIntervals?path=/compute",
+                     Endpoint.intervalsUrl("http://a:8080/compute", "getLatencyIntervals"));
+        // the primary replica
+        assertEquals("http://a:8080/getEnergyIntervals?path=/compute",
+                     Endpoint.intervalsUrl("http://a:8080/compute|http://b:8080/compute"));
+        assertArrayEquals(new String[]{"http://a:8080", "http://b:8080"},
+                          Endpoint.replicas(" http://a:8080|http://b:8080"));
+    }
+
+    private static Endpoint endpoint (SimpleMeterRegistry registry) {
+        var energyAwareness = new EnergyAwareness("meow", 10, 4);
+        energyAwareness.setMeterRegistry(registry, "endpoint", "/compute");
+        return new Endpoint("/compute", new Polynomes(), new ArrayList<>(), energyAwareness,
+                            new LatencyAwareness("meow", new ArrayList<>(), 10, 4, 4, 15.));
+    }
+
+    @Test
+    public void evictedEndpointClosesOnceUnused () throws IOException {
+        var registry = new SimpleMeterRegistry();
+        var endpoint = endpoint(registry);
+        assertTrue(endpoint.acquire());
+        assertFalse(endpoint.evict()); // a request still uses it
+        assertFalse(endpoint.acquire()); // no new request
+        assertNotNull(registry.find("box.energy.local.data.size").gauge());
+        assertTrue(endpoint.release());
+        assertNull(registry.find("box.energy.local.data.size").gauge());
+        assertFalse(endpoint.revive());
+
+        var unused = endpoint(registry);
+        assertTrue(unused.evict());
+    }
+
+    @Test
+    public void evictedEndpointRevivedWhileInUse () throws IOException {
+        var endpoint = endpoint(new SimpleMeterRegistry());
+        assertTrue(endpoint.acquire());
+        assertFalse(endpoint.evict());
+        assertTrue(endpoint.revive()); // requested again, the cache holds it
+        assertFalse(endpoint.release());
+        assertTrue(endpoint.acquire());
+        assertFalse(endpoint.release());
+        // revived before the eviction was even notified
+        assertTrue(endpoint.revive());
+        assertFalse(endpoint.evict());
+        assertTrue(endpoint.evict());
+    }
+
+}
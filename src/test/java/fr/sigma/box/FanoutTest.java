@@ -0,0 +1,170 @@
+package fr.sigma.box;
+
+import fr.sigma.structures.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class FanoutTest {
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> {
+            var thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private static Supplier<RemoteCall> answer (String replica, String outcome, long sleep,
+                                                boolean isHedged, AtomicInteger sent) {
+        return () -> {
+            sent.incrementAndGet();
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new RemoteCall("remote", replica, outcome, sleep, null, isHedged);
+        };
+    }
+
+    @Test
+    public void slowPrimaryLosesToTheHedge () {
+        var sent = new AtomicInteger();
+        var call = Fanout.hedge(answer("a", RemoteCall.SUCCESS, 1000, false, sent),
+                                answer("b", RemoteCall.SUCCESS, 0, true, sent),
+                                10, executor).join();
+        assertEquals("b", call.replica);
+        assertTrue(call.isHedged);
+        assertEquals(2, sent.get());
+    }
+
+    @Test
+    public void fastErrorDoesNotHideASuccessfulHedge () {
+        var sent = new AtomicInteger();
+        var call = Fanout.hedge(answer("a", RemoteCall.ERROR, 0, false, sent),
+                                answer("b", RemoteCall.SUCCESS, 50, true, sent),
+                                10, executor).join();
+        assertEquals("b", call.replica);
+        assertTrue(call.isSuccess());
+    }
+
+    @Test
+    public void fastSuccessIsNeverHedged () throws InterruptedException {
+        var sent = new AtomicInteger();
+        var call = Fanout.hedge(answer("a", RemoteCall.SUCCESS, 0, false, sent),
+                                answer("b", RemoteCall.SUCCESS, 0, true, sent),
+                                100, executor).join();
+        assertEquals("a", call.replica);
+        Thread.sleep(300); // past the hedging delay
+        assertEquals(1, sent.get());
+    }
+
+    @Test
+    public void bothFailingKeepsThePrimary () {
+        var sent = new AtomicInteger();
+        var call = Fanout.hedge(answer("a", RemoteCall.ERROR, 0, false, sent),
+                                answer("b", RemoteCall.ERROR, 50, true, sent),
+                                10, executor).join();
+        assertEquals("a", call.replica);
+        assertEquals(RemoteCall.ERROR, call.outcome);
+        assertEquals(2, sent.get());
+    }
+
+    @Test
+    public void noHedgeWhenDelayIsNegative () {
+        var sent = new AtomicInteger();
+        var call = Fanout.hedge(answer("a", RemoteCall.ERROR, 0, false, sent),
+                                answer("b", RemoteCall.SUCCESS, 0, true, sent),
+                                -1, executor).join();
+        assertEquals("a", call.replica);
+        assertEquals(1, sent.get());
+    }
+
+    @Test
+    public void awaitCancelsStragglers () {
+        var blocked = new CountDownLatch(1);
+        var calls = new ArrayList<Pair<String, CompletableFuture<RemoteCall>>>();
+        calls.add(new Pair<>("fast", CompletableFuture.completedFuture
+                             (new RemoteCall("fast", "fast", RemoteCall.SUCCESS, 1, "ok", false))));
+        calls.add(new Pair<>("slow", CompletableFuture.supplyAsync(() -> {
+                        try {
+                            blocked.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new RemoteCall("slow", "slow", RemoteCall.SUCCESS, 1, "ok", false);
+                    }, executor)));
+        calls.add(new Pair<>("failed", CompletableFuture.failedFuture(new RuntimeException())));
+
+        var results = Fanout.await(calls, TimeUnit.MILLISECONDS.toNanos(50));
+        blocked.countDown();
+        assertEquals(3, results.size());
+        assertEquals(RemoteCall.SUCCESS, results.get(0).outcome);
+        assertEquals(RemoteCall.CANCELLED, results.get(1).outcome);
+        assertEquals("slow", results.get(1).url);
+        assertTrue(results.get(1).latency >= 50);
+        assertTrue(calls.get(1).second.isCancelled());
+        assertEquals(RemoteCall.CANCELLED, results.get(2).outcome);
+    }
+
+    @Test
+    public void cancelledHedgedCallIsNeverSent () throws InterruptedException {
+        var sent = new AtomicInteger();
+        var call = Fanout.hedge(answer("a", RemoteCall.SUCCESS, 300, false, sent),
+                                answer("b", RemoteCall.SUCCESS, 0, true, sent),
+                                100, executor);
+        var results = Fanout.await(List.of(new Pair<>("remote", call)),
+                                   TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(RemoteCall.CANCELLED, results.get(0).outcome);
+        Thread.sleep(300); // past the hedging delay
+        assertEquals(1, sent.get()); // only the primary, already in flight
+        assertTrue(call.isCancelled());
+    }
+
+    @Test
+    public void rejectedCallsFailRatherThanQueue () throws InterruptedException {
+        var sent = new AtomicInteger();
+        var blocked = new CountDownLatch(1);
+        var bounded = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                             new ArrayBlockingQueue<>(1));
+        try {
+            bounded.execute(() -> { // the single thread is busy
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            // queued, then its hedge is rejected
+            var queued = Fanout.hedge(answer("a", RemoteCall.ERROR, 0, false, sent),
+                                      answer("b", RemoteCall.SUCCESS, 0, true, sent),
+                                      10, bounded);
+            var rejected = Fanout.hedge(answer("c", RemoteCall.SUCCESS, 0, false, sent),
+                                        answer("d", RemoteCall.SUCCESS, 0, true, sent),
+                                        10, bounded);
+            assertTrue(rejected.isCompletedExceptionally());
+            Thread.sleep(100); // past the hedging delay
+            blocked.countDown();
+            var call = queued.join();
+            assertEquals("a", call.replica); // the hedge never ran
+            assertEquals(1, sent.get());
+        } finally {
+            bounded.shutdownNow();
+        }
+    }
+
+}
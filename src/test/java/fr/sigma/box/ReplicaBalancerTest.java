@@ -0,0 +1,209 @@
+package fr.sigma.box;
+
+import fr.sigma.structures.IntervalSet;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class ReplicaBalancerTest {
+
+    private static final String URL = "http://a|http://b|http://c";
+
+    /**
+     * @return a random source drawing the given indices, in order.
+     */
+    private static IntUnaryOperator draws (Integer... indices) {
+        var next = new ArrayDeque<>(List.of(indices));
+        return bound -> {
+            int index = next.poll();
+            assertTrue(index < bound);
+            return index;
+        };
+    }
+
+    private static RemoteRegistry noBreakers () {
+        return new RemoteRegistry(0, 0, 0., 0, 0);
+    }
+
+    @Test
+    public void firstKeepsConfiguredOrder () {
+        var balancer = new ReplicaBalancer("", false, noBreakers(), draws());
+        assertFalse(balancer.isEnabled());
+        assertArrayEquals(new String[]{"http://a", "http://b", "http://c"},
+                          balancer.order(URL, -1.));
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ReplicaBalancer("random", false, noBreakers()));
+    }
+
+    @Test
+    public void leastInFlightOfTwoDrawn () {
+        var balancer = new ReplicaBalancer("inflight", false, noBreakers(), draws(0, 0, 2, 1));
+        balancer.start("http://a");
+        balancer.start("http://a");
+        balancer.start("http://b");
+        // a and b drawn, c is idle but not drawn
+        assertArrayEquals(new String[]{"http://b", "http://a", "http://c"},
+                          balancer.order(URL, -1.));
+        // c and b drawn
+        assertArrayEquals(new String[]{"http://c", "http://b", "http://a"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void lowestLatencyOfTwoDrawn () {
+        var balancer = new ReplicaBalancer("latency", false, noBreakers(), bound -> 0);
+        balancer.start("http://a");
+        balancer.finish("http://a", 10., true);
+        balancer.start("http://b");
+        balancer.finish("http://b", 100., true);
+        assertArrayEquals(new String[]{"http://a", "http://b", "http://c"},
+                          balancer.order(URL, -1.));
+
+        // moving averages: a at 10 * .8 + 500 * .2 = 108, b at 100 * .8 + 10 * .2 = 82
+        balancer.start("http://b");
+        balancer.finish("http://b", 10., true);
+        balancer.start("http://a");
+        balancer.finish("http://a", 500., true);
+        assertArrayEquals(new String[]{"http://b", "http://a", "http://c"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void failedCallsDoNotCountAsLatency () {
+        var balancer = new ReplicaBalancer("latency", false, noBreakers(), draws(0, 0));
+        balancer.start("http://a");
+        balancer.finish("http://a", 10., true);
+        balancer.start("http://a");
+        balancer.finish("http://a", 1000., false);
+        balancer.start("http://b");
+        balancer.finish("http://b", 20., true);
+        assertArrayEquals(new String[]{"http://a", "http://b", "http://c"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void unknownLatencyIsTheWorst () {
+        var balancer = new ReplicaBalancer("latency", false, noBreakers(), bound -> 0);
+        balancer.start("http://b");
+        balancer.finish("http://b", 500., true);
+        assertArrayEquals(new String[]{"http://b", "http://a", "http://c"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void fastFailuresDoNotAttractCalls () {
+        var balancer = new ReplicaBalancer("inflight", false, noBreakers(), bound -> 0);
+        for (int i = 0; i < 5; ++i) { // a fails at once
+            balancer.start("http://a");
+            balancer.finish("http://a", 1., false);
+        }
+        balancer.start("http://b");
+        balancer.start("http://b"); // b is busy, yet answers
+        assertArrayEquals(new String[]{"http://b", "http://a", "http://c"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void costAwarePrefersReplicasReachingTheObjective () {
+        var balancer = new ReplicaBalancer("inflight", true, noBreakers(), bound -> 0);
+        balancer.updateCosts("http://a", IntervalSet.of(50., 60.));
+        balancer.updateCosts("http://b", IntervalSet.of(5., 10.));
+        balancer.start("http://b"); // busier, yet cheaper
+        assertArrayEquals(new String[]{"http://b", "http://a", "http://c"},
+                          balancer.order(URL, 20.));
+
+        // both above the objective: the least above wins
+        assertArrayEquals(new String[]{"http://b", "http://a", "http://c"},
+                          balancer.order(URL, 1.));
+
+        // both reach it, or no objective: the least in flight wins
+        assertArrayEquals(new String[]{"http://a", "http://b", "http://c"},
+                          balancer.order(URL, 70.));
+        assertArrayEquals(new String[]{"http://a", "http://b", "http://c"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void unknownCostsReachTheObjective () {
+        var balancer = new ReplicaBalancer("inflight", true, noBreakers(), draws(0, 0));
+        balancer.updateCosts("http://a", IntervalSet.of(50., 60.));
+        assertArrayEquals(new String[]{"http://b", "http://a", "http://c"},
+                          balancer.order(URL, 20.));
+    }
+
+    @Test
+    public void openReplicasAreNotDrawn () {
+        var health = new RemoteRegistry(1, 1, 1., 60_000, 60_000);
+        var balancer = new ReplicaBalancer("inflight", false, health, draws(0, 0));
+        balancer.report("http://a", false);
+        assertFalse(balancer.allow("http://a"));
+        balancer.start("http://c");
+        // among b and c only
+        assertArrayEquals(new String[]{"http://b", "http://c", "http://a"},
+                          balancer.order(URL, -1.));
+
+        balancer.report("http://b", false);
+        // the single one left, no second to hedge with
+        assertArrayEquals(new String[]{"http://c", "http://a", "http://b"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void allOpenFallsBackToEveryReplica () {
+        var health = new RemoteRegistry(1, 1, 1., 60_000, 60_000);
+        var balancer = new ReplicaBalancer("inflight", false, health, draws(1, 1));
+        balancer.report("http://a", false);
+        balancer.report("http://b", false);
+        balancer.report("http://c", false);
+        balancer.start("http://b");
+        // b and c drawn among all, the circuit of the remote decides
+        assertArrayEquals(new String[]{"http://c", "http://b", "http://a"},
+                          balancer.order(URL, -1.));
+    }
+
+    @Test
+    public void halfOpenProbeFirst () {
+        // backoff of 0: an open circuit is half-open at once
+        var health = new RemoteRegistry(1, 1, 1., 0, 0);
+        var balancer = new ReplicaBalancer("inflight", false, health, draws());
+        balancer.start("http://a");
+        balancer.start("http://b");
+        balancer.report("http://c", false); // opens c
+        assertArrayEquals(new String[]{"http://c", "http://a", "http://b"},
+                          balancer.order(URL, -1.));
+
+        balancer.report("http://c", true); // the probe succeeded
+        assertTrue(health.isAvailable("http://c"));
+    }
+
+    @Test
+    public void singleReplicaIsNotBalanced () {
+        var balancer = new ReplicaBalancer("inflight", false, noBreakers(), draws());
+        assertArrayEquals(new String[]{"http://a"}, balancer.order("http://a", -1.));
+    }
+
+    @Test
+    public void failuresCountAgainstTheRemoteOnlyWithoutReplicas () {
+        var health = new RemoteRegistry(1, 1, 1., 60_000, 60_000);
+        var balancer = new ReplicaBalancer("inflight", false, health);
+        assertTrue(balancer.hasAvailableReplica(URL));
+        balancer.finish("http://a", 1., false);
+        balancer.finish("http://b", 1., false);
+        assertTrue(balancer.hasAvailableReplica(URL)); // c
+        balancer.finish("http://c", 1., false);
+        assertFalse(balancer.hasAvailableReplica(URL));
+        assertFalse(balancer.hasAvailableReplica("http://a")); // a single one
+
+        assertFalse(new ReplicaBalancer("", false, health).hasAvailableReplica(URL));
+    }
+
+}
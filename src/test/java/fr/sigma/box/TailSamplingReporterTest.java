@@ -0,0 +1,179 @@
+package fr.sigma.box;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.spi.Reporter;
+import io.opentracing.tag.Tags;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class TailSamplingReporterTest {
+
+    /**
+     * Reporter that keeps exported spans.
+     */
+    private static class FakeReporter implements Reporter {
+        final List<JaegerSpan> spans = new ArrayList<>();
+        public synchronized void report (JaegerSpan span) { spans.add(span); }
+        public void close () { }
+        synchronized List<String> operations () {
+            var operations = new ArrayList<String>();
+            for (var span : spans)
+                operations.add(span.getOperationName());
+            return operations;
+        }
+    }
+
+    private static JaegerTracer tracer (Reporter reporter) {
+        return new JaegerTracer.Builder("meow")
+            .withReporter(reporter)
+            .withSampler(new ConstSampler(true))
+            .build();
+    }
+
+    private static JaegerSpan server (JaegerTracer tracer, String operation) {
+        return tracer.buildSpan(operation)
+            .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+            .withStartTimestamp(0)
+            .start();
+    }
+
+    private static JaegerSpan client (JaegerTracer tracer, JaegerSpan parent, String operation) {
+        return tracer.buildSpan(operation)
+            .asChildOf(parent)
+            .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+            .withStartTimestamp(0)
+            .start();
+    }
+
+    @Test
+    public void slowTraceKeptWithItsSpans () {
+        var exported = new FakeReporter();
+        var tracer = tracer(new TailSamplingReporter(exported, 100, 16));
+        var request = server(tracer, "request");
+        client(tracer, request, "call").finish(10);
+        assertTrue(exported.spans.isEmpty()); // buffered until decided
+        request.finish(200_000); // 200 ms
+        assertEquals(List.of("call", "request"), exported.operations());
+    }
+
+    @Test
+    public void fastTraceDroppedWithItsSpans () {
+        var exported = new FakeReporter();
+        var tracer = tracer(new TailSamplingReporter(exported, 100, 16));
+        var request = server(tracer, "request");
+        client(tracer, request, "call").finish(10);
+        request.finish(1_000);
+        assertTrue(exported.spans.isEmpty());
+    }
+
+    @Test
+    public void failedOrViolatingTracesKept () {
+        var exported = new FakeReporter();
+        var tracer = tracer(new TailSamplingReporter(exported, 100, 16));
+        var failed = server(tracer, "failed");
+        failed.setTag(Tags.ERROR.getKey(), true);
+        failed.finish(1_000);
+        var status = server(tracer, "status");
+        status.setTag(Tags.HTTP_STATUS.getKey(), 503);
+        status.finish(1_000);
+        var violated = server(tracer, "violated");
+        violated.setTag(TailSamplingReporter.OBJECTIVE_VIOLATED, true);
+        violated.finish(1_000);
+        var fine = server(tracer, "fine");
+        fine.setTag(TailSamplingReporter.OBJECTIVE_VIOLATED, false);
+        fine.finish(1_000);
+        assertEquals(List.of("failed", "status", "violated"), exported.operations());
+    }
+
+    @Test
+    public void lateSpansFollowTheDecision () {
+        var exported = new FakeReporter();
+        var tracer = tracer(new TailSamplingReporter(exported, 100, 16));
+        var kept = server(tracer, "kept");
+        var keptCall = client(tracer, kept, "keptCall");
+        var dropped = server(tracer, "dropped");
+        var droppedCall = client(tracer, dropped, "droppedCall");
+        kept.finish(200_000);
+        dropped.finish(1_000);
+        // remote calls finishing after the request
+        keptCall.finish(300_000);
+        droppedCall.finish(300_000);
+        assertEquals(List.of("kept", "keptCall"), exported.operations());
+    }
+
+    @Test
+    public void lateSpansOfKeptTracesNeverLost () throws InterruptedException {
+        var exported = new FakeReporter();
+        var tracer = tracer(new TailSamplingReporter(exported, 0, 1024)); // all kept
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < 100; ++i) {
+            var request = server(tracer, "request");
+            var call = client(tracer, request, "call");
+            threads.add(new Thread(() -> call.finish(10)));
+            threads.add(new Thread(() -> request.finish(10)));
+        }
+        for (var thread : threads)
+            thread.start();
+        for (var thread : threads)
+            thread.join();
+        assertEquals(200, exported.spans.size());
+    }
+
+    @Test
+    public void lazyTagsComputedOnExportOnly () {
+        var exported = new FakeReporter();
+        var tracer = tracer(new TailSamplingReporter(exported, 100, 16));
+        var computed = new AtomicInteger();
+
+        var dropped = server(tracer, "dropped");
+        LazyTags.set(dropped, "costs", () -> computed.incrementAndGet());
+        dropped.finish(1_000);
+        assertEquals(0, computed.get());
+
+        var kept = server(tracer, "kept");
+        LazyTags.set(kept, "costs", () -> computed.incrementAndGet());
+        assertEquals(0, computed.get());
+        kept.finish(200_000);
+        assertEquals(1, computed.get());
+        assertEquals("1", exported.spans.get(0).getTags().get("costs"));
+    }
+
+    @Test
+    public void disabledExportsEverySpanWithLazyTags () {
+        var exported = new FakeReporter();
+        var tracer = tracer(new TailSamplingReporter(exported));
+        var request = server(tracer, "request");
+        LazyTags.set(request, "solution", () -> "[1.0]");
+        request.finish(1);
+        assertEquals(List.of("request"), exported.operations());
+        assertEquals("[1.0]", exported.spans.get(0).getTags().get("solution"));
+    }
+
+    @Test
+    public void lazyTagsOfUnsampledSpansNeverComputed () {
+        var exported = new FakeReporter();
+        var tracer = new JaegerTracer.Builder("meow")
+            .withReporter(new TailSamplingReporter(exported))
+            .withSampler(new ConstSampler(false))
+            .build();
+        var computed = new AtomicInteger();
+        var request = server(tracer, "request");
+        LazyTags.set(request, "costs", () -> computed.incrementAndGet());
+        LazyTags.apply(request);
+        request.finish(1);
+        assertEquals(0, computed.get());
+        assertFalse(exported.spans.contains(request));
+    }
+
+}
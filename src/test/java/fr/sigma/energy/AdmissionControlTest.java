@@ -0,0 +1,110 @@
+package fr.sigma.energy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class AdmissionControlTest {
+
+    private static LocalEnergyData data () {
+        var data = new LocalEnergyData(10, 3, 0.);
+        data.addEnergyData(new Double[]{1.}, 10.);
+        data.addEnergyData(new Double[]{2.}, 50.);
+        data.addEnergyData(new Double[]{3.}, 90.);
+        return data;
+    }
+
+    @Test
+    public void predictKnownThenAverage () {
+        var data = data();
+        assertEquals(50., AdmissionControl.predict(data, new Double[]{2.}));
+        assertEquals(50., AdmissionControl.predict(data, new Double[]{42.}));
+        assertEquals(0., AdmissionControl.predict(new LocalEnergyData(10, 3), new Double[]{1.}));
+    }
+
+    @Test
+    public void degradeBeyondCost () {
+        var data = data();
+        var admission = new AdmissionControl(0, 100., 0, 0.);
+        var first = admission.enter(data);
+        assertArrayEquals(new Double[]{3.}, first.admit(new Double[]{3.})); // alone
+        var second = admission.enter(data);
+        assertArrayEquals(new Double[]{1.}, second.admit(new Double[]{2.})); // 90+50
+        assertTrue(second.isDegraded());
+        assertEquals(100., admission.getInFlightCost(), 1e-9);
+
+        first.close();
+        first.close(); // once only
+        var third = admission.enter(data);
+        assertArrayEquals(new Double[]{2.}, third.admit(new Double[]{2.})); // 10+50
+        assertFalse(third.isDegraded());
+        second.close();
+        third.close();
+        assertEquals(0, admission.getInFlight());
+        assertEquals(0., admission.getInFlightCost());
+    }
+
+    @Test
+    public void rejectBeyondInFlight () {
+        var data = data();
+        var admission = new AdmissionControl(1, 0., 2, 0.);
+        var first = admission.enter(data);
+        first.admit(new Double[]{3.});
+        var second = admission.enter(data);
+        assertNotNull(second);
+        assertArrayEquals(new Double[]{1.}, second.admit(new Double[]{3.}));
+        assertNull(admission.enter(data));
+        second.close();
+        assertNotNull(admission.enter(data));
+    }
+
+    @Test
+    public void nothingKnownNothingDegraded () {
+        var data = new LocalEnergyData(10, 3);
+        var admission = new AdmissionControl(1, 1., 0, 0.);
+        admission.enter(data);
+        var second = admission.enter(data);
+        assertArrayEquals(new Double[]{7.}, second.admit(new Double[]{7.}));
+        assertFalse(second.isDegraded());
+    }
+
+    @Test
+    public void admitWhileDataIsEvicted () throws InterruptedException {
+        var data = new LocalEnergyData(3, 3, 0.);
+        var admission = new AdmissionControl(1, 1., 0, 0.);
+        var isOver = new AtomicBoolean();
+        var failure = new AtomicReference<Throwable>();
+        var writer = new Thread(() -> {
+                for (int i = 0; i < 100_000; ++i) // known args come and go
+                    data.addEnergyData(new Double[]{(double) (i % 7)}, (i * 31) % 97);
+                isOver.set(true);
+            });
+        var reader = new Thread(() -> {
+                try {
+                    while (!isOver.get()) {
+                        var ticket = admission.enter(data);
+                        ticket.admit(new Double[]{(double) (ticket.hashCode() % 7)});
+                        ticket.close();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(0, admission.getInFlight());
+    }
+
+}
@@ -1,5 +1,9 @@
 package fr.sigma.energy;
 
+import fr.sigma.structures.MappedCountingBloomFilter;
+
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
     
@@ -52,5 +56,30 @@ public class ArgsFilterTest {
         stop = filter.isTriedEnough(args);
         assert(stop);
     }
+
+    @Test
+    public void mappedAboveThreshAfterRestart () throws IOException {
+        var file = Files.createTempDirectory("filter").resolve("box.filter");
+        var mapped = new MappedCountingBloomFilter(file, 100, 0.01);
+        var filter = new ArgsFilter(mapped, 2);
+        Double[] args = {42.};
+        filter.tryArgs(args);
+        assert(!filter.isTriedEnough(args));
+        mapped.close();
+
+        var remapped = new MappedCountingBloomFilter(file, 100, 0.01);
+        filter = new ArgsFilter(remapped, 2);
+        assert(filter.isPersistent());
+        assert(filter.isRestored());
+        filter.tryArgs(args);
+        assert(filter.isTriedEnough(args));
+        remapped.close();
+
+        var resized = new MappedCountingBloomFilter(file, 1000, 0.01);
+        filter = new ArgsFilter(resized, 2);
+        assert(filter.isPersistent());
+        assert(!filter.isRestored()); // counts start over
+        resized.close();
+    }
     
 }
@@ -0,0 +1,80 @@
+package fr.sigma.energy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class CostSourceTest {
+
+    private static double burn (long millis) {
+        long end = System.nanoTime() + millis * 1_000_000;
+        double x = 0.;
+        while (System.nanoTime() < end)
+            x += Math.sqrt(x + 1.);
+        return x;
+    }
+
+    @Test
+    public void waitingCostsWallTimeOnly () throws InterruptedException {
+        if (!ThreadCostSource.isSupported())
+            return;
+        var wall = new WallTimeCostSource().start();
+        var thread = new ThreadCostSource(0.).start();
+        Thread.sleep(100);
+        assertTrue(wall.stop() >= 100.);
+        assertTrue(thread.stop() < 50.);
+    }
+
+    @Test
+    public void burningCostsCpuTime () {
+        if (!ThreadCostSource.isSupported())
+            return;
+        var thread = new ThreadCostSource(0.).start();
+        burn(100);
+        assertTrue(thread.stop() > 50.);
+    }
+
+    @Test
+    public void allocatingCostsItsWeight () {
+        var source = new ThreadCostSource(1000.); // 1 s per megabyte
+        var meter = source.start();
+        var garbage = new ArrayList<byte[]>();
+        for (int i = 0; i < 10; ++i)
+            garbage.add(new byte[100_000]);
+        assertTrue(meter.stop() >= garbage.size() * 100. ||
+                   source.toString().equals("thread cpu time")); // unsupported
+    }
+
+    @Test
+    public void cgroupUsageDelta () throws IOException {
+        var root = Files.createTempDirectory("cgroup");
+        assertNull(CgroupCostSource.detect(root));
+
+        Files.writeString(root.resolve("cpu.stat"), "usage_usec 1000\nuser_usec 800\n");
+        var v2 = CgroupCostSource.detect(root).start();
+        Files.writeString(root.resolve("cpu.stat"), "usage_usec 6000\nuser_usec 5000\n");
+        assertEquals(5., v2.stop(), 1e-9);
+
+        var rootV1 = Files.createTempDirectory("cgroup");
+        Files.createDirectories(rootV1.resolve("cpuacct"));
+        Files.writeString(rootV1.resolve("cpuacct/cpuacct.usage"), "2000000\n");
+        var v1 = CgroupCostSource.detect(rootV1).start();
+        Files.writeString(rootV1.resolve("cpuacct/cpuacct.usage"), "9000000\n");
+        assertEquals(7., v1.stop(), 1e-9);
+    }
+
+    @Test
+    public void unknownKindIsThreadOrWall () {
+        var source = CostSource.of("whatever", 0.);
+        assertTrue(source instanceof ThreadCostSource || source instanceof WallTimeCostSource);
+        assertTrue(CostSource.of("wall", 0.) instanceof WallTimeCostSource);
+    }
+
+}
@@ -1,5 +1,9 @@
 package fr.sigma.energy;
 
+import fr.sigma.structures.MappedCountingBloomFilter;
+
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.TreeMap;
 import java.util.ArrayList;
 
@@ -7,8 +11,12 @@ import org.apache.commons.lang3.tuple.Triple;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 
@@ -84,6 +92,45 @@ public class EnergyAwarenessTest {
 
 
     
+    @Test
+    public void test_combination_bounded () {
+        TreeRangeSet<Double> r1 = TreeRangeSet.create();
+        TreeRangeSet<Double> r2 = TreeRangeSet.create();
+        r1.add(Range.closed(0.,1.));
+        r1.add(Range.closed(10.,11.));
+        r1.add(Range.closed(100.,101.));
+        r2.add(Range.closed(0.,1.));
+        r2.add(Range.closed(3.,4.));
+        // exact: [0,2] [3,5] [10,12] [13,15] [100,102] [103,105]
+        assertEquals(6, EnergyAwareness._combination(r1, r2).asRanges().size());
+        // nearly adjacent
+        var merged = EnergyAwareness._combination(r1, r2, Integer.MAX_VALUE, 1.);
+        assertEquals(3, merged.asRanges().size());
+        assert(merged.encloses(Range.closed(0., 5.)));
+        // capped, largest gaps are kept
+        var capped = EnergyAwareness._combination(r1, r2, 2, 0.);
+        TreeRangeSet<Double> expected = TreeRangeSet.create();
+        expected.add(Range.closed(0., 15.));
+        expected.add(Range.closed(100., 105.));
+        assert(capped.enclosesAll(expected));
+        assert(expected.enclosesAll(capped));
+    }
+
+    @Test
+    public void test_combination_single_range () {
+        TreeRangeSet<Double> r1 = TreeRangeSet.create();
+        TreeRangeSet<Double> r2 = TreeRangeSet.create();
+        r1.add(Range.closed(0.,1.));
+        r1.add(Range.closed(10.,11.));
+        r2.add(Range.closed(0.,1.));
+        r2.add(Range.closed(3.,4.));
+        // every gap filled
+        var single = EnergyAwareness._combination(r1, r2, 1, 0.);
+        assertEquals(1, single.asRanges().size());
+        assert(single.encloses(Range.closed(0., 15.)));
+        assertEquals(Range.closed(0., 15.), single.span());
+    }
+
     @Test
     public void testCombineIntervalsOfNothing () {
         var ea = new EnergyAwareness("meow", 10, 4);
@@ -97,15 +144,15 @@ public class EnergyAwarenessTest {
         remoteCosts.add(Range.closed(13., 16.));
         ea.updateRemote("woof", remoteCosts);
         var toSend = ea.getIntervals();
-        assert(remoteCosts.enclosesAll(toSend));
+        assert(remoteCosts.enclosesAll(toSend.toRangeSet()));
         
         var ea2 = new EnergyAwareness("anotherService", 10, 4);
         ea2.updateRemote("waf", remoteCosts);
         ea2.updateRemote("meow", toSend);
         TreeRangeSet<Double> expected = TreeRangeSet.create();
         expected.add(Range.closed(26., 32.));
-        assert(expected.enclosesAll(ea2.getIntervals()));
-        assert(ea2.getIntervals().enclosesAll(expected));        
+        assert(expected.enclosesAll(ea2.getIntervals().toRangeSet()));
+        assert(ea2.getIntervals().toRangeSet().enclosesAll(expected));        
     }
 
 
@@ -209,6 +256,313 @@ public class EnergyAwarenessTest {
         assertEquals(50, (double) objectives2.get("waf")); // 40+10
     }
 
+    @Test
+    public void objectivesByProvenanceSumToObjective () {
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setProvenanceEnabled(true);
+        ea.addEnergyData(new Double[0], 0.);
+
+        TreeRangeSet<Double> remoteRangeSet1 = TreeRangeSet.create();
+        remoteRangeSet1.add(Range.closed(10., 20.));
+        remoteRangeSet1.add(Range.closed(25., 40.));
+        ea.updateRemote("woof", remoteRangeSet1);
+        TreeRangeSet<Double> remoteRangeSet2 = TreeRangeSet.create();
+        remoteRangeSet2.add(Range.closed(40., 60.));
+        remoteRangeSet2.add(Range.closed(80., 110.));
+        ea.updateRemote("waf", remoteRangeSet2);
+
+        for (double objective : new double[]{55., 85., 100., 140.}) {
+            var objectives = ea.getObjectives(objective, false);
+            assertEquals(objective, objectives.values().stream()
+                         .mapToDouble(d -> d).sum(), 1e-9);
+            assertEquals(0., (double) objectives.get("meow"));
+            assertTrue(remoteRangeSet1.contains(objectives.get("woof")));
+            assertTrue(remoteRangeSet2.contains(objectives.get("waf")));
+        }
+    }
+
+    @Test
+    public void outOfTimeGreedyThenLastDistribution () {
+        var registry = new SimpleMeterRegistry();
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setMeterRegistry(registry);
+        ea.setSolverTimeBudget(1e-6); // 1 ns, always out of time
+        ea.addEnergyData(new Double[0], 0.);
+        for (int i = 0; i < 50; ++i) {
+            TreeRangeSet<Double> remoteRangeSet = TreeRangeSet.create();
+            remoteRangeSet.add(Range.closed(10., 20.));
+            remoteRangeSet.add(Range.closed(25., 40.));
+            ea.updateRemote("woof" + i, remoteRangeSet);
+        }
+
+        // nothing to reuse yet, the greedy solution
+        var objectives = ea.getObjectives(1500., false);
+        assertEquals(1, registry.find("box.energy.mckp").tag("exact", "false").timer().count());
+        assertTrue(objectives.values().stream().mapToDouble(d -> d).sum() <= 1500. + 1e-9);
+        for (int i = 0; i < 50; ++i)
+            assertTrue(objectives.get("woof" + i) >= 10.);
+
+        // then the last distribution, scaled without solving
+        var scaled = ea.getObjectives(750., false);
+        assertEquals(1, registry.find("box.energy.mckp").tag("exact", "false").timer().count());
+        for (var func : objectives.keySet())
+            assertEquals(objectives.get(func) / 2., scaled.get(func), 1e-9);
+    }
+
+    @Test
+    public void objectivesByProvenanceNeverAboveObjective () {
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setProvenanceEnabled(true);
+        ea.addEnergyData(new Double[0], 0.);
+
+        TreeRangeSet<Double> remoteRangeSet1 = TreeRangeSet.create();
+        remoteRangeSet1.add(Range.closed(10., 20.));
+        remoteRangeSet1.add(Range.closed(50., 60.));
+        ea.updateRemote("woof", remoteRangeSet1);
+        TreeRangeSet<Double> remoteRangeSet2 = TreeRangeSet.create();
+        remoteRangeSet2.add(Range.closed(5., 5.));
+        ea.updateRemote("waf", remoteRangeSet2);
+
+        // below the lowest combined range [15, 25]: nothing fits
+        var objectives = ea.getObjectives(10., false);
+        for (var objective : objectives.values())
+            assertEquals(-1., (double) objective);
+
+        // in the gap, closer to [55, 65] above: [15, 25] below
+        objectives = ea.getObjectives(50., false);
+        assertEquals(20., (double) objectives.get("woof"));
+        assertEquals(5., (double) objectives.get("waf"));
+    }
+
+    @Test
+    public void freshMappedFilterWarmedFromStore () throws IOException {
+        var directory = Files.createTempDirectory("store");
+        var ea = new EnergyAwareness("meow", 10, 2);
+        var store = new EnergyDataStore(directory, "meow");
+        ea.setEnergyDataStore(store);
+        ea.addEnergyData(new Double[]{1.}, 10.);
+        ea.addEnergyData(new Double[]{1.}, 12.);
+        store.close();
+
+        // the filter is enabled on restart, its file is new
+        var mapped = new MappedCountingBloomFilter(directory.resolve("meow.filter"), 100, 0.01);
+        var filter = new ArgsFilter(mapped, 2);
+        var restarted = new EnergyAwareness("meow", 10, 2);
+        restarted.setArgsFilter(filter);
+        restarted.setEnergyDataStore(new EnergyDataStore(directory, "meow"));
+        assertTrue(filter.isTriedEnough(new Double[]{1.}));
+        mapped.close();
+    }
+
+    @Test
+    public void metersOfArgsFilterAndLocalData () {
+        var registry = new SimpleMeterRegistry();
+        var ea = new EnergyAwareness("meow", 2, 4);
+        ea.setMeterRegistry(registry);
+        ea.newFunctionCall(100., new Double[]{1.});
+        ea.addEnergyData(new Double[]{1.}, 10.);
+        ea.addEnergyData(new Double[]{2.}, 20.);
+        ea.addEnergyData(new Double[]{3.}, 30.); // evicts one
+
+        assertEquals(1., registry.find("box.energy.args.filter")
+                     .tag("tried", "false").counter().count());
+        assertEquals(2., registry.find("box.energy.local.data.size").gauge().value());
+        assertEquals(1., registry.find("box.energy.local.data.evictions")
+                     .functionCounter().count());
+    }
+
+    @Test
+    public void closedMetersLeaveTheRegistry () {
+        var registry = new SimpleMeterRegistry();
+        var evicted = new EnergyAwareness("meow", 2, 4);
+        evicted.setMeterRegistry(registry, "endpoint", "/");
+        evicted.addEnergyData(new Double[]{1.}, 10.);
+        evicted.close();
+        assertNull(registry.find("box.energy.local.data.size").gauge());
+        assertNull(registry.find("box.energy.local.data.evictions").functionCounter());
+
+        var recreated = new EnergyAwareness("meow", 2, 4);
+        recreated.setMeterRegistry(registry, "endpoint", "/");
+        assertEquals(0., registry.find("box.energy.local.data.size").gauge().value());
+    }
+
+    @Test
+    public void objectivesCachedUntilIntervalsChange () {
+        var registry = new SimpleMeterRegistry();
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setMeterRegistry(registry);
+        ea.setObjectivesCache(16, 5.);
+        ea.addEnergyData(new Double[0], 0.);
+
+        TreeRangeSet<Double> remoteRangeSet1 = TreeRangeSet.create();
+        remoteRangeSet1.add(Range.closed(10., 20.));
+        remoteRangeSet1.add(Range.closed(25., 40.));
+        ea.updateRemote("woof", remoteRangeSet1);
+        TreeRangeSet<Double> remoteRangeSet2 = TreeRangeSet.create();
+        remoteRangeSet2.add(Range.closed(40., 60.));
+        remoteRangeSet2.add(Range.closed(80., 110.));
+        ea.updateRemote("waf", remoteRangeSet2);
+
+        var objectives = ea.getObjectives(100., false);
+        assertEquals(15, (double) objectives.get("woof"));
+        assertEquals(85, (double) objectives.get("waf"));
+        objectives.put("woof", 0.); // callers own their copy
+        objectives = ea.getObjectives(103., false); // rounds down to 100
+        assertEquals(15, (double) objectives.get("woof"));
+        ea.updateRemote("woof", remoteRangeSet1); // polled, unchanged
+        ea.getObjectives(101., false);
+        assertEquals(2., registry.find("box.energy.objectives.cache")
+                     .tag("hit", "true").counter().count());
+
+        TreeRangeSet<Double> remoteRangeSet3 = TreeRangeSet.create();
+        remoteRangeSet3.add(Range.closed(40., 50.));
+        ea.updateRemote("waf", remoteRangeSet3);
+        objectives = ea.getObjectives(100., false);
+        assertEquals(2., registry.find("box.energy.objectives.cache")
+                     .tag("hit", "true").counter().count());
+        assertEquals(50, (double) objectives.get("waf"));
+    }
+
+    @Test
+    public void objectivesCachedWhileLocalCostsDrift () {
+        var registry = new SimpleMeterRegistry();
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setMeterRegistry(registry);
+        ea.setObjectivesCache(16, 5.);
+        ea.addEnergyData(new Double[0], 20.);
+        TreeRangeSet<Double> remoteRangeSet = TreeRangeSet.create();
+        remoteRangeSet.add(Range.closed(10., 200.));
+        ea.updateRemote("woof", remoteRangeSet);
+
+        ea.getObjectives(100., false);
+        // as under live traffic, each request adds a fractional cost
+        for (var cost : new double[]{20.3, 19.7, 21.1, 20.9, 19.2}) {
+            ea.addEnergyData(new Double[0], cost);
+            ea.getObjectives(100., false);
+        }
+        assertEquals(5., registry.find("box.energy.objectives.cache")
+                     .tag("hit", "true").counter().count());
+
+        ea.addEnergyData(new Double[]{1.}, 80.); // a new range
+        ea.getObjectives(100., false);
+        assertEquals(5., registry.find("box.energy.objectives.cache")
+                     .tag("hit", "true").counter().count());
+        assertEquals(2., registry.find("box.energy.objectives.cache")
+                     .tag("hit", "false").counter().count());
+    }
+
+    @Test
+    public void cachedObjectivesNeverAboveObjective () {
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setObjectivesCache(16, 5.);
+        ea.addEnergyData(new Double[0], 0.);
+
+        TreeRangeSet<Double> remoteRangeSet = TreeRangeSet.create();
+        remoteRangeSet.add(Range.closed(1., 100.));
+        ea.updateRemote("woof", remoteRangeSet);
+
+        // just under 100, distributed as 95 rather than 100
+        var objectives = ea.getObjectives(99.9, false);
+        assertTrue(objectives.values().stream().mapToDouble(d -> d).sum() <= 99.9);
+        assertEquals(95., (double) objectives.get("woof"));
+        // below a quantum, exact
+        assertEquals(4., (double) ea.getObjectives(4., false).get("woof"));
+    }
+
+    @Test
+    public void planMatchesObjectivesWithoutTryingArgs () {
+        var ea = new EnergyAwareness("meow", 10, 4);
+        var filter = new ArgsFilter(1);
+        ea.setArgsFilter(filter);
+        ea.addEnergyData(new Double[0], 0.);
+
+        TreeRangeSet<Double> remoteRangeSet1 = TreeRangeSet.create();
+        remoteRangeSet1.add(Range.closed(10., 20.));
+        remoteRangeSet1.add(Range.closed(25., 40.));
+        ea.updateRemote("woof", remoteRangeSet1);
+        TreeRangeSet<Double> remoteRangeSet2 = TreeRangeSet.create();
+        remoteRangeSet2.add(Range.closed(40., 60.));
+        remoteRangeSet2.add(Range.closed(80., 110.));
+        ea.updateRemote("waf", remoteRangeSet2);
+
+        var args = new Double[]{1.};
+        var plans = ea.plan(new double[]{100., 60., -1.}, args);
+        assertEquals(3, plans.size());
+        assertEquals(ea.getObjectives(100., true), plans.get(100.).getLeft());
+        assertEquals(ea.getObjectives(60., true), plans.get(60.).getLeft());
+        assertEquals(-1., (double) plans.get(-1.).getLeft().get("waf"));
+        assertFalse(plans.get(100.).getRight());
+        assertFalse(filter.isTriedEnough(args)); // dry run
+    }
+
+    @Test
+    public void energyBudgetLowersObjectives () {
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setEnergyBudget(new EnergyBudget(1e-9, 200.)); // barely refills
+        ea.addEnergyData(new Double[0], 100.); // half of the budget
+
+        TreeRangeSet<Double> remoteRangeSet1 = TreeRangeSet.create();
+        remoteRangeSet1.add(Range.closed(10., 20.));
+        remoteRangeSet1.add(Range.closed(25., 40.));
+        ea.updateRemote("woof", remoteRangeSet1);
+        TreeRangeSet<Double> remoteRangeSet2 = TreeRangeSet.create();
+        remoteRangeSet2.add(Range.closed(40., 60.));
+        remoteRangeSet2.add(Range.closed(80., 110.));
+        ea.updateRemote("waf", remoteRangeSet2);
+
+        var objectives = ea.newFunctionCall(200., new Double[]{1.}).getLeft();
+        assertEquals(15, (double) objectives.get("woof"), 1e-6);
+        assertEquals(85, (double) objectives.get("waf"), 1e-6);
+        assertEquals(-1, (double) objectives.get("meow")); // not tried enough
+    }
+
+    @Test
+    public void unavailableRemoteExcludedNotReset () {
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.addEnergyData(new Double[0], 0.);
+
+        TreeRangeSet<Double> remoteRangeSet1 = TreeRangeSet.create();
+        remoteRangeSet1.add(Range.closed(10., 20.));
+        remoteRangeSet1.add(Range.closed(25., 40.));
+        ea.updateRemote("woof", remoteRangeSet1);
+        TreeRangeSet<Double> remoteRangeSet2 = TreeRangeSet.create();
+        remoteRangeSet2.add(Range.closed(40., 60.));
+        remoteRangeSet2.add(Range.closed(80., 110.));
+        ea.updateRemote("waf", remoteRangeSet2);
+        var combined = ea.combineIntervals();
+
+        ea.setRemoteAvailable("waf", false);
+        assertFalse(ea.isRemoteAvailable("waf"));
+        assertEquals(-1, (double) ea.getObjectives(100., false).get("waf"));
+        assertTrue(ea.combineIntervals().max() <= 40.);
+
+        ea.setRemoteAvailable("waf", true);
+        assertEquals(combined, ea.combineIntervals());
+        var objectives = ea.getObjectives(100., false);
+        assertEquals(15, (double) objectives.get("woof"));
+        assertEquals(85, (double) objectives.get("waf"));
+    }
+
+    @Test
+    public void objectiveWithinTimeBudget () {
+        var ea = new EnergyAwareness("meow", 10, 4);
+        ea.setSolverTimeBudget(1000.);
+        ea.addEnergyData(new Double[0], 0.);
+
+        TreeRangeSet<Double> remoteRangeSet1 = TreeRangeSet.create();
+        remoteRangeSet1.add(Range.closed(10., 20.));
+        remoteRangeSet1.add(Range.closed(25., 40.));
+        ea.updateRemote("woof", remoteRangeSet1);
+        TreeRangeSet<Double> remoteRangeSet2 = TreeRangeSet.create();
+        remoteRangeSet2.add(Range.closed(40., 60.));
+        remoteRangeSet2.add(Range.closed(80., 110.));       
+        ea.updateRemote("waf", remoteRangeSet2);
+
+        var objectives = ea.getObjectives(100., false);
+        assertEquals(15, (double) objectives.get("woof")); // 10+5
+        assertEquals(85, (double) objectives.get("waf")); // 80+5
+    }
+
     @Test
     public void objectiveWithoutSatisfyingSolution () {
 	// i.e. every service cannot run with its minimal requirement
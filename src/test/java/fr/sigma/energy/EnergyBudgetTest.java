@@ -0,0 +1,55 @@
+package fr.sigma.energy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+
+public class EnergyBudgetTest {
+
+    @Test
+    public void fullBucketKeepsObjectives () {
+        var clock = new AtomicLong(0);
+        var budget = new EnergyBudget(10., 100., clock::get);
+        assertEquals(1., budget.getFactor());
+        assertEquals(50., budget.adjust(50.));
+        assertEquals(-1., budget.adjust(-1.)); // no objective, untouched
+    }
+
+    @Test
+    public void spikeTightensThenRefillRelaxes () {
+        var clock = new AtomicLong(0);
+        var budget = new EnergyBudget(10., 100., clock::get);
+        for (int i = 0; i < 6; ++i)
+            budget.consume(10.);
+        assertEquals(40., budget.getTokens(), 1e-9);
+        assertEquals(20., budget.adjust(50.), 1e-9);
+
+        clock.set(3_000_000_000L); // 3 s, 30 refilled
+        assertEquals(.7, budget.getFactor(), 1e-9);
+        clock.set(60_000_000_000L);
+        assertEquals(100., budget.getTokens(), 1e-9); // up to burst only
+        assertEquals(60., budget.getConsumed(), 1e-9);
+    }
+
+    @Test
+    public void debtLowersObjectivesToZero () {
+        var clock = new AtomicLong(0);
+        var budget = new EnergyBudget(10., 100., clock::get);
+        budget.consume(150.);
+        assertEquals(0., budget.adjust(50.));
+        clock.set(5_000_000_000L); // debt repaid
+        assertEquals(0., budget.adjust(50.));
+        clock.set(6_000_000_000L);
+        assertEquals(5., budget.adjust(50.), 1e-9);
+    }
+
+    @Test
+    public void rateMustBePositive () {
+        assertThrows(IllegalArgumentException.class, () -> new EnergyBudget(0., 10.));
+    }
+
+}
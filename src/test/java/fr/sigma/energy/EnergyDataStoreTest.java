@@ -0,0 +1,100 @@
+package fr.sigma.energy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class EnergyDataStoreTest {
+
+    private static LocalEnergyData learn (EnergyDataStore store, int from, int to)
+        throws IOException {
+        var data = new LocalEnergyData(10, 3);
+        store.restore(data, null);
+        for (int i = from; i < to; ++i) {
+            Double[] args = {(double) (i % 4)};
+            data.addEnergyData(args, 100. * (i % 4) + i);
+            store.append(args, 100. * (i % 4) + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void restoreSnapshotThenJournal () throws IOException {
+        var directory = Files.createTempDirectory("store");
+        var store = new EnergyDataStore(directory, "box");
+        var data = learn(store, 0, 8);
+        assertTrue(store.snapshot(data));
+        for (int i = 8; i < 10; ++i) { // journal only
+            Double[] args = {(double) (i % 4)};
+            data.addEnergyData(args, 100. * (i % 4) + i);
+            store.append(args, 100. * (i % 4) + i);
+        }
+        store.close();
+
+        var restored = new LocalEnergyData(10, 3);
+        var filter = new ArgsFilter(3);
+        var reopened = new EnergyDataStore(directory, "box");
+        assertEquals(10, reopened.restore(restored, filter));
+        assertEquals(data.getAvgCosts().toString(), restored.getAvgCosts().toString());
+        assertTrue(filter.isTriedEnough(new Double[]{0.}));
+        assertFalse(filter.isTriedEnough(new Double[]{2.}));
+        reopened.close();
+    }
+
+    @Test
+    public void snapshotOnlyWhenChanged () throws IOException {
+        var store = new EnergyDataStore(Files.createTempDirectory("store"), "box");
+        var data = learn(store, 0, 4);
+        assertTrue(store.snapshot(data));
+        assertFalse(store.snapshot(data));
+        assertEquals(4 + 8, Files.size(store.getJournalPath())); // header only
+        store.close();
+    }
+
+    @Test
+    public void tornJournalIsTruncated () throws IOException {
+        var directory = Files.createTempDirectory("store");
+        var store = new EnergyDataStore(directory, "box");
+        var data = learn(store, 0, 3);
+        store.close();
+        long valid = Files.size(store.getJournalPath());
+        try (var channel = FileChannel.open(store.getJournalPath(), StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 20, 1, 2})); // crashed mid-record
+        }
+
+        var restored = new LocalEnergyData(10, 3);
+        var reopened = new EnergyDataStore(directory, "box");
+        assertEquals(3, reopened.restore(restored, null));
+        assertEquals(data.getAvgCosts().toString(), restored.getAvgCosts().toString());
+        assertEquals(valid, Files.size(store.getJournalPath()));
+        reopened.close();
+    }
+
+    @Test
+    public void corruptedSnapshotIsIgnored () throws IOException {
+        var directory = Files.createTempDirectory("store");
+        var store = new EnergyDataStore(directory, "box");
+        store.snapshot(learn(store, 0, 4));
+        store.close();
+        var bytes = Files.readAllBytes(store.getSnapshotPath());
+        bytes[bytes.length / 2] ^= 0xFF;
+        Files.write(store.getSnapshotPath(), bytes);
+
+        var restored = new LocalEnergyData(10, 3);
+        var reopened = new EnergyDataStore(directory, "box");
+        assertEquals(0, reopened.restore(restored, null));
+        assertEquals(0, restored.size());
+        reopened.close();
+    }
+
+}
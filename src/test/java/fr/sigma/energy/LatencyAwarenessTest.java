@@ -0,0 +1,100 @@
+package fr.sigma.energy;
+
+import fr.sigma.structures.IntervalSet;
+import fr.sigma.structures.Pair;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class LatencyAwarenessTest {
+
+    /**
+     * A box lasting 10 or 40 ms that calls a at half of its run, and b
+     * at its end.
+     */
+    private static LatencyAwareness box () {
+        var address_time_list = new ArrayList<Pair<String, Integer>>();
+        address_time_list.add(new Pair("a", 50));
+        address_time_list.add(new Pair("b", 100));
+        var la = new LatencyAwareness("meow", address_time_list, 10, 100, 1, 0.);
+        la.addLatencyData(new Double[]{1.}, 10.);
+        la.addLatencyData(new Double[]{2.}, 40.);
+        la.updateRemote("a", IntervalSet.of(20., 30.));
+        la.updateRemote("b", IntervalSet.of(5., 5.));
+        return la;
+    }
+
+    @Test
+    public void combineAlongCriticalPath () {
+        var la = box();
+        // 10 ms: a ends in [5+20, 5+30], b at 10+5; 40 ms: a ends in
+        // [20+20, 20+30], b at 40+5
+        assertEquals(IntervalSet.of(new double[]{25., 45.}, new double[]{35., 50.}),
+                     la.combineIntervals());
+    }
+
+    @Test
+    public void unavailableRemoteOffCriticalPath () {
+        var la = box();
+        la.setRemoteAvailable("a", false);
+        assertEquals(IntervalSet.of(new double[]{15., 45.}, new double[]{15., 45.}),
+                     la.combineIntervals());
+        la.setRemoteAvailable("a", true);
+        assertEquals(IntervalSet.of(new double[]{25., 45.}, new double[]{35., 50.}),
+                     la.combineIntervals());
+    }
+
+    @Test
+    public void nothingKnownNothingCombined () {
+        var address_time_list = new ArrayList<Pair<String, Integer>>();
+        address_time_list.add(new Pair("a", 50));
+        var la = new LatencyAwareness("meow", address_time_list, 10, 100, 1, 0.);
+        assertTrue(la.combineIntervals().isEmpty());
+        la.updateRemote("a", IntervalSet.of(20., 30.));
+        assertEquals(IntervalSet.of(20., 30.), la.combineIntervals());
+    }
+
+    @Test
+    public void longestLocalRunThatLeavesTimeToRemotes () {
+        var la = box();
+        var ds = la.newFunctionCall(50., new Double[]{1.});
+        assertArrayEquals(new Double[]{2.}, ds.getMiddle());
+        assertTrue(ds.getRight());
+        assertEquals(40., (double) ds.getLeft().get("meow"));
+        assertEquals(30., (double) ds.getLeft().get("a"));
+        assertEquals(10., (double) ds.getLeft().get("b"));
+
+        ds = la.newFunctionCall(30., new Double[]{2.}); // a would start too late
+        assertArrayEquals(new Double[]{1.}, ds.getMiddle());
+        assertEquals(25., (double) ds.getLeft().get("a"));
+        assertEquals(20., (double) ds.getLeft().get("b"));
+    }
+
+    @Test
+    public void missedDeadlineRunsFastest () {
+        var la = box();
+        var ds = la.newFunctionCall(5., new Double[]{2.});
+        assertArrayEquals(new Double[]{1.}, ds.getMiddle());
+        assertEquals(0., (double) ds.getLeft().get("a"));
+        assertEquals(0., (double) ds.getLeft().get("b"));
+    }
+
+    @Test
+    public void untriedArgsAreKept () {
+        var la = box();
+        var ds = la.newFunctionCall(50., new Double[]{3.});
+        assertArrayEquals(new Double[]{3.}, ds.getMiddle());
+        assertFalse(ds.getRight());
+        assertEquals(50., (double) ds.getLeft().get("a")); // unknown, instantaneous
+        assertEquals(-1., (double) la.newFunctionCall(-1., new Double[]{3.})
+                     .getLeft().get("a"));
+    }
+
+}
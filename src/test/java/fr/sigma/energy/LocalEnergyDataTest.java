@@ -53,7 +53,7 @@ public class LocalEnergyDataTest {
         
         var intervals = led.getIntervals();
         assert(!intervals.isEmpty());
-        assert(intervals.asRanges().size() <= led.getMaxSize());
+        assert(intervals.size() <= led.getMaxSize());
     }
 
 
@@ -0,0 +1,120 @@
+package fr.sigma.energy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class PowercapCostSourceTest {
+
+    /**
+     * A fake sysfs with one package, its core subzone and psys; and a
+     * fake /proc/stat.
+     */
+    private static Path fakeTree () throws IOException {
+        var root = Files.createTempDirectory("powercap");
+        zone(root, "intel-rapl:0", "package-0", 1_000_000, 10_000_000);
+        zone(root, "intel-rapl:0:0", "core", 500_000, 10_000_000);
+        zone(root, "intel-rapl:1", "psys", 7_000_000, 10_000_000);
+        stat(root, 1000, 5000);
+        return root;
+    }
+
+    private static void zone (Path root, String zone, String name,
+                              long energy, long range) throws IOException {
+        Files.createDirectories(root.resolve(zone));
+        Files.writeString(root.resolve(zone).resolve("name"), name + "\n");
+        Files.writeString(root.resolve(zone).resolve("energy_uj"), energy + "\n");
+        Files.writeString(root.resolve(zone).resolve("max_energy_range_uj"), range + "\n");
+    }
+
+    private static void energy (Path root, String zone, long energy) throws IOException {
+        Files.writeString(root.resolve(zone).resolve("energy_uj"), energy + "\n");
+    }
+
+    private static void stat (Path root, long user, long idle) throws IOException {
+        // cpu user nice system idle iowait irq softirq steal guest guest_nice
+        Files.writeString(root.resolve("stat"),
+                          String.format("cpu  %s 0 0 %s 10 0 0 0 0 0\ncpu0 %s 0 0 %s 10 0 0 0 0 0\n",
+                                        user, idle, user, idle));
+    }
+
+    @Test
+    public void energyIsSharedByCpuTime () throws IOException {
+        var root = fakeTree();
+        var cpu = new AtomicLong(0);
+        var source = new PowercapCostSource(root, root.resolve("stat"), cpu::get, () -> 0L, 1000);
+        var meter = source.start();
+
+        energy(root, "intel-rapl:0", 3_000_000); // 2 J
+        energy(root, "intel-rapl:0:0", 2_000_000); // part of package, ignored
+        energy(root, "intel-rapl:1", 9_000_000); // includes package, ignored
+        stat(root, 1100, 5000); // 100 ticks busy, i.e., 1 s
+        cpu.set(500_000_000); // half of it
+
+        assertEquals(1., meter.stop(), 1e-9);
+    }
+
+    @Test
+    public void countersWrapAround () throws IOException {
+        var root = fakeTree();
+        energy(root, "intel-rapl:0", 9_500_000);
+        var cpu = new AtomicLong(0);
+        var source = new PowercapCostSource(root, root.resolve("stat"), cpu::get, () -> 0L, 1000);
+        var meter = source.start();
+
+        energy(root, "intel-rapl:0", 500_000); // 1 J, wrapped at 10 J
+        stat(root, 1100, 5000);
+        cpu.set(1_000_000_000);
+
+        assertEquals(1., meter.stop(), 1e-9);
+        assertEquals(1_000_000, PowercapCostSource.delta(9_500_000, 500_000, 10_000_000));
+    }
+
+    @Test
+    public void requestsShorterThanATickShareTheWindow () throws IOException {
+        var root = fakeTree();
+        var cpu = new AtomicLong(0);
+        var clock = new AtomicLong(0);
+        var source = new PowercapCostSource(root, root.resolve("stat"), cpu::get, clock::get, 1000);
+
+        // 4 cpus busy during 500 ms, 50 ms of which for the request
+        var meter = source.start();
+        energy(root, "intel-rapl:0", 6_000_000); // 5 J
+        stat(root, 1200, 5000); // 2 s busy
+        cpu.set(50_000_000);
+        clock.set(500_000_000);
+        assertEquals(.125, meter.stop(), 1e-9); // 50 ms at 2.5 J/s
+
+        // 5 ms, within a tick: no busy time, yet not the whole 0.05 J
+        meter = source.start();
+        energy(root, "intel-rapl:0", 6_050_000);
+        cpu.set(55_000_000);
+        clock.set(505_000_000);
+        assertEquals(.005 * 5.05 / 2., meter.stop(), 1e-9); // 2.525 J/s
+
+        // the first request left the window
+        meter = source.start();
+        energy(root, "intel-rapl:0", 7_050_000); // 1 J
+        stat(root, 1300, 5000); // 1 s busy
+        cpu.set(155_000_000);
+        clock.set(1_600_000_000);
+        assertEquals(.1, meter.stop(), 1e-9); // 1 J/s
+    }
+
+    @Test
+    public void noZoneFails () throws IOException {
+        var root = Files.createTempDirectory("powercap");
+        assertThrows(IOException.class,
+                     () -> new PowercapCostSource(root, root.resolve("stat")));
+        assertTrue(CostSource.of("powercap", 0., root) instanceof WallTimeCostSource);
+    }
+
+}
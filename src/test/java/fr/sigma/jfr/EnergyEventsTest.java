@@ -0,0 +1,52 @@
+package fr.sigma.jfr;
+
+import fr.sigma.energy.EnergyAwareness;
+
+import java.nio.file.Files;
+import java.util.TreeSet;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class EnergyEventsTest {
+
+    @Test
+    public void energyAwarenessEmitsEvents () throws Exception {
+        var file = Files.createTempFile("energy", ".jfr");
+        try (var recording = new Recording()) {
+            for (var name : new String[]{"fr.sigma.NewFunctionCall", "fr.sigma.GetObjectives",
+                                         "fr.sigma.MCKPSolve", "fr.sigma.AddEnergyData"})
+                recording.enable(name).withoutThreshold();
+            recording.start();
+
+            var ea = new EnergyAwareness("meow", 10, 0); // always tried enough
+            ea.addEnergyData(new Double[]{1.}, 10.);
+            ea.addEnergyData(new Double[]{2.}, 50.);
+            ea.newFunctionCall(40., new Double[]{1.});
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        var names = new TreeSet<String>();
+        for (var event : RecordingFile.readAllEvents(file)) {
+            names.add(event.getEventType().getName());
+            if (event.getEventType().getName().equals("fr.sigma.NewFunctionCall")) {
+                assertEquals(40., event.getDouble("objective"));
+                assertEquals("[2.0]", event.getString("solution"));
+                assertTrue(event.getBoolean("isRewritten"));
+            }
+        }
+        Files.delete(file);
+        assertTrue(names.contains("fr.sigma.NewFunctionCall"));
+        assertTrue(names.contains("fr.sigma.GetObjectives"));
+        assertTrue(names.contains("fr.sigma.MCKPSolve"));
+        assertTrue(names.contains("fr.sigma.AddEnergyData"));
+    }
+
+}
@@ -0,0 +1,93 @@
+package fr.sigma.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+
+/**
+ * Thread-safe histogram of non-negative values, e.g., latencies in
+ * microseconds. Values below 32 are exact; beyond, each power of 2 is
+ * split in 16 linear buckets, i.e., a relative error below 1/16.
+ */
+public class LatencyHistogram {
+
+    private static final int EXACT = 32;
+    private static final int SUB_BUCKETS = 16; // per power of 2
+    private static final int SUB_BITS = 4;
+
+    private final AtomicLongArray counts =
+        new AtomicLongArray(EXACT + (63 - 5) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    static int index (long value) {
+        if (value < EXACT)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 5
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - 5) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value that falls in the bucket.
+     */
+    static long upperBound (int index) {
+        if (index < EXACT)
+            return index;
+        int exponent = (index - EXACT) / SUB_BUCKETS + 5;
+        long sub = (index - EXACT) % SUB_BUCKETS;
+        long lower = (1L << exponent) + (sub << (exponent - SUB_BITS));
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    public void record (long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount () { return count.get(); }
+    public long getMax () { return max.get(); }
+
+    public double getMean () {
+        long n = count.get();
+        return n == 0 ? 0. : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return a value such that at least percentile % of recorded
+     * values are lower or equal, 0 if nothing is recorded.
+     */
+    public long getValueAtPercentile (double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100. * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the number of values in ]from, to].
+     */
+    public long countBetween (long from, long to) {
+        long result = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            long upper = upperBound(i);
+            if (upper > from && upper <= to)
+                result += counts.get(i);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,41 @@
+package fr.sigma.load;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram () {
+        var histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void bucketsContainTheirValues () {
+        for (long value : new long[]{0, 1, 31, 32, 33, 47, 1000, 123456789, Long.MAX_VALUE / 2}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.upperBound(index));
+            assertTrue(index == 0 || value > LatencyHistogram.upperBound(index - 1));
+        }
+    }
+
+    @Test
+    public void percentilesWithinRelativeError () {
+        var histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; ++value)
+            histogram.record(value);
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 1e-9);
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue(5000 <= p50 && p50 <= 5000 * 17 / 16);
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+        assertEquals(10000, histogram.countBetween(0, Long.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,298 @@
+package fr.sigma.load;
+
+import fr.sigma.App;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+
+/**
+ * Boots a random tree of boxes in this process, on random local
+ * ports, then drives its root with an open-loop load: requests are
+ * sent at a fixed rate whatever the response times, and latencies
+ * are measured from the intended send time, so a stalled box does
+ * not hide the requests it delays (coordinated omission).
+ *
+ * Reports latency percentiles, throughput, and how close the actual
+ * cost of requests, i.e., the handling time summed over all boxes,
+ * is to their energy objective.
+ *
+ * Options are given as --key=value, e.g.,
+ * --boxes=7 --fanout=2 --rate=20 --warmup=30 --duration=60
+ * --objectives=200,400 --seed=42
+ */
+public class LoadHarness {
+
+    private final TreeMap<String, String> options = new TreeMap<>();
+    private final ArrayList<ConfigurableApplicationContext> contexts = new ArrayList<>();
+    private final ConcurrentHashMap<String, DoubleAdder> costs = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public LoadHarness (String[] args) {
+        for (String arg : args) {
+            // format --<key>=<value>
+            String[] key_value = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(key_value[0], key_value.length > 1 ? key_value[1] : "true");
+        }
+    }
+
+    private int intOption (String key, int defaultValue) {
+        return options.containsKey(key) ? Integer.parseInt(options.get(key)) : defaultValue;
+    }
+
+    private double doubleOption (String key, double defaultValue) {
+        return options.containsKey(key) ? Double.parseDouble(options.get(key)) : defaultValue;
+    }
+
+    public static void main (String[] args) throws Exception {
+        var harness = new LoadHarness(args);
+        try {
+            var root = harness.boot();
+            harness.run(root);
+        } finally {
+            harness.shutdown();
+        }
+    }
+
+
+
+    /**
+     * Generates a tree where box i calls children among boxes
+     * i+1…n-1, then starts boxes from the leaves up since parents
+     * need the ports of their children.
+     * @return the url of the root box.
+     */
+    public String boot () {
+        int nbBoxes = intOption("boxes", 7);
+        int fanout = Math.max(1, intOption("fanout", 2));
+        var random = new Random(intOption("seed", 42));
+
+        var children = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < nbBoxes; ++i)
+            children.add(new ArrayList<>());
+        for (int i = 1; i < nbBoxes; ++i) {
+            int parent;
+            do { // i-1 children so far, some box has room left
+                parent = random.nextInt(i);
+            } while (children.get(parent).size() >= fanout);
+            children.get(parent).add(i);
+        }
+
+        var urls = new String[nbBoxes];
+        for (int i = nbBoxes - 1; i >= 0; --i) {
+            // cost (ms) = base + slope * args[0]
+            var coefficients = String.format("%s,%s@0",
+                                             5 + random.nextInt(20),
+                                             1 + random.nextInt(5));
+            var remoteCalls = new ArrayList<String>();
+            for (int child : children.get(i))
+                remoteCalls.add(String.format("%s@%s", urls[child], 10 + random.nextInt(80)));
+
+            var context = new SpringApplicationBuilder(App.class)
+                .web(WebApplicationType.SERVLET)
+                .properties("server.port=0",
+                            String.format("spring.application.name=box-%s", i),
+                            String.format("box.polynomes.coefficients=%s", coefficients),
+                            String.format("box.remote.calls=%s", String.join(",", remoteCalls)),
+                            String.format("box.energy.threshold.before.self.tuning.args=%s",
+                                          intOption("threshold", 4)),
+                            "box.energy.peertopeer.enable=true",
+                            "spring.main.banner-mode=off",
+                            String.format("logging.level.root=%s",
+                                          options.getOrDefault("log", "WARN")))
+                .initializers(probeInitializer())
+                .run();
+            contexts.add(context);
+            urls[i] = String.format("http://localhost:%s",
+                                    context.getEnvironment().getProperty("local.server.port"));
+            System.out.println(String.format("box-%s at %s costs %s and calls %s",
+                                             i, urls[i], coefficients, remoteCalls));
+        }
+        return urls[0];
+    }
+
+    private ApplicationContextInitializer<ConfigurableApplicationContext> probeInitializer () {
+        return context -> {
+            var registration = new FilterRegistrationBean<RequestProbe>(new RequestProbe(costs,
+                                                                                         inFlight));
+            registration.addUrlPatterns("/*");
+            context.getBeanFactory().registerSingleton("loadRequestProbe", registration);
+        };
+    }
+
+    public void shutdown () {
+        for (var context : contexts)
+            context.close();
+    }
+
+
+
+    /**
+     * Warms up the boxes so they learn their costs, then measures.
+     */
+    public void run (String root) throws InterruptedException {
+        double rate = doubleOption("rate", 20.);
+        var objectives = options.getOrDefault("objectives", "-1").split(",");
+        int maxArg = intOption("args", 10);
+
+        System.out.println(String.format("Warming up during %s s…", intOption("warmup", 30)));
+        drive(root, rate, intOption("warmup", 30), objectives, maxArg, null);
+        costs.clear();
+
+        System.out.println(String.format("Measuring during %s s at %s req/s…",
+                                         intOption("duration", 60), rate));
+        var report = new Report();
+        drive(root, rate, intOption("duration", 60), objectives, maxArg, report);
+
+        // #A remote calls are not awaited by parents, wait for the
+        // whole tree to be done before summing costs
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        do {
+            Thread.sleep(200);
+        } while (inFlight.get() > 0 && System.nanoTime() < deadline);
+        report.print(costs);
+    }
+
+    /**
+     * Open-loop load: request k is due at start + k/rate, and its
+     * latency counts from that instant even if it is sent late.
+     */
+    private void drive (String root, double rate, int seconds, String[] objectives,
+                        int maxArg, Report report) throws InterruptedException {
+        var executor = Executors.newCachedThreadPool();
+        var client = HttpClient.newBuilder()
+            .executor(executor)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+        var random = new Random(intOption("seed", 42));
+        long period = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        var pending = new AtomicLong();
+
+        for (long k = 0; start + k * period < end; ++k) {
+            long intended = start + k * period;
+            long wait = intended - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+
+            var id = String.format("%s-%s", report == null ? "warmup" : "load", k);
+            var objective = objectives[(int) (k % objectives.length)].trim();
+            var request = HttpRequest
+                .newBuilder(URI.create(String.format("%s/?args=%s", root,
+                                                     random.nextInt(maxArg + 1))))
+                .timeout(Duration.ofSeconds(60))
+                .header(RequestProbe.HEADER, id)
+                .header("objective", objective)
+                .GET().build();
+
+            pending.incrementAndGet();
+            if (report != null)
+                report.sent(id, Double.parseDouble(objective));
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                        if (report != null)
+                            report.completed(id, intended, System.nanoTime(),
+                                             error == null && response.statusCode() == 200);
+                        pending.decrementAndGet();
+                    });
+        }
+
+        while (pending.get() > 0)
+            Thread.sleep(50);
+        if (report != null)
+            report.stop(System.nanoTime() - start);
+        executor.shutdown();
+    }
+
+
+
+    /**
+     * Latencies (µs) from intended send times, and objectives of
+     * requests to compare with their actual cost.
+     */
+    private static class Report {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final ConcurrentHashMap<String, Double> objectives = new ConcurrentHashMap<>();
+        final AtomicLong errors = new AtomicLong();
+        long elapsed = 0;
+
+        void sent (String id, double objective) {
+            objectives.put(id, objective);
+        }
+
+        void completed (String id, long intended, long done, boolean isOk) {
+            if (!isOk) {
+                errors.incrementAndGet();
+                objectives.remove(id);
+            }
+            latencies.record((done - intended) / 1000);
+        }
+
+        void stop (long elapsed) {
+            this.elapsed = elapsed;
+        }
+
+        void print (ConcurrentHashMap<String, DoubleAdder> costs) {
+            double seconds = elapsed / 1e9;
+            long completed = latencies.getCount() - errors.get();
+            System.out.println(String.format("requests: %s sent, %s ok, %s errors, %.1f req/s",
+                                             latencies.getCount(), completed, errors.get(),
+                                             completed / seconds));
+            System.out.println(String.format("latency (ms): mean=%.1f p50=%.1f p90=%.1f " +
+                                             "p99=%.1f p99.9=%.1f max=%.1f",
+                                             latencies.getMean() / 1000.,
+                                             latencies.getValueAtPercentile(50) / 1000.,
+                                             latencies.getValueAtPercentile(90) / 1000.,
+                                             latencies.getValueAtPercentile(99) / 1000.,
+                                             latencies.getValueAtPercentile(99.9) / 1000.,
+                                             latencies.getMax() / 1000.));
+            long from = 0;
+            for (long to = 1000; from < latencies.getMax(); to *= 2) { // log2 buckets from 1 ms
+                System.out.println(String.format("  ]%6s, %6s] ms: %s", from / 1000, to / 1000,
+                                                 latencies.countBetween(from, to)));
+                from = to;
+            }
+
+            // #B objective accuracy at the root, relative error (%)
+            var errorsToObjective = new LatencyHistogram();
+            for (var kv : objectives.entrySet()) {
+                var cost = costs.get(kv.getKey());
+                if (kv.getValue() <= 0 || cost == null)
+                    continue; // no objective, or lost
+                errorsToObjective.record(Math.round(100. * Math.abs(cost.sum() - kv.getValue())
+                                                    / kv.getValue()));
+            }
+            if (errorsToObjective.getCount() == 0)
+                return;
+            System.out.println(String.format("objective error (%%): mean=%.1f p50=%s p90=%s " +
+                                             "p99=%s over %s requests",
+                                             errorsToObjective.getMean(),
+                                             errorsToObjective.getValueAtPercentile(50),
+                                             errorsToObjective.getValueAtPercentile(90),
+                                             errorsToObjective.getValueAtPercentile(99),
+                                             errorsToObjective.getCount()));
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package fr.sigma.load;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+
+
+/**
+ * Servlet filter installed in every box of the harness. Boxes
+ * propagate headers starting with "x-", so the handling times of all
+ * boxes involved in a request sum up under its identifier, i.e., its
+ * actual cost to compare with its objective.
+ */
+public class RequestProbe implements Filter {
+
+    public static final String HEADER = "x-load-request-id";
+
+    private final ConcurrentHashMap<String, DoubleAdder> costs;
+    private final AtomicInteger inFlight;
+
+    public RequestProbe (ConcurrentHashMap<String, DoubleAdder> costs,
+                         AtomicInteger inFlight) {
+        this.costs = costs;
+        this.inFlight = inFlight;
+    }
+
+    @Override
+    public void doFilter (ServletRequest request, ServletResponse response,
+                          FilterChain chain) throws IOException, ServletException {
+        var id = ((HttpServletRequest) request).getHeader(HEADER);
+        if (Objects.isNull(id)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            double millis = (System.nanoTime() - start) / 1e6; // cost unit of boxes
+            costs.computeIfAbsent(id, k -> new DoubleAdder()).add(millis);
+            inFlight.decrementAndGet();
+        }
+    }
+
+}
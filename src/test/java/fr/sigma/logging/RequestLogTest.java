@@ -0,0 +1,50 @@
+package fr.sigma.logging;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.LoggerFactory;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class RequestLogTest {
+
+    @Test
+    public void noRingWithoutCapacity () {
+        assertNull(RequestLog.open(0));
+        assertNull(RequestLog.current());
+        RequestLog.log(LoggerFactory.getLogger(getClass()), "logged as usual {}", 42);
+        RequestLog.close();
+    }
+
+    @Test
+    public void ringIsBoundToItsThread () throws Exception {
+        var log = RequestLog.open(4);
+        assertEquals(log, RequestLog.current());
+        var seen = new AtomicReference<RequestLog>(log);
+        var other = new Thread(() -> seen.set(RequestLog.current()));
+        other.start();
+        other.join();
+        assertNull(seen.get()); // on the test thread, so it fails the test
+        RequestLog.close();
+        assertNull(RequestLog.current());
+    }
+
+    @Test
+    public void ringKeepsLastEvents () {
+        var log = new RequestLog(2);
+        var logger = LoggerFactory.getLogger(getClass());
+        for (int i = 0; i < 5; ++i)
+            RequestLog.log(log, logger, "event {} with {}", i, new Double[]{1., 2.});
+        assertTrue(log.elapsedMillis() >= 0);
+        var message = log.dump(logger, false, "test");
+        assertTrue(message.contains("last 2 of 5 events"));
+        assertTrue(message.contains("event 4 with [1.0, 2.0]"));
+        assertTrue(!message.contains("event 2"));
+        assertNull(log.dump(logger, false, "test")); // once only
+    }
+
+}
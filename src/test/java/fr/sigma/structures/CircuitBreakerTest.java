@@ -0,0 +1,89 @@
+package fr.sigma.structures;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class CircuitBreakerTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void opensAtFailureRate () {
+        var clock = new AtomicLong(0);
+        var breaker = new CircuitBreaker(4, 4, .5, 100, 1000, clock::get);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess(); // too few calls yet
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState()); // 3/4
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void oldFailuresLeaveTheWindow () {
+        var clock = new AtomicLong(0);
+        var breaker = new CircuitBreaker(4, 4, .75, 100, 1000, clock::get);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onSuccess(); // 2/4
+        breaker.onFailure(); // 2/4, the first failure left
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(); // 2/4
+        breaker.onFailure(); // 3/4
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenProbeThenExponentialBackoff () {
+        var clock = new AtomicLong(0);
+        var breaker = new CircuitBreaker(2, 1, 1., 100, 250, clock::get);
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+
+        clock.set(100 * MS);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest()); // the probe
+        assertFalse(breaker.allowRequest()); // only one
+        breaker.onFailure();
+
+        clock.set(299 * MS); // opened again for 200 ms
+        assertFalse(breaker.allowRequest());
+        clock.set(300 * MS);
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        clock.set(549 * MS); // capped at 250 ms
+        assertFalse(breaker.allowRequest());
+        clock.set(550 * MS);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure(); // back to the first backoff
+        clock.set(650 * MS);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void lostProbeIsReplaced () {
+        var clock = new AtomicLong(0);
+        var breaker = new CircuitBreaker(2, 1, 1., 100, 1000, clock::get);
+        breaker.onFailure();
+        clock.set(100 * MS);
+        assertTrue(breaker.allowRequest());
+        clock.set(150 * MS);
+        assertFalse(breaker.allowRequest());
+        clock.set(200 * MS);
+        assertTrue(breaker.allowRequest());
+    }
+
+}
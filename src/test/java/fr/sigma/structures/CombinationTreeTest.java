@@ -0,0 +1,54 @@
+package fr.sigma.structures;
+
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+
+public class CombinationTreeTest {
+
+    @Test
+    public void emptyTree () {
+        var tree = new CombinationTree<Integer>(new ArrayList<>(), 0, Integer::sum);
+        assertEquals(0, (int) tree.root());
+    }
+
+    @Test
+    public void combineAllLeaves () {
+        var leaves = new ArrayList<Integer>();
+        for (int i = 1; i <= 11; ++i)
+            leaves.add(i);
+        var tree = new CombinationTree<Integer>(leaves, 0, Integer::sum);
+        assertEquals(66, (int) tree.root());
+        assertEquals(11, tree.size());
+        assertEquals(4, (int) tree.get(3));
+    }
+
+    @Test
+    public void updateOnlyRecomputesPath () {
+        var calls = new AtomicInteger();
+        var leaves = new ArrayList<Integer>();
+        for (int i = 0; i < 64; ++i)
+            leaves.add(1);
+        var tree = new CombinationTree<Integer>(leaves, 0, (a, b) -> {
+                calls.incrementAndGet();
+                return a + b;
+        });
+        assertEquals(64, (int) tree.root());
+        assertEquals(63, calls.get());
+
+        calls.set(0);
+        tree.set(42, 10);
+        assertEquals(73, (int) tree.root());
+        assertEquals(6, calls.get()); // log2(64)
+        
+        calls.set(0);
+        assertEquals(73, (int) tree.root());
+        assertEquals(0, calls.get());
+    }
+    
+}
@@ -0,0 +1,81 @@
+package fr.sigma.structures;
+
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class CombinedIntervalsTest {
+
+    private static IntervalSet set (double... bounds) {
+        double[] lowers = new double[bounds.length / 2];
+        double[] uppers = new double[bounds.length / 2];
+        for (int i = 0; i < lowers.length; ++i) {
+            lowers[i] = bounds[2*i]; uppers[i] = bounds[2*i + 1];
+        }
+        return IntervalSet.of(lowers, uppers);
+    }
+
+    @Test
+    public void combineIsTheSum () {
+        var i1 = set(10., 20., 25., 40.);
+        var i2 = set(40., 60., 80., 110.);
+        var combined = CombinedIntervals.combine(CombinedIntervals.leaf(i1),
+                                                 CombinedIntervals.leaf(i2),
+                                                 Integer.MAX_VALUE, 0.);
+        assertEquals(i1.sum(i2), combined.intervals);
+        assertTrue(!combined.isLeaf());
+    }
+
+    @Test
+    public void splitGoesBackToChildrenRanges () {
+        var i1 = set(0., 10., 100., 110.);
+        var i2 = set(0., 1., 50., 51.);
+        var combined = CombinedIntervals.combine(CombinedIntervals.leaf(i1),
+                                                 CombinedIntervals.leaf(i2),
+                                                 Integer.MAX_VALUE, 0.);
+        // {[0, 11], [50, 61], [100, 111], [150, 161]}
+        assertEquals(4, combined.intervals.size());
+        var split = combined.split(2, 105.);
+        assertEquals(1, split.leftRange);
+        assertEquals(0, split.rightRange);
+        assertEquals(105., split.leftValue + split.rightValue, 1e-9);
+        assertTrue(i1.lower(1) <= split.leftValue && split.leftValue <= i1.upper(1));
+        assertTrue(i2.lower(0) <= split.rightValue && split.rightValue <= i2.upper(0));
+    }
+
+    @Test
+    public void splitInFilledGapIsClamped () {
+        var i1 = set(0., 10., 100., 110.);
+        var i2 = set(0., 0.);
+        var combined = CombinedIntervals.combine(CombinedIntervals.leaf(i1),
+                                                 CombinedIntervals.leaf(i2),
+                                                 1, 0.);
+        assertEquals(1, combined.intervals.size()); // [0, 110]
+        var low = combined.split(0, 30.);
+        assertEquals(0, low.leftRange);
+        assertEquals(10., low.leftValue + low.rightValue, 1e-9);
+        var high = combined.split(0, 80.); // closer to 100, but above
+        assertEquals(0, high.leftRange);
+        assertEquals(10., high.leftValue + high.rightValue, 1e-9);
+        var inside = combined.split(0, 105.);
+        assertEquals(1, inside.leftRange);
+        assertEquals(105., inside.leftValue + inside.rightValue, 1e-9);
+    }
+
+    @Test
+    public void emptyChildIsNeutral () {
+        var i1 = set(5., 10.);
+        var combined = CombinedIntervals.combine(CombinedIntervals.leaf(i1),
+                                                 CombinedIntervals.EMPTY,
+                                                 Integer.MAX_VALUE, 0.);
+        assertEquals(i1, combined.intervals);
+        var split = combined.split(0, 7.);
+        assertEquals(0, split.leftRange);
+        assertEquals(-1, split.rightRange);
+        assertEquals(7., split.leftValue, 1e-9);
+    }
+
+}
@@ -0,0 +1,93 @@
+package fr.sigma.structures;
+
+
+import com.google.common.collect.Range;
+import com.google.common.collect.TreeRangeSet;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+
+public class IntervalSetTest {
+
+    @Test
+    public void empty () {
+        assert(IntervalSet.EMPTY.isEmpty());
+        assertEquals(-1, IntervalSet.EMPTY.nearest(42.));
+        assertEquals(IntervalSet.EMPTY, IntervalSet.of(new double[0], new double[0]));
+    }
+
+    @Test
+    public void normalizeUnsortedAndOverlapping () {
+        var is = IntervalSet.of(new double[]{10., 1., 3.}, new double[]{12., 4., 5.});
+        assertEquals(2, is.size());
+        assertEquals(1., is.lower(0));
+        assertEquals(5., is.upper(0));
+        assertEquals(10., is.lower(1));
+        assert(is.contains(4.5));
+        assert(!is.contains(7.));
+        assert(is.encloses(2., 5.));
+        assert(!is.encloses(2., 11.));
+    }
+
+    @Test
+    public void unionAndSum () {
+        var i1 = IntervalSet.of(new double[]{1., 5.}, new double[]{2., 6.});
+        var i2 = IntervalSet.of(3., 10.);
+        assertEquals(IntervalSet.of(4., 16.), i1.sum(i2));
+        assertEquals(i1, i1.sum(IntervalSet.EMPTY));
+        assertEquals(IntervalSet.of(new double[]{1., 3.}, new double[]{2., 10.}), i1.union(i2));
+        assert(i1.union(i2).enclosesAll(i1));
+    }
+
+    @Test
+    public void pairwiseMax () {
+        var i1 = IntervalSet.of(new double[]{1., 10.}, new double[]{2., 12.});
+        var i2 = IntervalSet.of(new double[]{0., 5.}, new double[]{3., 6.});
+        // [1,3] [5,6] [10,12] [10,12]
+        assertEquals(IntervalSet.of(new double[]{1., 5., 10.}, new double[]{3., 6., 12.}),
+                     i1.max(i2, Integer.MAX_VALUE, 0.));
+        assertEquals(IntervalSet.of(new double[]{1., 10.}, new double[]{6., 12.}),
+                     i1.max(i2, 2, 0.));
+        assertEquals(i1, i1.max(IntervalSet.EMPTY, Integer.MAX_VALUE, 0.));
+    }
+
+    @Test
+    public void nearestRange () {
+        var is = IntervalSet.of(new double[]{0., 10., 20.}, new double[]{2., 12., 22.});
+        assertEquals(0, is.nearest(-5.));
+        assertEquals(1, is.nearest(11.));
+        assertEquals(1, is.nearest(15.));
+        assertEquals(2, is.nearest(18.));
+        assertEquals(2, is.nearest(100.));
+        assertEquals(1, is.closestLower(14.));
+        assertEquals(2, is.closestLower(16.));
+    }
+
+    @Test
+    public void coalesceKeepsLargestGaps () {
+        var is = IntervalSet.of(new double[]{0., 3., 10., 13., 100.},
+                                new double[]{2., 5., 12., 15., 102.});
+        assertEquals(3, is.coalesce(Integer.MAX_VALUE, 1.).size());
+        var capped = is.coalesce(2, 0.);
+        assertEquals(IntervalSet.of(new double[]{0., 100.}, new double[]{15., 102.}), capped);
+    }
+
+    @Test
+    public void coalesceToASingleRange () {
+        var is = IntervalSet.of(new double[]{0., 3., 10.}, new double[]{2., 5., 12.});
+        assertEquals(IntervalSet.of(0., 12.), is.coalesce(1, 0.));
+        assertEquals(IntervalSet.of(0., 13.), is.sum(IntervalSet.of(0., 1.), 1, 0.));
+    }
+
+    @Test
+    public void rangeSetAdapters () {
+        TreeRangeSet<Double> rs = TreeRangeSet.create();
+        rs.add(Range.closed(1., 2.));
+        rs.add(Range.closed(12., 13.));
+        var is = IntervalSet.fromRangeSet(rs);
+        assertEquals(2, is.size());
+        assertEquals(rs, is.toRangeSet());
+    }
+    
+}
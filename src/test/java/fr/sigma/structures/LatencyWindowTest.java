@@ -0,0 +1,41 @@
+package fr.sigma.structures;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+
+public class LatencyWindowTest {
+
+    @Test
+    public void nearestRankPercentiles () {
+        var window = new LatencyWindow(100);
+        for (int i = 100; i > 0; --i)
+            window.record(i);
+        assertEquals(50., window.percentile(50., 1));
+        assertEquals(95., window.percentile(95., 1));
+        assertEquals(100., window.percentile(100., 1));
+        assertEquals(1., window.percentile(0., 1));
+    }
+
+    @Test
+    public void tooFewLatencies () {
+        var window = new LatencyWindow(10);
+        assertEquals(-1., window.percentile(50., 1));
+        window.record(3.);
+        assertEquals(-1., window.percentile(50., 2));
+        assertEquals(3., window.percentile(50., 1));
+    }
+
+    @Test
+    public void oldLatenciesForgotten () {
+        var window = new LatencyWindow(3);
+        window.record(100.);
+        window.record(1.);
+        window.record(2.);
+        window.record(3.);
+        assertEquals(3, window.size());
+        assertEquals(3., window.percentile(100., 3));
+    }
+
+}
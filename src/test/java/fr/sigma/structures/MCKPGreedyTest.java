@@ -0,0 +1,68 @@
+package fr.sigma.structures;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+
+public class MCKPGreedyTest {
+
+    private static int profit (ArrayList<MCKPElement> solution) {
+        return solution.stream().mapToInt(e -> e.profit).sum();
+    }
+
+    private static int weight (ArrayList<MCKPElement> solution) {
+        return solution.stream().mapToInt(e -> e.weight).sum();
+    }
+    
+    @Test
+    public void noSatisfyingSolution () {
+        var greedy = new MCKPGreedy(new ArrayList<>(Arrays.asList(new MCKPElement(1,1,0),
+                                                                  new MCKPElement(47,47,1),
+                                                                  new MCKPElement(11,11,2))));
+        assert(greedy.solve(58).isEmpty());
+        assertEquals(3, greedy.solve(59).size());
+    }
+
+    @Test
+    public void oneElementPerGroup () {
+        var greedy = new MCKPGreedy(new ArrayList<>(Arrays.asList(new MCKPElement(1,1,1),
+                                                                  new MCKPElement(1,1,2),
+                                                                  new MCKPElement(2,2,2),
+                                                                  new MCKPElement(3,3,2),
+                                                                  new MCKPElement(2,2,3))));
+        var s = greedy.solve(7);
+        assertEquals(3, s.size());
+        assertEquals(6, weight(s)); // every heaviest element
+        assertEquals(0, greedy.getErrorBound());
+    }
+
+    @Test
+    public void boundedErrorComparedToExact () {
+        var random = new Random(1337);
+        for (int run = 0; run < 50; ++run) {
+            var elements = new ArrayList<MCKPElement>();
+            for (int g = 0; g < 4; ++g)
+                for (int k = 0; k < 4; ++k) {
+                    int w = random.nextInt(40);
+                    elements.add(new MCKPElement(w + random.nextInt(10), w, g));
+                }
+            int objective = 20 + random.nextInt(100);
+            var greedy = new MCKPGreedy(new ArrayList<>(elements));
+            var approximate = greedy.solve(objective);
+
+            elements.sort((a, b) -> a.group != b.group ? a.group - b.group : a.weight - b.weight);
+            var exact = new MCKP(objective, elements).solve(objective);
+
+            assertEquals(exact.isEmpty(), approximate.isEmpty());
+            assert(weight(approximate) <= objective);
+            assert(profit(exact) - profit(approximate) <= greedy.getErrorBound());
+        }
+    }
+    
+}
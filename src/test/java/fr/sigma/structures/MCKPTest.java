@@ -3,6 +3,7 @@ package fr.sigma.structures;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -128,4 +129,46 @@ public class MCKPTest {
 	}
 	assert(!mckp.solve(59).isEmpty());
     }
+
+
+
+    @Test
+    public void processRowAsTheDefinition () {
+        // compare the row kernel with the cell by cell definition of
+        // max(diag + profit, above)
+        var random = new Random(42);
+        int max = 137;
+        var elements = new ArrayList<MCKPElement>();
+        for (int g = 0; g < 5; ++g)
+            for (int k = 0; k < 1 + random.nextInt(4); ++k) {
+                int w = random.nextInt(30);
+                elements.add(new MCKPElement(w, w, g));
+            }
+        var mckp = new MCKP(max, new ArrayList<>(elements));
+        mckp.process();
+        var matrix = mckp.getMatrix();
+
+        elements.add(0, MCKPElement.PLACEHOLDER());
+        int iPreviousGroup = -1, previousGroup = -1, minWeight = 0;
+        for (int i = 1; i < elements.size(); ++i) {
+            var e = elements.get(i);
+            boolean newGroup = e.group != previousGroup;
+            if (newGroup) {
+                minWeight += e.weight;
+                previousGroup = e.group;
+                iPreviousGroup = i-1;
+            }
+            assertEquals(-1, (int) matrix.get(i).get(0));
+            for (int w = 1; w <= max; ++w) {
+                int expected = -1;
+                if (w >= minWeight) {
+                    int diag = (w < e.weight) ? -1 : matrix.get(iPreviousGroup).get(w - e.weight);
+                    int option1 = (diag < 0) ? -1 : diag + e.profit;
+                    int option2 = newGroup ? -1 : matrix.get(i-1).get(w);
+                    expected = Math.max(option1, option2);
+                }
+                assertEquals(expected, (int) matrix.get(i).get(w));
+            }
+        }
+    }
 }
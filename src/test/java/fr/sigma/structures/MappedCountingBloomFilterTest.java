@@ -0,0 +1,71 @@
+package fr.sigma.structures;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+
+public class MappedCountingBloomFilterTest {
+
+    @Test
+    public void countsNeverUnderestimate () throws IOException {
+        var file = Files.createTempDirectory("filter").resolve("box.filter");
+        var filter = new MappedCountingBloomFilter(file, 1000, 0.01);
+        for (int i = 0; i < 1000; ++i)
+            for (int j = 0; j <= i % 5; ++j)
+                filter.add(Integer.toString(i));
+        int exact = 0;
+        for (int i = 0; i < 1000; ++i) {
+            long count = filter.getEstimatedCount(Integer.toString(i));
+            assertTrue(count >= i % 5 + 1);
+            exact += count == i % 5 + 1 ? 1 : 0;
+        }
+        assertTrue(exact > 950);
+        assertEquals(0, filter.getEstimatedCount("never added"));
+        filter.close();
+    }
+
+    @Test
+    public void countsSurviveReopening () throws IOException {
+        var file = Files.createTempDirectory("filter").resolve("box.filter");
+        var filter = new MappedCountingBloomFilter(file, 100, 0.01);
+        assertFalse(filter.isRestored());
+        filter.add("[42.0]");
+        filter.add("[42.0]");
+        filter.close();
+
+        var reopened = new MappedCountingBloomFilter(file, 100, 0.01);
+        assertTrue(reopened.isRestored());
+        assertEquals(2, reopened.getEstimatedCount("[42.0]"));
+        reopened.close();
+
+        var resized = new MappedCountingBloomFilter(file, 1000, 0.01);
+        assertFalse(resized.isRestored());
+        assertEquals(0, resized.getEstimatedCount("[42.0]"));
+        resized.close();
+    }
+
+    @Test
+    public void concurrentAddsAreNotLost () throws Exception {
+        var file = Files.createTempDirectory("filter").resolve("box.filter");
+        var filter = new MappedCountingBloomFilter(file, 100, 0.01);
+        var executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; ++t)
+            executor.submit(() -> {
+                    for (int i = 0; i < 10000; ++i)
+                        filter.add("[1.0]");
+                });
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(40000, filter.getEstimatedCount("[1.0]"));
+        filter.close();
+    }
+
+}